@@ -0,0 +1,396 @@
+package server.index;
+
+import org.apache.lucene.document.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentHelper;
+import server.index.indexer.BooleanXPathIndexer;
+import server.index.indexer.CompleteStringIndexer;
+import server.index.indexer.DateTimeIndexer;
+import server.index.indexer.DateXPathIndexer;
+import server.index.indexer.DecimalXPathIndexer;
+import server.index.indexer.DefaultIndexer;
+import server.index.indexer.IntegerXPathIndexer;
+import server.index.indexer.ReverseCompleteStringIndexer;
+import server.index.indexer.ReverseStringIndexer;
+import server.index.indexer.TimeXPathIndexer;
+import server.index.valueAssistance.DefaultProvider;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A synthetic corpus for the benchmarks: OSD-like Indexables whose system metadata has the layout of
+ * ObjectSystemData.getSystemMetadata(), whose metadata consists of several metasets and whose content
+ * is an XML document of a configurable size. The corpus is generated from a fixed seed, so every run
+ * indexes the same data. Nothing here needs a database or a content store.
+ */
+public class BenchmarkCorpus {
+
+    static final String REPOSITORY = "benchmark";
+    static final String OSD_CLASS = "server.data.ObjectSystemData";
+    static final String[] STATES = {"draft", "review", "approved", "published", "archived",
+            "translation", "rejected", "obsolete", "locked", "released"};
+    static final String[] WORDS = {"engine", "manual", "pressure", "valve", "maintenance", "warning",
+            "assembly", "torque", "bolt", "cylinder", "inspection", "interval", "hydraulic", "pump",
+            "filter", "replace", "check", "operator", "safety", "temperature", "sensor", "module"};
+
+    final List<SyntheticObject> objects = new ArrayList<SyntheticObject>();
+
+    /**
+     * @param size       the number of objects
+     * @param paragraphs the number of paragraphs in the content of each object
+     */
+    public BenchmarkCorpus(int size, int paragraphs) {
+        Random random = new Random(42);
+        for (int i = 1; i <= size; i++) {
+            objects.add(new SyntheticObject(i, createSystemMetadata(i, random), createMetadata(i, random),
+                    createContent(i, paragraphs, random)));
+        }
+    }
+
+    public List<SyntheticObject> getObjects() {
+        return objects;
+    }
+
+    public SyntheticObject get(int index) {
+        return objects.get(index % objects.size());
+    }
+
+    static String createSystemMetadata(long id, Random random) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.ENGLISH);
+        long created = 1262304000000L + (long) (random.nextDouble() * 315360000000L);
+        long modified = created + random.nextInt(86400000) * 30L;
+        long version = 1 + random.nextInt(5);
+        StringBuilder xml = new StringBuilder(2048);
+        xml.append("<sysMeta javaClass=\"").append(OSD_CLASS).append("\" hibernateId=\"").append(id)
+                .append("\" id=\"").append(OSD_CLASS).append('@').append(id).append("\"><object>");
+        element(xml, "id", String.valueOf(id));
+        element(xml, "name", "Document " + id + " " + word(random) + " " + word(random));
+        element(xml, "version", String.valueOf(version));
+        element(xml, "created", format.format(new Date(created)));
+        element(xml, "modified", format.format(new Date(modified)));
+        element(xml, "procstate", STATES[random.nextInt(STATES.length)]);
+        element(xml, "aclId", String.valueOf(1 + random.nextInt(20)));
+        element(xml, "appName", "");
+        element(xml, "latestHead", String.valueOf(random.nextInt(4) > 0));
+        element(xml, "latestBranch", "true");
+        xml.append("<lockedBy/>");
+        user(xml, "owner", random);
+        user(xml, "creator", random);
+        user(xml, "modifier", random);
+        xml.append("<format><id>3</id><name>XML</name><sysName>format.xml</sysName><description>XML</description>")
+                .append("<contentType>application/xml</contentType><extension>xml</extension></format>");
+        xml.append("<objectType><id>1</id><name>Document</name><sysName>_default_objtype</sysName>")
+                .append("<description>Document</description></objectType>");
+        element(xml, "contentsize", String.valueOf(1000 + random.nextInt(1000000)));
+        element(xml, "parentId", String.valueOf(1 + random.nextInt(500)));
+        element(xml, "predecessorId", version > 1 ? String.valueOf(id - 1) : "");
+        element(xml, "rootId", String.valueOf(id));
+        xml.append("<language><id>1</id><isoCode>und</isoCode></language>");
+        xml.append("<lifeCycleState/>");
+        xml.append("</object></sysMeta>");
+        return xml.toString();
+    }
+
+    static void user(StringBuilder xml, String elementName, Random random) {
+        int userId = 1 + random.nextInt(50);
+        xml.append('<').append(elementName).append('>');
+        element(xml, "id", String.valueOf(userId));
+        element(xml, "name", "user" + userId);
+        element(xml, "fullname", "User " + userId);
+        element(xml, "description", "");
+        element(xml, "activated", "true");
+        element(xml, "isSuperuser", "false");
+        element(xml, "sudoer", "false");
+        element(xml, "sudoable", "false");
+        element(xml, "email", "user" + userId + "@example.com");
+        xml.append("</").append(elementName).append('>');
+    }
+
+    static String createMetadata(long id, Random random) {
+        StringBuilder xml = new StringBuilder(1024);
+        xml.append("<meta>");
+        xml.append("<metaset id=\"").append(id * 3).append("\" type=\"review\">");
+        element(xml, "state", STATES[random.nextInt(STATES.length)]);
+        element(xml, "reviewer", "user" + (1 + random.nextInt(50)));
+        element(xml, "score", String.valueOf(random.nextInt(1000)));
+        element(xml, "price", String.format(Locale.ENGLISH, "%.2f", random.nextDouble() * 10000));
+        element(xml, "due", String.format("2014-%02d-%02dT%02d:%02d:00", 1 + random.nextInt(12),
+                1 + random.nextInt(28), random.nextInt(24), random.nextInt(60)));
+        xml.append("</metaset>");
+        xml.append("<metaset id=\"").append(id * 3 + 1).append("\" type=\"tags\">");
+        int tags = 1 + random.nextInt(6);
+        for (int i = 0; i < tags; i++) {
+            element(xml, "tag", word(random));
+        }
+        xml.append("</metaset>");
+        xml.append("<metaset id=\"").append(id * 3 + 2).append("\" type=\"translation\">");
+        element(xml, "source", String.valueOf(Math.max(1, id - random.nextInt(10))));
+        element(xml, "language", random.nextBoolean() ? "de" : "en");
+        xml.append("</metaset>");
+        xml.append("</meta>");
+        return xml.toString();
+    }
+
+    static String createContent(long id, int paragraphs, Random random) {
+        StringBuilder xml = new StringBuilder(paragraphs * 400 + 200);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><manual id=\"m").append(id).append("\">");
+        xml.append("<head>");
+        element(xml, "title", word(random) + " " + word(random) + " " + word(random));
+        element(xml, "pages", String.valueOf(1 + paragraphs / 10));
+        xml.append("</head><body>");
+        for (int p = 0; p < paragraphs; p++) {
+            if (p % 10 == 0) {
+                xml.append("<section>");
+                element(xml, "heading", word(random) + " " + word(random));
+            }
+            xml.append("<para>");
+            int words = 40 + random.nextInt(40);
+            for (int w = 0; w < words; w++) {
+                xml.append(word(random)).append(' ');
+            }
+            xml.append("</para>");
+            if (p % 10 == 9 || p == paragraphs - 1) {
+                xml.append("</section>");
+            }
+        }
+        xml.append("</body></manual>");
+        return xml.toString();
+    }
+
+    static void element(StringBuilder xml, String name, String text) {
+        xml.append('<').append(name).append('>').append(text).append("</").append(name).append('>');
+    }
+
+    static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    /**
+     * @return one IndexType for each built-in indexer, by name, as created by CinnamonIndexInitializer.
+     * The ParentFolderPathIndexer is left out, as it loads the folder path from the database.
+     */
+    static Map<String, IndexType> createIndexTypes() {
+        Map<String, IndexType> types = new LinkedHashMap<String, IndexType>();
+        addType(types, new IndexType("xpath.boolean_indexer",
+                BooleanXPathIndexer.class, DefaultProvider.class, IndexType.DataType.BOOLEAN));
+        addType(types, new IndexType("xpath.date_indexer",
+                DateXPathIndexer.class, DefaultProvider.class, IndexType.DataType.DATE_TIME));
+        addType(types, new IndexType("xpath.integer_indexer",
+                IntegerXPathIndexer.class, DefaultProvider.class, IndexType.DataType.INTEGER));
+        addType(types, new IndexType("xpath.date_time_indexer",
+                DateTimeIndexer.class, DefaultProvider.class, IndexType.DataType.INTEGER));
+        addType(types, new IndexType("xpath.string_indexer",
+                DefaultIndexer.class, DefaultProvider.class, IndexType.DataType.TEXT));
+        addType(types, new IndexType("xpath.decimal_indexer",
+                DecimalXPathIndexer.class, DefaultProvider.class, IndexType.DataType.DECIMAL));
+        addType(types, new IndexType("xpath.time_indexer",
+                TimeXPathIndexer.class, DefaultProvider.class, IndexType.DataType.TIME));
+        addType(types, new IndexType("xpath.reverse_string_indexer",
+                ReverseStringIndexer.class, DefaultProvider.class, IndexType.DataType.STRING));
+        addType(types, new IndexType("xpath.reverse_complete_string_indexer",
+                ReverseCompleteStringIndexer.class, DefaultProvider.class, IndexType.DataType.STRING));
+        addType(types, new IndexType("xpath.complete_string_indexer",
+                CompleteStringIndexer.class, DefaultProvider.class, IndexType.DataType.STRING));
+        return types;
+    }
+
+    static void addType(Map<String, IndexType> types, IndexType type) {
+        types.put(type.getName(), type);
+    }
+
+    /**
+     * @param typeName the name of a built-in IndexType (see createIndexTypes)
+     * @return an IndexItem which applies the IndexType to a matching element of the corpus.
+     */
+    static IndexItem createIndexItem(String typeName) {
+        IndexType type = createIndexTypes().get(typeName);
+        IndexGroup group = new IndexGroup("_default_index_group");
+        String name = "benchmark." + typeName;
+        if (typeName.equals("xpath.boolean_indexer")) {
+            return sysMetaItem(name, "/sysMeta/object/latestHead", "latesthead", type, group);
+        }
+        else if (typeName.equals("xpath.date_indexer")) {
+            return sysMetaItem(name, "/sysMeta/object/created", "created", type, group);
+        }
+        else if (typeName.equals("xpath.integer_indexer")) {
+            return metadataItem(name, "/meta/metaset[@type='review']/score", "score", type, group, false);
+        }
+        else if (typeName.equals("xpath.date_time_indexer")) {
+            return sysMetaItem(name, "/sysMeta/object/modified", "modified", type, group);
+        }
+        else if (typeName.equals("xpath.string_indexer")) {
+            return new IndexItem(name, "//para", "true()", "content", type, true, "<vaParams/>", false, group,
+                    true, false, false);
+        }
+        else if (typeName.equals("xpath.decimal_indexer")) {
+            return metadataItem(name, "/meta/metaset[@type='review']/price", "price", type, group, false);
+        }
+        else if (typeName.equals("xpath.time_indexer")) {
+            return metadataItem(name, "/meta/metaset[@type='review']/due", "due", type, group, false);
+        }
+        else if (typeName.equals("xpath.reverse_string_indexer")) {
+            return sysMetaItem(name, "/sysMeta/object/name", "name_reverse", type, group);
+        }
+        else if (typeName.equals("xpath.reverse_complete_string_indexer")) {
+            return metadataItem(name, "/meta/metaset[@type='tags']/tag", "tag_reverse", type, group, true);
+        }
+        else {
+            return metadataItem(name, "/meta/metaset[@type='review']/state", "state", type, group, false);
+        }
+    }
+
+    static IndexItem sysMetaItem(String name, String xpath, String fieldname, IndexType type, IndexGroup group) {
+        return new IndexItem(name, xpath, "true()", fieldname, type, false, "<vaParams/>", true, group,
+                false, false, true);
+    }
+
+    static IndexItem metadataItem(String name, String xpath, String fieldname, IndexType type, IndexGroup group,
+                                  Boolean multipleResults) {
+        return new IndexItem(name, xpath, "true()", fieldname, type, multipleResults, "<vaParams/>", false, group,
+                false, true, false);
+    }
+
+    /**
+     * @return an IndexItem for each built-in IndexType.
+     */
+    static List<IndexItem> createIndexItems() {
+        List<IndexItem> items = new ArrayList<IndexItem>();
+        for (String typeName : createIndexTypes().keySet()) {
+            items.add(createIndexItem(typeName));
+        }
+        return items;
+    }
+
+    /**
+     * Create the Lucene document of an object the way LuceneBridge.createDocument does, without
+     * fingerprints and content fields.
+     */
+    static Document createDocument(LuceneBridge lucene, List<IndexItem> items, SyntheticObject object) {
+        IndexData data = lucene.loadIndexData(object, false);
+        Document doc = new Document();
+        lucene.storeStandardFields(data, doc);
+        for (IndexItem item : items) {
+            item.indexObject(data.getContent(), data.getMetadata(), data.getSystemMetadata(), doc);
+        }
+        return doc;
+    }
+
+    static byte[] toBytes(String xml) {
+        try {
+            return xml.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * An Indexable which keeps its system metadata, metadata and content in memory.
+     */
+    public static class SyntheticObject implements ExtendedIndexable {
+
+        final long id;
+        final String systemMetadata;
+        final String metadata;
+        final byte[] content;
+
+        SyntheticObject(long id, String systemMetadata, String metadata, String content) {
+            this.id = id;
+            this.systemMetadata = systemMetadata;
+            this.metadata = metadata;
+            this.content = toBytes(content);
+        }
+
+        @Override
+        public String getMetadata() {
+            return metadata;
+        }
+
+        @Override
+        public String getContent(String repository) {
+            try {
+                return new String(content, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public byte[] getContentAsBytes(String repository) {
+            return content;
+        }
+
+        @Override
+        public InputStream getContentAsStream(String repository) {
+            return new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public String getSystemMetadata() {
+            return systemMetadata;
+        }
+
+        /**
+         * Parses the generated XML, while ObjectSystemData and Folder build the Document directly.
+         */
+        @Override
+        public org.dom4j.Document getSystemMetadataAsDocument() {
+            try {
+                return DocumentHelper.parseText(systemMetadata);
+            } catch (DocumentException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        byte[] metadataBytes() {
+            return toBytes(metadata);
+        }
+
+        @Override
+        public Boolean hasXmlContent() {
+            return true;
+        }
+
+        @Override
+        public Boolean hasExtractableContent() {
+            return false;
+        }
+
+        @Override
+        public void updateIndex() {
+        }
+
+        @Override
+        public void updateIndex(ChangeScope scope) {
+        }
+
+        @Override
+        public Long myId() {
+            return id;
+        }
+
+        @Override
+        public Indexable reload() {
+            return this;
+        }
+
+        @Override
+        public String uniqueId() {
+            return OSD_CLASS + "@" + id;
+        }
+
+        @Override
+        public String javaClassName() {
+            return OSD_CLASS;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package server.index;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Version;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the query latency of each Lucene Directory implementation which lucene.properties can select
+ * (directoryType, see LuceneBridge.createDirectory). The corpus is indexed into a temporary folder in setUp;
+ * each query loads the stored documents of its first page, so both the postings and the stored fields are read.
+ * <p>The file based directories are read through the operating system's page cache, so the results show
+ * their overhead per read rather than disk speed. The concurrent benchmark shows the serialized reads of
+ * SimpleFSDirectory.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DirectoryBenchmark {
+
+    @Param({"simple", "nio", "mmap", "ram"})
+    String directoryType;
+
+    @Param({"10000"})
+    int corpusSize;
+
+    @Param({"50"})
+    int pageSize;
+
+    File folder;
+    Directory directory;
+    IndexReader reader;
+    IndexSearcher searcher;
+    Query termQuery;
+    Query booleanQuery;
+
+    @Setup
+    public void setUp() throws IOException {
+        LuceneBridge lucene = new LuceneBridge();
+        lucene.repository = "benchmark-" + directoryType;
+        LuceneBridge.luceneProperties.setProperty("directoryType." + lucene.repository, directoryType);
+        folder = Files.createTempDirectory("cinnamon-bench-").toFile();
+        directory = lucene.createDirectory(folder);
+
+        BenchmarkCorpus corpus = new BenchmarkCorpus(corpusSize, 5);
+        List<IndexItem> items = BenchmarkCorpus.createIndexItems();
+        IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_34, new StandardAnalyzer(Version.LUCENE_34));
+        IndexWriter writer = new IndexWriter(directory, config);
+        try {
+            for (BenchmarkCorpus.SyntheticObject object : corpus.getObjects()) {
+                writer.addDocument(BenchmarkCorpus.createDocument(lucene, items, object));
+            }
+        } finally {
+            writer.close();
+        }
+        reader = IndexReader.open(directory);
+        searcher = new IndexSearcher(reader);
+        termQuery = new TermQuery(new Term("state", "approved"));
+        BooleanQuery query = new BooleanQuery();
+        query.add(new TermQuery(new Term("content", "valve")), BooleanClause.Occur.MUST);
+        query.add(new TermQuery(new Term("content", "pressure")), BooleanClause.Occur.MUST);
+        booleanQuery = query;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        searcher.close();
+        reader.close();
+        directory.close();
+        LuceneBridge.deleteFolder(folder);
+    }
+
+    @Benchmark
+    public int termQuery() throws IOException {
+        return loadPage(searcher.search(termQuery, pageSize));
+    }
+
+    @Benchmark
+    public int booleanQuery() throws IOException {
+        return loadPage(searcher.search(booleanQuery, pageSize));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int booleanQueryConcurrent() throws IOException {
+        return loadPage(searcher.search(booleanQuery, pageSize));
+    }
+
+    int loadPage(TopDocs hits) throws IOException {
+        int fields = 0;
+        for (ScoreDoc hit : hits.scoreDocs) {
+            Document doc = searcher.doc(hit.doc);
+            fields += doc.getFields().size();
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,65 @@
+package server.index;
+
+import org.apache.lucene.document.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks IndexItem.indexObject for each built-in IndexType. The containers are parsed in setUp,
+ * so only the condition, the XPath and the indexer are measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IndexItemBenchmark {
+
+    @Param({"xpath.boolean_indexer", "xpath.date_indexer", "xpath.integer_indexer", "xpath.date_time_indexer",
+            "xpath.string_indexer", "xpath.decimal_indexer", "xpath.time_indexer", "xpath.reverse_string_indexer",
+            "xpath.reverse_complete_string_indexer", "xpath.complete_string_indexer"})
+    String indexType;
+
+    static final int OBJECTS = 50;
+
+    IndexItem item;
+    ContentContainer[] contents = new ContentContainer[OBJECTS];
+    ContentContainer[] metadata = new ContentContainer[OBJECTS];
+    ContentContainer[] systemMetadata = new ContentContainer[OBJECTS];
+    int next;
+
+    @Setup
+    public void setUp() {
+        BenchmarkCorpus corpus = new BenchmarkCorpus(OBJECTS, 20);
+        item = BenchmarkCorpus.createIndexItem(indexType);
+        for (int i = 0; i < OBJECTS; i++) {
+            BenchmarkCorpus.SyntheticObject object = corpus.get(i);
+            contents[i] = new ContentContainer(object, BenchmarkCorpus.REPOSITORY);
+            metadata[i] = new ContentContainer(object.metadataBytes());
+            systemMetadata[i] = new ContentContainer(object.getSystemMetadataAsDocument());
+            contents[i].asDocument();
+            metadata[i].asDocument();
+            systemMetadata[i].asDocument();
+        }
+    }
+
+    @Benchmark
+    public Document indexObject() {
+        next = (next + 1) % OBJECTS;
+        Document doc = new Document();
+        item.indexObject(contents[next], metadata[next], systemMetadata[next], doc);
+        return doc;
+    }
+}
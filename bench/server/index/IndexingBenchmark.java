@@ -0,0 +1,92 @@
+package server.index;
+
+import org.apache.lucene.document.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the per-document steps of the indexer: loading the IndexData, the standard fields,
+ * parsing and streaming the content, and a complete document with one IndexItem of each built-in IndexType.
+ * See IndexItemBenchmark for the IndexTypes on their own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class IndexingBenchmark {
+
+    /**
+     * Paragraphs of content per object: a short memo and a long manual.
+     */
+    @Param({"10", "500"})
+    int paragraphs;
+
+    BenchmarkCorpus corpus;
+    LuceneBridge lucene;
+    List<IndexItem> items;
+    List<String> streamablePaths;
+    IndexData[] indexData;
+    int next;
+
+    @Setup
+    public void setUp() {
+        corpus = new BenchmarkCorpus(200, paragraphs);
+        lucene = new LuceneBridge();
+        items = BenchmarkCorpus.createIndexItems();
+        streamablePaths = Arrays.asList("/manual/head/title", "//heading", "//para");
+        indexData = new IndexData[corpus.getObjects().size()];
+        for (int i = 0; i < indexData.length; i++) {
+            indexData[i] = lucene.loadIndexData(corpus.get(i), false);
+        }
+    }
+
+    BenchmarkCorpus.SyntheticObject nextObject() {
+        next = (next + 1) % corpus.getObjects().size();
+        return corpus.get(next);
+    }
+
+    @Benchmark
+    public Document storeStandardFields() {
+        next = (next + 1) % indexData.length;
+        Document doc = new Document();
+        lucene.storeStandardFields(indexData[next], doc);
+        return doc;
+    }
+
+    @Benchmark
+    public IndexData loadIndexData() {
+        return lucene.loadIndexData(nextObject(), false);
+    }
+
+    @Benchmark
+    public org.dom4j.Document contentAsDocument() {
+        return new ContentContainer(nextObject(), BenchmarkCorpus.REPOSITORY).asDocument();
+    }
+
+    @Benchmark
+    public ContentContainer contentStreamSelect() {
+        ContentContainer content = new ContentContainer(nextObject(), BenchmarkCorpus.REPOSITORY);
+        content.streamSelect(streamablePaths);
+        return content;
+    }
+
+    @Benchmark
+    public Document createDocument() {
+        return BenchmarkCorpus.createDocument(lucene, items, nextObject());
+    }
+}
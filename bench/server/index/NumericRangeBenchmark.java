@@ -0,0 +1,114 @@
+package server.index;
+
+import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermRangeQuery;
+import org.apache.lucene.search.TotalHitCountCollector;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks a range search on the zero-padded string field of a number (see NumericFields.pad) against
+ * the same range on its NumericField (see NumericFields.createField and queryBuilder.NumericRangeQueryBuilder).
+ * Each document gets a random value below 10^9 in both fields, as the numeric indexers create them.
+ * The term range query enumerates every distinct term in the range, the numeric range query only a few
+ * terms per precision step, so the difference grows with the number of values in the range (rangeWidth
+ * is the fraction of all values).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NumericRangeBenchmark {
+
+    static final String FIELD = "contentsize";
+    static final long MAX_VALUE = 1000000000L;
+
+    @Param({"100000", "1000000"})
+    int corpusSize;
+
+    @Param({"0.01", "0.5"})
+    double rangeWidth;
+
+    RAMDirectory directory;
+    IndexReader reader;
+    IndexSearcher searcher;
+    Query termRangeQuery;
+    Query numericRangeQuery;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = new RAMDirectory();
+        IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_34, new KeywordAnalyzer());
+        IndexWriter writer = new IndexWriter(directory, config);
+        Random random = new Random(42);
+        try {
+            for (int i = 0; i < corpusSize; i++) {
+                long value = (long) (random.nextDouble() * MAX_VALUE);
+                Document doc = new Document();
+                doc.add(new Field(FIELD, NumericFields.pad(value), Field.Store.NO, Field.Index.NOT_ANALYZED));
+                doc.add(NumericFields.createField(FIELD, value));
+                writer.addDocument(doc);
+            }
+            writer.forceMerge(1);
+        } finally {
+            writer.close();
+        }
+        reader = IndexReader.open(directory);
+        searcher = new IndexSearcher(reader);
+
+        long lower = MAX_VALUE / 4;
+        long upper = lower + (long) (rangeWidth * MAX_VALUE);
+        termRangeQuery = new TermRangeQuery(FIELD, NumericFields.pad(lower), NumericFields.pad(upper), true, true);
+        numericRangeQuery = NumericRangeQuery.newLongRange(NumericFields.fieldName(FIELD), NumericFields.PRECISION_STEP,
+                lower, upper, true, true);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        searcher.close();
+        reader.close();
+        directory.close();
+    }
+
+    @Benchmark
+    public int termRange() throws IOException {
+        return count(termRangeQuery);
+    }
+
+    @Benchmark
+    public int numericRange() throws IOException {
+        return count(numericRangeQuery);
+    }
+
+    int count(Query query) throws IOException {
+        TotalHitCountCollector collector = new TotalHitCountCollector();
+        searcher.search(query, collector);
+        return collector.getTotalHits();
+    }
+}
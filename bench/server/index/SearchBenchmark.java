@@ -0,0 +1,101 @@
+package server.index;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the two ways search results are collected: the ResultCollector of LuceneBridge.search
+ * and the SearchResult of the paged searches. The corpus is indexed into a RAMDirectory in setUp.
+ * Each of the ten procstates matches about a tenth of the corpus.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+    @Param({"10000"})
+    int corpusSize;
+
+    @Param({"0", "1000"})
+    int maxHits;
+
+    @Param({"50"})
+    int pageSize;
+
+    RAMDirectory directory;
+    IndexReader reader;
+    IndexSearcher searcher;
+    Query query;
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkCorpus corpus = new BenchmarkCorpus(corpusSize, 5);
+        LuceneBridge lucene = new LuceneBridge();
+        List<IndexItem> items = BenchmarkCorpus.createIndexItems();
+        directory = new RAMDirectory();
+        IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_34, new StandardAnalyzer(Version.LUCENE_34));
+        IndexWriter writer = new IndexWriter(directory, config);
+        try {
+            for (BenchmarkCorpus.SyntheticObject object : corpus.getObjects()) {
+                writer.addDocument(BenchmarkCorpus.createDocument(lucene, items, object));
+            }
+        } finally {
+            writer.close();
+        }
+        reader = IndexReader.open(directory);
+        searcher = new IndexSearcher(reader);
+        query = new TermQuery(new Term("state", "approved"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        searcher.close();
+        reader.close();
+        directory.close();
+    }
+
+    @Benchmark
+    public Collection<Document> resultCollector() throws IOException {
+        ResultCollector results = new ResultCollector(maxHits);
+        results.setSearcher(searcher);
+        searcher.search(query, results);
+        results.loadDocuments();
+        return results.getDocuments();
+    }
+
+    @Benchmark
+    public SearchResult searchResult() throws IOException {
+        TopDocs hits = searcher.search(query, pageSize);
+        return new SearchResult(hits, searcher, 0, pageSize);
+    }
+}
@@ -0,0 +1,102 @@
+package server.index;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the XPath evaluation of IndexItems: an expression which is parsed on every call
+ * (Node.selectNodes(String), as before CompiledXPath) against the CompiledXPath which IndexItem caches,
+ * and the searchCondition check with the default condition "true()" against a condition which must be
+ * evaluated. The documents are parsed in setUp, so only the XPath is measured.
+ * The condition benchmarks do not depend on the expression parameter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class XPathBenchmark {
+
+    /**
+     * A path in the system metadata, a path with a predicate in the metadata and a descendant search in the content.
+     */
+    @Param({"/sysMeta/object/procstate", "/meta/metaset[@type='review']/score", "//para"})
+    String expression;
+
+    static final int OBJECTS = 50;
+
+    Document[] documents = new Document[OBJECTS];
+    ContentContainer[][] containers = new ContentContainer[OBJECTS][];
+    CompiledXPath compiledXPath;
+    IndexItem defaultItem;
+    IndexItem conditionItem;
+    int next;
+
+    @Setup
+    public void setUp() throws DocumentException {
+        BenchmarkCorpus corpus = new BenchmarkCorpus(OBJECTS, 20);
+        for (int i = 0; i < OBJECTS; i++) {
+            BenchmarkCorpus.SyntheticObject object = corpus.get(i);
+            ContentContainer content = new ContentContainer(object.getContentAsBytes(BenchmarkCorpus.REPOSITORY));
+            ContentContainer metadata = new ContentContainer(object.metadataBytes());
+            ContentContainer systemMetadata = new ContentContainer(object.getSystemMetadataAsDocument());
+            containers[i] = new ContentContainer[]{content, metadata, systemMetadata};
+            if (expression.startsWith("/sysMeta/")) {
+                documents[i] = systemMetadata.asDocument();
+            } else if (expression.startsWith("/meta/")) {
+                documents[i] = metadata.asDocument();
+            } else {
+                documents[i] = DocumentHelper.parseText(object.getContent(BenchmarkCorpus.REPOSITORY));
+            }
+            for (ContentContainer container : containers[i]) {
+                container.asDocument();
+            }
+        }
+        compiledXPath = new CompiledXPath(expression);
+        defaultItem = BenchmarkCorpus.createIndexItem("xpath.complete_string_indexer");
+        conditionItem = BenchmarkCorpus.createIndexItem("xpath.complete_string_indexer");
+        conditionItem.setSearchCondition("/sysMeta/object/latestHead='true'");
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public List<Node> parsed() {
+        next = (next + 1) % OBJECTS;
+        return documents[next].selectNodes(expression);
+    }
+
+    @Benchmark
+    public List<Node> compiled() {
+        next = (next + 1) % OBJECTS;
+        return compiledXPath.selectNodes(documents[next]);
+    }
+
+    @Benchmark
+    public Boolean defaultCondition() {
+        next = (next + 1) % OBJECTS;
+        return defaultItem.checkCondition(containers[next]);
+    }
+
+    @Benchmark
+    public Boolean evaluatedCondition() {
+        next = (next + 1) % OBJECTS;
+        return conditionItem.checkCondition(containers[next]);
+    }
+}
@@ -26,6 +26,7 @@ import javax.persistence.*;
 import java.io.Serializable;
 import java.util.*;
 import server.index.IndexJob;
+import server.index.SecurityFilterCache;
 
 @NamedQueries(
 		{
@@ -102,6 +103,14 @@ import server.index.IndexJob;
 					name = "findRootFolder",
 					query = "select f from Folder f where f.name=:name and f.parent.id=f.id"
 			),
+			@NamedQuery(
+					name = "findFoldersByIds",
+					query = "select f from Folder f where f.id in (:ids)"
+			),
+			@NamedQuery(
+					name = "findFoldersAfterId",
+					query = "select f from Folder f where f.id > :id order by f.id"
+			),
             @NamedQuery(
 					name = "selectFolderByParentAndName",
 					query = "select f from Folder f where f.parent=:parent and f.name=:name"
@@ -221,6 +230,14 @@ import server.index.IndexJob;
 					name = "findAllByLockOwner",
 					query = "select o from ObjectSystemData o WHERE o.locked_by = :lockOwner"
 			),
+            @NamedQuery(
+					name = "findOsdsByIds",
+					query = "select o from ObjectSystemData o WHERE o.id in (:ids)"
+			),
+            @NamedQuery(
+					name = "findOsdsAfterId",
+					query = "select o from ObjectSystemData o WHERE o.id > :id order by o.id"
+			),
             @NamedQuery(
 					name = "findLatestBranchOrderByModified",
 					query = "select o from ObjectSystemData o WHERE o.latestBranch = true and o.root=:root order by o.modified desc"
@@ -548,6 +565,16 @@ public class Acl implements Serializable{
 		}	
 	}
 
+    /**
+     * A new or changed ACL invalidates the cached search filters.
+     */
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void invalidateSecurityFilters(){
+        SecurityFilterCache.aclChanged();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
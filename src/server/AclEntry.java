@@ -25,6 +25,7 @@ import server.Acl;
 import server.AclEntryPermission;
 import server.Group;
 import server.Permission;
+import server.index.SecurityFilterCache;
 
 import javax.persistence.*;
 import java.io.Serializable;
@@ -157,6 +158,16 @@ public class AclEntry implements Serializable{
 		}
 	}
 
+    /**
+     * Search filters are built from the AclEntries, so they are rebuilt after a change.
+     */
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void invalidateSecurityFilters(){
+        SecurityFilterCache.aclChanged();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -4,6 +4,7 @@ import server.AclEntry;
 import server.Permission;
 import server.dao.AclEntryPermissionDAO;
 import server.dao.DAOFactory;
+import server.index.SecurityFilterCache;
 
 import javax.persistence.*;
 import java.io.Serializable;
@@ -99,6 +100,16 @@ public class AclEntryPermission implements Serializable{
 		return getId();
 	}
 
+    /**
+     * Granting or revoking a permission changes which documents a search may return.
+     */
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void invalidateSecurityFilters(){
+        SecurityFilterCache.aclChanged();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
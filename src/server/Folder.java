@@ -41,6 +41,8 @@ import server.global.ConfThreadLocal;
 import server.global.Constants;
 import server.helpers.MetasetService;
 import server.helpers.ObjectTreeCopier;
+import server.index.ChangeScope;
+import server.index.ExtendedIndexable;
 import server.index.IndexAction;
 import server.index.IndexJob;
 import server.index.Indexable;
@@ -61,7 +63,7 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 		uniqueConstraints = {@UniqueConstraint(columnNames={"name", "parent_id"})}
 )
 public class Folder
-	implements Serializable, Ownable, Indexable, XmlConvertable, IMetasetOwner {
+	implements Serializable, Ownable, ExtendedIndexable, XmlConvertable, IMetasetOwner {
 
 	private static final long	serialVersionUID	= 1L;
 	static final DAOFactory daoFactory = DAOFactory.instance(DAOFactory.HIBERNATE);
@@ -120,6 +122,12 @@ public class Folder
 	@SuppressWarnings("unused")
 	private Long obj_version = 0L;
 
+	/**
+	 * True if the name or parent has been changed since the last flush (see FolderPathCache).
+	 */
+	@Transient
+	private transient boolean pathChanged = false;
+
 	public Folder(){
 
 	}
@@ -315,6 +323,9 @@ public class Folder
 	}
 
 	public void setParent(Folder parent) {
+		if(this.parent != null && this.parent != parent){
+			changePath();
+		}
 		this.parent = parent;
 	}
 
@@ -324,14 +335,14 @@ public class Folder
 
 		if (parentId == 0) {
 		    FolderDAO folderDao = daoFactory.getFolderDAO(em);
-			parent = folderDao.findRootFolder();
+			setParent(folderDao.findRootFolder());
 		}
 		else{
 			Folder myParent = em.find(Folder.class, parentId);
 			if(myParent == null){
 				throw new CinnamonException("error.parent_folder.not_found");
             }
-			parent = myParent;
+			setParent(myParent);
 		}
 	}
 
@@ -350,9 +361,22 @@ public class Folder
 	}
 
 	public void setName(String name) {
+		if(this.name != null && !this.name.equals(name)){
+			changePath();
+		}
 		this.name = name;
 	}
 
+	/**
+	 * Tell the FolderPathCache that the path of this (persistent) folder and its descendants is about to change.
+	 */
+	void changePath(){
+		if(id != 0 && !pathChanged){
+			pathChanged = true;
+			FolderPathCache.pathChanging(this, HibernateSession.getLocalEntityManager());
+		}
+	}
+
 	@SuppressWarnings("unused")
 	private void setId(long id) {
 		this.id = id;
@@ -504,16 +528,25 @@ public class Folder
         return "<content/>".getBytes();
     }
 
+    @Override
+    public InputStream getContentAsStream(String repository){
+        return new ByteArrayInputStream(getContentAsBytes(repository));
+    }
+
 	@Override
 	public String getSystemMetadata() {
+		return getSystemMetadataAsDocument().asXML();
+	}
+
+	@Override
+	public Document getSystemMetadataAsDocument() {
 		Document doc = DocumentHelper.createDocument();
 		Element root = doc.addElement("sysMeta");
-		String className = Hibernate.getClass(this).getName();
-		root.addAttribute("javaClass", className);
+		root.addAttribute("javaClass", javaClassName());
 		root.addAttribute("hibernateId", String.valueOf(getId()));
 		root.addAttribute("id", uniqueId());
 		toXmlElement(root);
-		return doc.asXML();
+		return doc;
 	}
 
 	/**
@@ -760,11 +793,17 @@ public class Folder
     }
 
     /**
-     * Compute this folder's path, which is the combination of all parent folder's names,
-     * for example: /system/workflows/templates.
-     * @return the path of this folder.
+     * @return the path of this folder, for example /system/users/admin. The path is cached (see FolderPathCache).
      */
     public String fetchPath(){
+        return FolderPathCache.fetchPath(this, HibernateSession.getLocalEntityManager());
+    }
+
+    /**
+     * Build the path of this folder by walking up its parent folders in memory, without the FolderPathCache.
+     * @return the path of this folder, including changes which have not been flushed yet.
+     */
+    public String buildPath(){
         /*
          * getParentFolders returns: "c/b/a" for folders /a/b/c
         */
@@ -878,6 +917,10 @@ public class Folder
         return false;
     }
 
+    public Boolean hasExtractableContent(){
+        return false;
+    }
+
     public Set<FolderMetaset> getFolderMetasets() {
         return folderMetasets;
     }
@@ -951,14 +994,22 @@ public class Folder
     }
 
     public void updateIndex(){
+        updateIndex(LocalRepository.getChangeScope(this));
+    }
+
+    public void updateIndex(ChangeScope scope){
         EntityManager em = HibernateSession.getLocalEntityManager();
         IndexJobDAO jobDAO = daoFactory.getIndexJobDAO(em);
-        IndexJob indexJob = new IndexJob(this);
+        IndexJob indexJob = new IndexJob(this, scope);
         jobDAO.makePersistent(indexJob);
     }
     
     @PostUpdate
     public void updateIndexOnCommit(){
+        if(pathChanged){
+            pathChanged = false;
+            FolderPathCache.pathChanged(this, HibernateSession.getLocalEntityManager());
+        }
         LocalRepository.addIndexable(this, IndexAction.UPDATE);
     } 
     
@@ -986,7 +1037,11 @@ public class Folder
 
     @Override
     public String uniqueId() {
-        String className = Hibernate.getClass(this).getName();
-        return className + "@" + getId();
+        return javaClassName() + "@" + getId();
+    }
+
+    @Override
+    public String javaClassName() {
+        return Hibernate.getClass(this).getName();
     }
 }
@@ -0,0 +1,166 @@
+package server;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import server.dao.DAOFactory;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.transaction.Synchronization;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the path of each folder (see Folder.fetchPath()) by folder id, one cache per repository
+ * (that is, per EntityManagerFactory). A cached path costs one hash lookup; a missing path is loaded
+ * with one recursive query (see FolderDAO.findPath).
+ * <p>Renaming or moving a folder changes the paths of all its descendants, so the whole cache of the
+ * repository is cleared when a folder's name or parent is changed, when the change is flushed and again
+ * after the transaction has completed (because other threads may cache the old, committed path until then).
+ * As long as a thread has changed a folder's path without flushing it, its paths are built from the
+ * folder objects in memory and are not cached.</p>
+ */
+public class FolderPathCache {
+
+    static Logger log = LoggerFactory.getLogger(FolderPathCache.class);
+    static DAOFactory daoFactory = DAOFactory.instance(DAOFactory.HIBERNATE);
+
+    /**
+     * Upper limit for the number of cached paths per repository; the cache is cleared when it is reached.
+     */
+    static final int MAX_ENTRIES = 100000;
+
+    static final ConcurrentMap<EntityManagerFactory, FolderPathCache> caches =
+            new ConcurrentHashMap<EntityManagerFactory, FolderPathCache>();
+
+    /**
+     * Ids of the folders whose path this thread has changed but not yet flushed.
+     */
+    static final ThreadLocal<Set<Long>> unflushedChanges = new ThreadLocal<Set<Long>>() {
+        @Override
+        protected Set<Long> initialValue() {
+            return new HashSet<Long>();
+        }
+    };
+
+    final ConcurrentMap<Long, String> paths = new ConcurrentHashMap<Long, String>();
+    /**
+     * Incremented by each invalidation, so a path loaded before an invalidation is not cached afterwards.
+     */
+    final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param folder a folder
+     * @param em     the EntityManager of the current thread
+     * @return the path of the folder, for example /system/users/admin.
+     */
+    public static String fetchPath(Folder folder, EntityManager em) {
+        if (em == null || folder.getId() == 0 || !unflushedChanges.get().isEmpty()) {
+            return folder.buildPath();
+        }
+        FolderPathCache cache = forRepository(em);
+        String path = cache.paths.get(folder.getId());
+        if (path == null) {
+            long loadedGeneration = cache.generation.get();
+            path = daoFactory.getFolderDAO(em).findPath(folder);
+            if (cache.generation.get() == loadedGeneration) {
+                if (cache.paths.size() >= MAX_ENTRIES) {
+                    cache.paths.clear();
+                }
+                cache.paths.put(folder.getId(), path);
+                if (cache.generation.get() != loadedGeneration) {
+                    // invalidated between the check and the put, which may have come after the clear.
+                    cache.paths.remove(folder.getId(), path);
+                }
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Fetch the path of a folder by its id. If the path is cached, the folder is not loaded at all.
+     *
+     * @param folderId the id of a folder
+     * @param em       the EntityManager of the current thread
+     * @return the path of the folder, or null if there is no folder with this id.
+     */
+    public static String fetchPath(Long folderId, EntityManager em) {
+        if (unflushedChanges.get().isEmpty()) {
+            String path = forRepository(em).paths.get(folderId);
+            if (path != null) {
+                return path;
+            }
+        }
+        Folder folder = em.find(Folder.class, folderId);
+        return folder == null ? null : fetchPath(folder, em);
+    }
+
+    static FolderPathCache forRepository(EntityManager em) {
+        EntityManagerFactory emf = em.getEntityManagerFactory();
+        FolderPathCache cache = caches.get(emf);
+        if (cache == null) {
+            caches.putIfAbsent(emf, new FolderPathCache());
+            cache = caches.get(emf);
+        }
+        return cache;
+    }
+
+    /**
+     * Called by Folder before its name or parent is changed.
+     *
+     * @param folder the folder whose path is about to change
+     * @param em     the EntityManager of the current thread, may be null.
+     */
+    static void pathChanging(Folder folder, EntityManager em) {
+        unflushedChanges.get().add(folder.getId());
+        if (em == null) {
+            return;
+        }
+        final FolderPathCache cache = forRepository(em);
+        cache.invalidate();
+        try {
+            if (em.getTransaction().isActive()) {
+                Session session = (Session) em.getDelegate();
+                session.getTransaction().registerSynchronization(new Synchronization() {
+                    @Override
+                    public void beforeCompletion() {
+                    }
+
+                    @Override
+                    public void afterCompletion(int status) {
+                        unflushedChanges.get().clear();
+                        cache.invalidate();
+                    }
+                });
+            }
+        } catch (Exception e) {
+            log.debug("Could not register the path cache invalidation for the end of the transaction:", e);
+        }
+    }
+
+    /**
+     * Called by Folder after the change of its name or parent has been flushed to the database.
+     *
+     * @param folder the folder whose path has changed
+     * @param em     the EntityManager of the current thread, may be null.
+     */
+    static void pathChanged(Folder folder, EntityManager em) {
+        unflushedChanges.get().remove(folder.getId());
+        if (em != null) {
+            forRepository(em).invalidate();
+        }
+    }
+
+    /**
+     * The generation must be incremented before the paths are cleared: fetchPath re-checks it after
+     * each put, so a path which was put after the clear is removed again.
+     */
+    void invalidate() {
+        generation.incrementAndGet();
+        paths.clear();
+    }
+}
@@ -25,6 +25,7 @@ import server.dao.DAOFactory;
 import server.dao.GroupDAO;
 import server.global.Constants;
 import server.i18n.LocalMessage;
+import server.index.SecurityFilterCache;
 import utils.HibernateSession;
 
 import javax.persistence.*;
@@ -235,6 +236,16 @@ public class Group implements Serializable
 		return children;
 	}
 
+    /**
+     * Group hierarchy changes affect inherited AclEntries, so cached search filters are dropped.
+     */
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void invalidateSecurityFilters(){
+        SecurityFilterCache.aclChanged();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
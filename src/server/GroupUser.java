@@ -22,6 +22,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import server.Group;
 import server.User;
+import server.index.SecurityFilterCache;
 
 import javax.persistence.*;
 import java.io.Serializable;
@@ -105,6 +106,16 @@ public class GroupUser implements Serializable {
 		this.id = id;
 	}
 
+    /**
+     * Group membership decides which ACLs apply to a user (see SecurityFilterCache).
+     */
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void invalidateSecurityFilters(){
+        SecurityFilterCache.aclChanged();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
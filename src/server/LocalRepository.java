@@ -1,5 +1,6 @@
 package server;
 
+import server.index.ChangeScope;
 import server.index.IndexAction;
 import server.index.Indexable;
 import server.interfaces.Repository;
@@ -31,16 +32,45 @@ public class LocalRepository {
         }
     };
     
+    private static ThreadLocal<HashMap<Indexable, ChangeScope>> changeScopes = new ThreadLocal<HashMap<Indexable, ChangeScope>>(){
+        @Override
+        protected HashMap<Indexable,ChangeScope> initialValue() {
+            return new HashMap<>();
+        }
+    };
+    
     public static void addIndexable(Indexable indexable, IndexAction action){
+        addIndexable(indexable, action, ChangeScope.ALL);
+    }
+
+    /**
+     * Register a changed object. If the object was already changed in this transaction, the scopes are merged.
+     * @param indexable the changed object
+     * @param action the index action
+     * @param scope the part of the object which was changed
+     */
+    public static void addIndexable(Indexable indexable, IndexAction action, ChangeScope scope){
         updatedObjects.get().put(indexable, action);
+        ChangeScope previous = changeScopes.get().get(indexable);
+        changeScopes.get().put(indexable, previous == null ? scope : previous.merge(scope));
     }
     
     public static Map<Indexable, IndexAction> getUpdatedObjects(){
         return updatedObjects.get();
     }
+
+    /**
+     * @param indexable an object from getUpdatedObjects()
+     * @return the part of the object which was changed in this transaction, for ExtendedIndexable.updateIndex(scope).
+     */
+    public static ChangeScope getChangeScope(Indexable indexable){
+        ChangeScope scope = changeScopes.get().get(indexable);
+        return scope == null ? ChangeScope.ALL : scope;
+    }
     
     public static void cleanUp(){
         getUpdatedObjects().clear();
+        changeScopes.get().clear();
     }
 
 }
@@ -23,6 +23,7 @@ import server.data.Validator;
 import server.exceptions.CinnamonException;
 import server.index.IndexJob;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -139,6 +140,30 @@ public interface FolderDAO extends GenericDAO<Folder, Long> {
 	void prepareReIndex();
 	
 	Folder get(String id);
+
+	/**
+	 * Load all folders with the given ids with as few queries as possible.
+	 * @param ids the ids of the folders
+	 * @return the folders found, in no particular order. Ids without a folder are ignored.
+	 */
+	List<Folder> findAllByIds(Collection<Long> ids);
+
+	/**
+	 * Load the next page of folders ordered by id.
+	 * @param id the id of the last folder of the previous page (0 for the first page)
+	 * @param maxResults the page size
+	 * @return at most maxResults folders whose id is greater than the given id.
+	 */
+	List<Folder> findAfterId(Long id, Integer maxResults);
+
+	/**
+	 * Build the path of a folder (for example: /system/users/admin) from the database with a single
+	 * recursive query. Databases without support for recursive queries fall back to walking the parent
+	 * folders one by one. Use Folder.fetchPath(), which caches the result.
+	 * @param folder the folder
+	 * @return the path of the folder, as stored in the database.
+	 */
+	String findPath(Folder folder);
 	
 	Folder findRootFolder();
 	
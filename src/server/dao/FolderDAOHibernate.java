@@ -17,6 +17,9 @@
 
 package server.dao;
 
+import org.hibernate.Session;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.SessionFactoryImplementor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import server.Acl;
@@ -35,6 +38,7 @@ import server.data.Validator;
 import server.exceptions.CinnamonConfigurationException;
 import server.exceptions.CinnamonException;
 import server.global.Constants;
+import server.index.ChangeScope;
 import server.index.IndexJob;
 import server.references.Link;
 import utils.ParamParser;
@@ -266,9 +270,10 @@ public class FolderDAOHibernate extends GenericHibernateDAO<Folder, Long>
      * @param folder a folder who will be re-indexed along with its content (recursively).
      */
     void resetIndexOnFolderContent(Folder folder){
-        folder.updateIndex();
+        folder.updateIndex(ChangeScope.SYSMETA);
         for(ObjectSystemData osd : getFolderContent(folder, false)){
-            osd.updateIndex();
+            // only the folder path has changed, the content need not be read again.
+            osd.updateIndex(ChangeScope.SYSMETA);
         }
         for(Folder childFolder : getSubfolders(folder)){
             resetIndexOnFolderContent(childFolder);
@@ -328,6 +333,29 @@ public class FolderDAOHibernate extends GenericHibernateDAO<Folder, Long>
 		Long folderId = ParamParser.parseLong(id, "error.get.folder");
 		return get(folderId);
 	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Folder> findAllByIds(Collection<Long> ids){
+		List<Folder> folders = new ArrayList<Folder>();
+		List<Long> idList = new ArrayList<Long>(ids);
+		// keep the IN-list within the limits of all supported databases.
+		for(int x = 0; x < idList.size(); x += MAX_IDS_PER_QUERY){
+			Query q = getSession().createNamedQuery("findFoldersByIds");
+			q.setParameter("ids", idList.subList(x, Math.min(x + MAX_IDS_PER_QUERY, idList.size())));
+			folders.addAll(q.getResultList());
+		}
+		return folders;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Folder> findAfterId(Long id, Integer maxResults){
+		Query q = getSession().createNamedQuery("findFoldersAfterId");
+		q.setParameter("id", id);
+		q.setMaxResults(maxResults);
+		return q.getResultList();
+	}
 	
 	/**
 	 * Installation-Hint<br>
@@ -403,6 +431,64 @@ public class FolderDAOHibernate extends GenericHibernateDAO<Folder, Long>
     	return osds;
 	}
 
+	/**
+	 * Ancestors of a folder up to and including the root folder (whose parent is itself).
+	 * %s is replaced by the dialect's keyword for a recursive common table expression.
+	 * The depth limit protects against cycles in broken data.
+	 */
+	static final String FIND_PATH_SQL = "%s ancestors(id, parent_id, name, depth) AS ("
+			+ " SELECT id, parent_id, name, 0 FROM folders WHERE id = ?"
+			+ " UNION ALL"
+			+ " SELECT f.id, f.parent_id, f.name, a.depth + 1 FROM folders f JOIN ancestors a ON f.id = a.parent_id"
+			+ " WHERE a.id <> a.parent_id AND a.depth < 1000"
+			+ ") SELECT id, parent_id, name FROM ancestors ORDER BY depth DESC";
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public String findPath(Folder folder){
+		String with = findRecursiveWith();
+		if(with == null){
+			return folder.buildPath();
+		}
+		Query q = getSession().createNativeQuery(String.format(FIND_PATH_SQL, with));
+		q.setParameter(1, folder.getId());
+		List<Object[]> rows = q.getResultList();
+		StringBuilder path = new StringBuilder();
+		for(int x = 0; x < rows.size(); x++){
+			Object[] row = rows.get(x);
+			Boolean isRoot = row[1] == null || ((Number) row[0]).longValue() == ((Number) row[1]).longValue();
+			// like getParentFolders, the path does not include the root folder - unless it is the folder itself.
+			if(isRoot && x < rows.size() - 1){
+				continue;
+			}
+			path.append('/');
+			path.append(row[2]);
+		}
+		return path.toString();
+	}
+
+	/**
+	 * @return the keyword for recursive common table expressions in this database,
+	 * or null if recursive queries are not supported (or the database version is unknown).
+	 */
+	String findRecursiveWith(){
+		try{
+			Session session = (Session) getSession().getDelegate();
+			Dialect dialect = ((SessionFactoryImplementor) session.getSessionFactory()).getDialect();
+			String name = dialect.getClass().getSimpleName();
+			if(name.startsWith("PostgreSQL") || name.startsWith("H2")){
+				return "WITH RECURSIVE";
+			}
+			if(name.startsWith("SQLServer")){
+				return "WITH";
+			}
+		}
+		catch (Exception e) {
+			log.debug("Could not determine the database dialect:", e);
+		}
+		return null;
+	}
+
 	public List<Folder> getParentFolders(Folder folder){
 		List<Folder> folders = new ArrayList<Folder>();
 		Folder root = findRootFolder();
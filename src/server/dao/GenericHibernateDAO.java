@@ -37,6 +37,11 @@ public abstract class GenericHibernateDAO<T, ID extends Serializable>
 	private Class<T> persistentClass;
 	private EntityManager session;
     Logger log = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * Maximum number of parameters in an IN-list (Oracle rejects more than 1000).
+     */
+    protected static final int MAX_IDS_PER_QUERY = 1000;
     
 	@SuppressWarnings("unchecked")
 	public GenericHibernateDAO() {
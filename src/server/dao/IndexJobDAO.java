@@ -1,13 +1,31 @@
 package server.dao;
 
 import server.index.IndexJob;
+import server.index.Indexable;
 
 import java.util.List;
+import java.util.Map;
 
 public interface IndexJobDAO extends GenericDAO<IndexJob, Long> {
 	
 	List<IndexJob> list(Integer max);
     
     void delete(IndexJob job);
+
+    /**
+     * @param failed if true, count the failed jobs, otherwise the pending ones.
+     * @return the number of jobs by indexable class.
+     */
+    Map<Class<? extends Indexable>, Long> countByClass(Boolean failed);
+
+    /**
+     * @return the id of the oldest job which is not failed, or null if there is none.
+     */
+    Long findOldestPendingId();
+
+    /**
+     * @return the highest job id, or null if there are no jobs.
+     */
+    Long findNewestId();
     
 }
\ No newline at end of file
@@ -3,9 +3,12 @@ package server.dao;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import server.index.IndexJob;
+import server.index.Indexable;
 
 import javax.persistence.Query;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class IndexJobDAOHibernate extends GenericHibernateDAO<IndexJob, Long> implements IndexJobDAO {
 	
@@ -50,5 +53,31 @@ public class IndexJobDAOHibernate extends GenericHibernateDAO<IndexJob, Long> im
     public void delete(IndexJob job){
         makeTransient(job);
     }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Map<Class<? extends Indexable>, Long> countByClass(Boolean failed) {
+        Query q = getSession().createQuery("select i.indexableClass, count(i) from IndexJob i where i.failed = :failed group by i.indexableClass");
+        q.setParameter("failed", failed);
+        Map<Class<? extends Indexable>, Long> counts = new HashMap<Class<? extends Indexable>, Long>();
+        for (Object[] row : (List<Object[]>) q.getResultList()) {
+            counts.put((Class<? extends Indexable>) row[0], ((Number) row[1]).longValue());
+        }
+        return counts;
+    }
+
+    @Override
+    public Long findOldestPendingId() {
+        Query q = getSession().createQuery("select min(i.id) from IndexJob i where i.failed = false");
+        Number id = (Number) q.getSingleResult();
+        return id == null ? null : id.longValue();
+    }
+
+    @Override
+    public Long findNewestId() {
+        Query q = getSession().createQuery("select max(i.id) from IndexJob i");
+        Number id = (Number) q.getSingleResult();
+        return id == null ? null : id.longValue();
+    }
 	
 }
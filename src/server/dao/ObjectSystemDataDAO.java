@@ -26,6 +26,7 @@ import server.exceptions.CinnamonException;
 import server.index.IndexJob;
 import server.interfaces.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface ObjectSystemDataDAO extends GenericDAO<ObjectSystemData, Long> {
@@ -72,6 +73,22 @@ public interface ObjectSystemDataDAO extends GenericDAO<ObjectSystemData, Long>
 	 */
 	ObjectSystemData get(String id);
 
+	/**
+	 * Load all objects with the given ids with as few queries as possible.
+	 * @param ids the ids of the objects
+	 * @return the objects found, in no particular order. Ids without an object are ignored.
+	 */
+	List<ObjectSystemData> findAllByIds(Collection<Long> ids);
+
+	/**
+	 * Load the next page of objects ordered by id, for example to iterate over all objects
+	 * without loading them all at once.
+	 * @param id the id of the last object of the previous page (0 for the first page)
+	 * @param maxResults the page size
+	 * @return at most maxResults objects whose id is greater than the given id.
+	 */
+	List<ObjectSystemData> findAfterId(Long id, Integer maxResults);
+
     /**
      * Convenience method: given a String which represents an OSD-id,
      * return the OSD specified - or an exception if the object was not found.
@@ -204,6 +204,29 @@ public class ObjectSystemDataDAOHibernate extends
 		return get(osdId);
 	}
 
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<ObjectSystemData> findAllByIds(Collection<Long> ids){
+		List<ObjectSystemData> osds = new ArrayList<ObjectSystemData>();
+		List<Long> idList = new ArrayList<Long>(ids);
+		// keep the IN-list within the limits of all supported databases.
+		for(int x = 0; x < idList.size(); x += MAX_IDS_PER_QUERY){
+			Query q = getSession().createNamedQuery("findOsdsByIds");
+			q.setParameter("ids", idList.subList(x, Math.min(x + MAX_IDS_PER_QUERY, idList.size())));
+			osds.addAll(q.getResultList());
+		}
+		return osds;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<ObjectSystemData> findAfterId(Long id, Integer maxResults){
+		Query q = getSession().createNamedQuery("findOsdsAfterId");
+		q.setParameter("id", id);
+		q.setMaxResults(maxResults);
+		return q.getResultList();
+	}
+
     @Override
     public ObjectSystemData getOsdNotNull(String id) {
         ObjectSystemData osd = get(id);
@@ -33,6 +33,8 @@ import server.exceptions.CinnamonException;
 import server.global.Conf;
 import server.global.ConfThreadLocal;
 import server.global.Constants;
+import server.index.ChangeScope;
+import server.index.ExtendedIndexable;
 import server.index.IndexAction;
 import server.index.LuceneBridge;
 import server.global.PermissionName;
@@ -49,22 +51,32 @@ import utils.HibernateSession;
 import utils.ParamParser;
 
 import javax.persistence.*;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.util.*;
 
 @Entity
 @Table(name = "objects")
 public class ObjectSystemData
-        implements Serializable, Ownable, Indexable, XmlConvertable, IMetasetOwner {
+        implements Serializable, Ownable, ExtendedIndexable, XmlConvertable, IMetasetOwner {
     private static final long serialVersionUID = 1L;
     public static final String defaultXmlFormatList = "xml|xhtml|dita|ditamap";
+    public static final String defaultExtractFormatList = "pdf|doc|docx|odt|rtf|xls|xlsx|ods|ppt|pptx|odp|html|htm|txt";
 
     static final DAOFactory daoFactory = DAOFactory.instance(DAOFactory.HIBERNATE);
     @Transient
     transient Logger log = LoggerFactory.getLogger(this.getClass());
 
+    /**
+     * True if the content has been changed since the last flush, so the index must read it again (see ChangeScope).
+     */
+    @Transient
+    private transient boolean contentChanged = false;
+
     @Column(name = "contentpath",
             length = 255,// length 255 should be enough, as we use a 128 Bit UUID for the file/folder structure.
             nullable = true
@@ -460,6 +472,7 @@ public class ObjectSystemData
      */
     private void setContentPath(String contentPath) {
         this.contentPath = contentPath;
+        contentChanged = true;
     }
 
     /**
@@ -472,6 +485,7 @@ public class ObjectSystemData
      */
     public void setContentPath(String contentPath, String repository) {
         this.contentPath = contentPath;
+        contentChanged = true;
         if (contentPath != null) {
             this.contentSize = contentPath.length() > 0 ? (new File(getFullContentPath(repository))).length() : 0;
         }
@@ -510,6 +524,8 @@ public class ObjectSystemData
 
     public void setFormat(Format format) {
         this.format = format;
+        // the format decides how the content is indexed (see hasXmlContent).
+        contentChanged = true;
     }
 
     public long getId() {
@@ -1065,18 +1081,35 @@ public class ObjectSystemData
         return fileContent;
     }
 
+    public InputStream getContentAsStream(String repository) {
+        try {
+            String path = getFullContentPath(repository);
+            if (path == null) {
+                return new ByteArrayInputStream("<empty />".getBytes());
+            }
+            log.debug("path to file: " + path);
+            return new FileInputStream(path);
+        } catch (Exception e) {
+            throw new CinnamonException(e);
+        }
+    }
+
     @Override
     public String getSystemMetadata() {
+        return getSystemMetadataAsDocument().asXML();
+    }
+
+    @Override
+    public Document getSystemMetadataAsDocument() {
         log.debug("getsystemMeta");
         Document doc = DocumentHelper.createDocument();
         Element root = doc.addElement("sysMeta");
-        String className = Hibernate.getClass(this).getName();
-        root.addAttribute("javaClass", className);
+        root.addAttribute("javaClass", javaClassName());
         root.addAttribute("hibernateId", String.valueOf(getId()));
         root.addAttribute("id", uniqueId()); // for a given repository, it's unique.
         log.debug("convertToElement");
         root.add(convertToElement());
-        return doc.asXML();
+        return doc;
     }
 
     /**
@@ -1361,6 +1394,20 @@ public class ObjectSystemData
         return getFormat().getExtension().toLowerCase().matches(fetchXmlFormatList());
     }
 
+    /**
+     * Check if the content is in a binary format whose text can be extracted for the index,
+     * like PDF or office documents. The format extensions are configured like the xml format list,
+     * in the config entry "extract.format.list" (default: defaultExtractFormatList).
+     *
+     * @return true if the object has content in one of the configured formats.
+     */
+    public Boolean hasExtractableContent() {
+        if (format == null || contentPath == null) {
+            return false;
+        }
+        return getFormat().getExtension().toLowerCase().matches(fetchFormatList("extract.format.list", defaultExtractFormatList));
+    }
+
     public Set<OsdMetaset> getOsdMetasets() {
         return osdMetasets;
     }
@@ -1416,17 +1463,21 @@ public class ObjectSystemData
      *         Example: may return "dita|xml|foo"
      */
     String fetchXmlFormatList() {
+        return fetchFormatList("xml.format.list", defaultXmlFormatList);
+    }
+
+    String fetchFormatList(String configName, String defaultFormatList) {
         EntityManager em = HibernateSession.getLocalEntityManager();
         ConfigEntryDAO ceDao = daoFactory.getConfigEntryDAO(em);
-        ConfigEntry formatList = ceDao.findByName("xml.format.list");
+        ConfigEntry formatList = ceDao.findByName(configName);
         if (formatList == null) {
-            log.debug("Did not find xml.format.list config entry, returning defaultXmlFormatList.");
-            return defaultXmlFormatList;
+            log.debug("Did not find " + configName + " config entry, returning the default format list.");
+            return defaultFormatList;
         }
         Node formatListNode = ParamParser.parseXmlToDocument(formatList.getConfig()).selectSingleNode("//format");
         if (formatListNode == null) {
-            log.debug("Did not find format node in xml.format.list config entry, returning defaultXmlFormatlist.");
-            return defaultXmlFormatList;
+            log.debug("Did not find format node in " + configName + " config entry, returning the default format list.");
+            return defaultFormatList;
         }
         log.debug("Found formatList: " + formatListNode.getText());
         return formatListNode.getText();
@@ -1510,15 +1561,20 @@ public class ObjectSystemData
     }
 
     public void updateIndex() {
+        updateIndex(LocalRepository.getChangeScope(this));
+    }
+
+    public void updateIndex(ChangeScope scope) {
         EntityManager em = HibernateSession.getLocalEntityManager();
         IndexJobDAO jobDAO = daoFactory.getIndexJobDAO(em);
-        IndexJob indexJob = new IndexJob(this);
+        IndexJob indexJob = new IndexJob(this, scope);
         jobDAO.makePersistent(indexJob);
     }
 
     @PostUpdate
     public void updateIndexOnCommit() {
-        LocalRepository.addIndexable(this, IndexAction.UPDATE);
+        LocalRepository.addIndexable(this, IndexAction.UPDATE, contentChanged ? ChangeScope.ALL : ChangeScope.METADATA);
+        contentChanged = false;
     }
 
     @PostPersist
@@ -1545,7 +1601,11 @@ public class ObjectSystemData
 
     @Override
     public String uniqueId() {
-        String className = Hibernate.getClass(this).getName();
-        return className + "@" + getId();
+        return javaClassName() + "@" + getId();
+    }
+
+    @Override
+    public String javaClassName() {
+        return Hibernate.getClass(this).getName();
     }
 }
@@ -35,13 +35,19 @@ import server.dao.ObjectSystemDataDAO;
 import server.exceptions.CinnamonException;
 import server.index.Indexable;
 import server.global.PermissionName;
-import server.index.ResultValidator;
+import server.index.BatchResultValidator;
 import utils.HibernateSession;
 
 public class Validator
-	implements ResultValidator {
+	implements BatchResultValidator {
 	
 	Map<String,Permission> permissionCache = new HashMap<String,Permission>();
+
+	/**
+	 * Results of check_acl_entries without an owner, by acl id and permission id.
+	 * Used to check each ACL of a batch of search results only once.
+	 */
+	Map<String,Boolean> aclPermissionCache = new HashMap<String,Boolean>();
 	
 	private Logger log = LoggerFactory.getLogger(this.getClass());
 	
@@ -548,6 +554,97 @@ public class Validator
         return null;
 	}
 
+	/**
+	 * Validate a batch of search results. All OSDs and Folders are loaded with one query per class,
+	 * and each ACL is checked once for this validator's user.
+	 * @see server.index.BatchResultValidator#validateAccessPermissions(java.util.Collection, Class)
+	 */
+	public Map<Document, XmlConvertable> validateAccessPermissions(Collection<Document> docs,
+																   Class<? extends Indexable> filterClass){
+		Set<Long> osdIds = new HashSet<Long>();
+		Set<Long> folderIds = new HashSet<Long>();
+		for(Document doc : docs){
+			String javaClass = doc.get("javaClass");
+			try{
+				Long id = Long.parseLong(doc.get("hibernateId"));
+				if("server.data.ObjectSystemData".equals(javaClass)){
+					osdIds.add(id);
+				}
+				else if("server.Folder".equals(javaClass)){
+					folderIds.add(id);
+				}
+			}
+			catch (NumberFormatException e) {
+				log.debug("validateSearchResults: invalid hibernateId "+doc.get("hibernateId"));
+			}
+		}
+		Map<Long, ObjectSystemData> osds = new HashMap<Long, ObjectSystemData>();
+		if(! osdIds.isEmpty()){
+			for(ObjectSystemData osd : osdDAo.findAllByIds(osdIds)){
+				osds.put(osd.getId(), osd);
+			}
+		}
+		Map<Long, Folder> folders = new HashMap<Long, Folder>();
+		if(! folderIds.isEmpty()){
+			for(Folder folder : folderDao.findAllByIds(folderIds)){
+				folders.put(folder.getId(), folder);
+			}
+		}
+
+		Map<Document, XmlConvertable> results = new LinkedHashMap<Document, XmlConvertable>();
+		for(Document doc : docs){
+			String javaClass = doc.get("javaClass");
+			String hibernateId = doc.get("hibernateId");
+			try{
+				if("server.data.ObjectSystemData".equals(javaClass)){
+					ObjectSystemData osd = osds.get(Long.parseLong(hibernateId));
+					if(osd == null){
+						log.debug("Object with id "+hibernateId+" was not found.");
+					}
+					else if(hasPermission(osd.getAcl(), fetchPermission(PermissionName.BROWSE_OBJECT))
+							&& filterByClass(osd, filterClass)){
+						results.put(doc, osd);
+					}
+				}
+				else if("server.Folder".equals(javaClass)){
+					Folder folder = folders.get(Long.parseLong(hibernateId));
+					if(folder == null){
+						log.debug("Folder with id "+hibernateId+" was not found.");
+					}
+					else if(hasPermission(folder.getAcl(), fetchPermission(PermissionName.BROWSE_FOLDER))
+							&& filterByClass(folder, filterClass)){
+						results.put(doc, folder);
+					}
+				}
+				else{
+					log.debug("validateAccessPermissions does not know how to verify access to '"+javaClass+"'");
+				}
+			}
+			catch (Exception e) {
+				// skip stacktrace:
+				log.debug("validateSearchResults: "+e.getMessage());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Check if the user has a permission on an ACL, without considering the owner alias
+	 * (just like validatePermission). The result is cached per ACL and permission.
+	 * @param acl the ACL to check
+	 * @param permission the required permission
+	 * @return true if the ACL grants the permission to the user.
+	 */
+	Boolean hasPermission(Acl acl, Permission permission){
+		String key = acl.getId()+":"+permission.getId();
+		Boolean allowed = aclPermissionCache.get(key);
+		if(allowed == null){
+			allowed = check_acl_entries(acl, permission, null);
+			aclPermissionCache.put(key, allowed);
+		}
+		return allowed;
+	}
+
     /**
      * @param indexable an object returned by a search.
      * @param filterClass the class by which the object will be filtered. May be null.
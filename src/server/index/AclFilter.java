@@ -0,0 +1,113 @@
+package server.index;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.OpenBitSet;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A Lucene Filter which only accepts the documents of objects and folders a user may browse.
+ * <p>It works on indexed fields only: a document is accepted if its javaClass is ObjectSystemData
+ * or Folder and its ACL field contains one of the ACL ids which grant the user the browse permission
+ * for this class. ACLs which grant the permission only via the owner alias accept a document only if
+ * its owner field contains the user's id.</p>
+ * <p>The filter is immutable; wrap it in a CachingWrapperFilter to reuse the bitsets of
+ * unchanged index segments (see SecurityFilterCache).</p>
+ */
+public class AclFilter extends Filter {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String OSD_CLASS = "server.data.ObjectSystemData";
+    static final String FOLDER_CLASS = "server.Folder";
+
+    final String aclField;
+    final String userId;
+    final Grants objectGrants;
+    final Grants folderGrants;
+
+    /**
+     * @param aclField     name of the field which contains the padded ACL id of objects and folders.
+     * @param userId       the padded id of the user, as stored in the owner fields.
+     * @param objectGrants the ACLs which grant the browse permission on objects.
+     * @param folderGrants the ACLs which grant the browse permission on folders, or null if folders
+     *                     should not be filtered (because their ACLs are not indexed).
+     */
+    public AclFilter(String aclField, String userId, Grants objectGrants, Grants folderGrants) {
+        this.aclField = aclField;
+        this.userId = userId;
+        this.objectGrants = objectGrants;
+        this.folderGrants = folderGrants;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(IndexReader reader) throws IOException {
+        OpenBitSet result = allowed(reader, OSD_CLASS, objectGrants);
+        if (folderGrants == null) {
+            result.or(termBits(reader, "javaClass", Collections.singleton(FOLDER_CLASS)));
+        } else {
+            result.or(allowed(reader, FOLDER_CLASS, folderGrants));
+        }
+        return result;
+    }
+
+    OpenBitSet allowed(IndexReader reader, String javaClass, Grants grants) throws IOException {
+        OpenBitSet bits = termBits(reader, aclField, grants.acls);
+        if (!grants.ownerAcls.isEmpty()) {
+            OpenBitSet owned = termBits(reader, grants.ownerField, Collections.singleton(userId));
+            owned.and(termBits(reader, aclField, grants.ownerAcls));
+            bits.or(owned);
+        }
+        bits.and(termBits(reader, "javaClass", Collections.singleton(javaClass)));
+        return bits;
+    }
+
+    static OpenBitSet termBits(IndexReader reader, String field, Collection<String> values) throws IOException {
+        OpenBitSet bits = new OpenBitSet(reader.maxDoc());
+        TermDocs termDocs = reader.termDocs();
+        try {
+            for (String value : values) {
+                termDocs.seek(new Term(field, value));
+                while (termDocs.next()) {
+                    bits.set(termDocs.doc());
+                }
+            }
+        } finally {
+            termDocs.close();
+        }
+        return bits;
+    }
+
+    /**
+     * The padded ids of the ACLs which grant a permission to a user, either directly
+     * or only if the user is the owner.
+     */
+    public static class Grants {
+        final String ownerField;
+        final Set<String> acls = new HashSet<String>();
+        final Set<String> ownerAcls = new HashSet<String>();
+
+        /**
+         * @param ownerField the field which contains the padded id of the owner.
+         */
+        public Grants(String ownerField) {
+            this.ownerField = ownerField;
+        }
+
+        public void addAcl(String aclId) {
+            acls.add(aclId);
+        }
+
+        public void addOwnerAcl(String aclId) {
+            ownerAcls.add(aclId);
+        }
+    }
+}
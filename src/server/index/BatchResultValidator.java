@@ -0,0 +1,29 @@
+package server.index;
+
+import org.apache.lucene.document.Document;
+import server.interfaces.XmlConvertable;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A ResultValidator which validates a batch of search results at once. The search methods use the batch
+ * method if their ResultValidator implements this interface, and call
+ * validateAccessPermissions(Document, Class) for each document otherwise (see ResultCollector.validate).
+ */
+public interface BatchResultValidator extends ResultValidator {
+
+	/**
+	 * Validate access permissions for a batch of Lucene search results. The result is the same as
+	 * calling validateAccessPermissions(doc, filterClass) for each document, but an implementation
+	 * should load the referenced objects in bulk and check each distinct ACL only once.
+	 *
+	 * @param docs the Documents to check
+	 * @param filterClass see validateAccessPermissions(Document, Class). May be null.
+	 * @return a map from each accessible document to the XmlConvertable instance it references,
+	 * in the iteration order of docs. Filtered documents are not contained in the map.
+	 */
+	Map<Document, XmlConvertable> validateAccessPermissions(Collection<Document> docs,
+															Class<? extends Indexable> filterClass);
+
+}
@@ -0,0 +1,50 @@
+package server.index;
+
+/**
+ * The part of an Indexable which was changed, as recorded by an IndexJob. The indexer uses it to
+ * decide whether the content must be read again:
+ * <ul>
+ * <li>SYSMETA: only the system metadata changed, for example after a folder was moved.</li>
+ * <li>METADATA: the custom metadata changed (and usually the system metadata as well, as
+ * the modification date is updated).</li>
+ * <li>CONTENT: the content changed.</li>
+ * <li>ALL: anything may have changed. This is the default.</li>
+ * </ul>
+ * <p>The fields of metadata and system metadata IndexItems are not stored, so they are always
+ * rebuilt. If the content is out of scope, the fields of content-only IndexItems are copied from the
+ * indexed document (see ContentFields) without reading the content file.</p>
+ */
+public enum ChangeScope {
+
+    SYSMETA,
+    METADATA,
+    CONTENT,
+    ALL;
+
+    /**
+     * @return true if the content may have changed and must be read again.
+     */
+    public Boolean includesContent() {
+        return this == CONTENT || this == ALL;
+    }
+
+    /**
+     * Combine the scopes of two changes of the same object.
+     *
+     * @param other the scope of another change, may be null (which means ALL).
+     * @return the smallest scope which covers both changes.
+     */
+    public ChangeScope merge(ChangeScope other) {
+        if (other == null) {
+            return ALL;
+        }
+        if (this == other) {
+            return this;
+        }
+        if (includesContent() || other.includesContent()) {
+            return ALL;
+        }
+        // a metadata change rebuilds the system metadata fields, too.
+        return METADATA;
+    }
+}
@@ -24,8 +24,12 @@ import server.index.valueAssistance.DefaultProvider;
 
 import javax.persistence.EntityManager;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * The CinnamonIndexInitializer is responsible for the creation of 
@@ -35,6 +39,26 @@ import java.util.List;
  * but you will probably need those anyway.
  */
 public class CinnamonIndexInitializer {
+
+	/**
+	 * Name of the IndexItem which stores a folder's ACL id in the same field as the objects' ACL ids,
+	 * so search results can be filtered by ACL (see SecurityFilterCache).
+	 */
+	public static final String INDEX_FOLDER_ACL = "index.folder.acl";
+
+	/**
+	 * The system fields which hold at most one unanalyzed term per document (ids, complete strings,
+	 * dates, times and booleans), so the hits can be counted by them (lucene.properties: facetFields).
+	 * Fields of the string and folder path indexers are not included, because they are tokenized.
+	 */
+	public static final Set<String> FACET_FIELDS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+			Constants.FIELD_FOLDER_PARENT_ID, Constants.FIELD_FOLDER_TYPE, Constants.FIELD_FOLDER_OWNER,
+			Constants.FIELD_ACL, Constants.FIELD_OBJECT_TYPE_NAME, Constants.FIELD_ROOT, Constants.FIELD_PARENT_ID,
+			Constants.FIELD_CONTENT_SIZE, Constants.FIELD_LOCKED_BY, Constants.FIELD_CREATOR, Constants.FIELD_MODIFIER,
+			Constants.FIELD_OWNER, Constants.FIELD_FORMAT, Constants.FIELD_OBJECT_TYPE, Constants.FIELD_LANGUAGE,
+			Constants.FIELD_LIFECYCLE_STATE, Constants.FIELD_CREATED_DATE, Constants.FIELD_MODIFIED_DATE,
+			Constants.FIELD_CREATED_TIME, Constants.FIELD_MODIFIED_TIME, Constants.FIELD_LATEST_HEAD,
+			Constants.FIELD_LATEST_BRANCH)));
 	
 	private EntityManager em;
 	private static DAOFactory daoFactory = DAOFactory.instance(DAOFactory.HIBERNATE);
@@ -65,6 +89,8 @@ public class CinnamonIndexInitializer {
                 false, "<vaParams/>", true, iGroup, false, false, true));
         items.add(new IndexItem(Constants.INDEX_FOLDER_OWNER, "/sysMeta/folder/owner/id", "true()", Constants.FIELD_FOLDER_OWNER, type,
                 false, "<vaParams/>", true, iGroup, false, false, true));
+        items.add(new IndexItem(INDEX_FOLDER_ACL, "/sysMeta/folder/aclId", "true()", Constants.FIELD_ACL, type,
+                false, "<vaParams/>", true, iGroup, false, false, true));
 		
 		type = itDao.findByName("xpath.parent_folder_path_indexer");
 		items.add(new IndexItem(Constants.INDEX_FOLDER_PATH, "/sysMeta/folder/parentId",
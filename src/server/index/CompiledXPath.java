@@ -0,0 +1,67 @@
+package server.index;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Node;
+import org.dom4j.XPath;
+
+import java.util.List;
+
+/**
+ * A pre-compiled XPath expression which may be shared by multiple threads.
+ * <p>dom4j's XPath objects are not thread safe (they store the namespace context of the
+ * last evaluated node), so each thread compiles its own copy on first use.
+ * Compared to Node.selectNodes(String), which parses the expression on every call,
+ * this costs one compilation per thread instead of one per document.</p>
+ */
+public class CompiledXPath {
+
+    final String expression;
+    final Boolean alwaysTrue;
+
+    private final ThreadLocal<XPath> xpath = new ThreadLocal<XPath>() {
+        @Override
+        protected XPath initialValue() {
+            return DocumentHelper.createXPath(expression);
+        }
+    };
+
+    /**
+     * @param expression an XPath expression
+     * @throws org.dom4j.InvalidXPathException if the expression is not a valid XPath.
+     */
+    public CompiledXPath(String expression) {
+        this.expression = expression;
+        this.alwaysTrue = expression.trim().equals("true()");
+        // compile once for the current thread so invalid expressions fail early.
+        xpath.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<Node> selectNodes(Object context) {
+        return xpath.get().selectNodes(context);
+    }
+
+    public Node selectSingleNode(Object context) {
+        return xpath.get().selectSingleNode(context);
+    }
+
+    public String valueOf(Object context) {
+        return xpath.get().valueOf(context);
+    }
+
+    /**
+     * @return true if this expression is the constant "true()", which needs no evaluation at all.
+     */
+    public Boolean isAlwaysTrue() {
+        return alwaysTrue;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
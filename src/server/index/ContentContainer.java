@@ -1,26 +1,74 @@
 package server.index;
 
 import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.ElementHandler;
+import org.dom4j.ElementPath;
+import org.dom4j.Node;
+import org.dom4j.io.SAXReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
 import server.exceptions.CinnamonException;
-import utils.ParamParser;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 /**
  * A content container class which will load the content when needed - unless it was either supplied
  * at instantiation.
- *
+ * <p>The content is parsed directly from the Indexable's content stream, so large documents are
+ * neither copied into a byte array nor into a String before parsing. A ContentContainer may be limited to
+ * maxSize bytes and maxDepth levels of nested elements. Content which exceeds a limit is skipped:
+ * it is treated as "&lt;empty /&gt;" and isSkipped() returns true.</p>
+ * <p>Binary content is handed to a ContentExtractor, if one is given: the IndexItems then see the
+ * extracted text instead of the raw content, while digest() is still computed from the raw content.</p>
+ * <p>The digest is computed while the content is read for parsing, so the content file is read only once.</p>
+ * <p>If all XPath expressions which will be evaluated on the content are simple paths (see isStreamable),
+ * streamSelect() evaluates them in a single SAX pass without keeping the whole document in memory.</p>
  */
 public class ContentContainer {
 
     Logger log = LoggerFactory.getLogger(this.getClass());
 
+    /**
+     * Element paths which can be evaluated while streaming: /a/b/c or //c, optionally followed by /@attribute.
+     * Namespace prefixes, predicates and functions require a DOM.
+     */
+    static final Pattern STREAMABLE_PATH =
+            Pattern.compile("(//[A-Za-z_][\\w.\\-]*|(/[A-Za-z_][\\w.\\-]*)+)(/@[A-Za-z_][\\w.\\-]*)?");
+
     private Boolean contentLoaded = false;
     private byte[] content = new byte[0];
     private String contentAsString;
     private Document contentAsDoc;
     private Indexable indexable;
     private String repository;
+    private InputStream contentStream;
+    private Long maxSize = 0L;
+    private Integer maxDepth = 0;
+    private String skipReason;
+    private Map<String, List<Node>> streamedNodes;
+    private String digest;
+    /**
+     * The raw content stream of the current read, which computes the digest on the way (see openContent).
+     */
+    private DigestInputStream digesting;
+    private ContentExtractor extractor;
+    private Boolean skippedTemporarily = false;
 
     /**
      * Instantiate a new ContentContainer object and set the content with a byte[] array.
@@ -31,6 +79,15 @@ public class ContentContainer {
         contentLoaded = true;
     }
 
+    /**
+     * Instantiate a new ContentContainer object for content which has already been parsed, like the
+     * system metadata of an Indexable. The Document is only serialized if the raw bytes are requested.
+     * @param document the parsed content.
+     */
+    public ContentContainer(Document document) {
+        contentAsDoc = document;
+    }
+
     /**
      * Instantiate a new ContentContainer object which loads the data dynamically from the specified
      * object and repository.
@@ -45,6 +102,57 @@ public class ContentContainer {
         this.repository = repository;
     }
 
+    /**
+     * Instantiate a new ContentContainer object which loads the data dynamically and skips content
+     * which exceeds the given limits.
+     * @param indexable the object which supplies the content.
+     * @param repository the name of the repository where the Indexable is located.
+     * @param maxSize maximum size of the content in bytes; 0 means unlimited.
+     * @param maxDepth maximum nesting depth of XML elements; 0 means unlimited.
+     */
+    public ContentContainer(Indexable indexable, String repository, Long maxSize, Integer maxDepth){
+        this(indexable, repository);
+        this.maxSize = maxSize;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Instantiate a new ContentContainer object for binary content, whose text is extracted on first access.
+     * @param indexable the object which supplies the content.
+     * @param repository the name of the repository where the Indexable is located.
+     * @param extractor the ContentExtractor which converts the content into XML.
+     */
+    public ContentContainer(Indexable indexable, String repository, ContentExtractor extractor){
+        this(indexable, repository);
+        this.extractor = extractor;
+    }
+
+    /**
+     * Open the content stream in the current thread. The content itself is read on first access,
+     * which may happen in another thread. This allows the IndexPipeline to resolve the content file
+     * in the thread which owns the Indexable without loading the whole file into memory.
+     */
+    public void openStream(){
+        if(!contentLoaded && contentStream == null){
+            try{
+                contentStream = Indexables.getContentAsStream(indexable, repository);
+            }
+            catch (Exception e){
+                useEmptyContent(e);
+            }
+        }
+    }
+
+    /**
+     * Close the content stream if it was opened by openStream() but never read.
+     */
+    public void close(){
+        if(contentStream != null){
+            close(contentStream);
+            contentStream = null;
+        }
+    }
+
     /**
      * Parse the content as an XML-document. Will always return a document. In case of invalid content, it
      * returns "&lt;empty /&gt;" as a document.
@@ -54,18 +162,104 @@ public class ContentContainer {
     public Document asDocument(){
         if(contentAsDoc == null){
             try{
-                contentAsDoc = ParamParser.parseXmlToDocument(asString());
-                        // "error.parse.indexable_object"); // error message is not needed as the exception is not
-                        // propagated to the end user.
+                contentAsDoc = read(new LimitHandler(null));
+            }
+            catch (ContentLimitException e){
+                skip(e.getMessage());
+                contentAsDoc = createEmptyDocument();
             }
             catch (Exception e){
                 log.debug("Failed to parse content. Will create <empty/> content.");
-                contentAsDoc = ParamParser.parseXmlToDocument("<empty />");
+                contentAsDoc = createEmptyDocument();
             }
         }
         return contentAsDoc;
     }
 
+    /**
+     * Evaluate the given XPath expressions in a single pass over the content, without building
+     * a DOM of the whole document. Only the matching elements (including their descendants) are kept.
+     * Afterwards, fetchStreamedNodes returns the results. If the content cannot be parsed or exceeds
+     * the limits, all expressions yield empty results, just as they would on "&lt;empty /&gt;".
+     * @param expressions XPath expressions which must all be streamable.
+     * @throws IllegalArgumentException if one of the expressions is not streamable.
+     */
+    public void streamSelect(Collection<String> expressions){
+        List<StreamPath> paths = new ArrayList<StreamPath>();
+        Map<String, List<Node>> results = new LinkedHashMap<String, List<Node>>();
+        for(String expression : expressions){
+            if(! isStreamable(expression)){
+                throw new IllegalArgumentException("not a streamable XPath expression: "+expression);
+            }
+            paths.add(new StreamPath(expression));
+            results.put(expression, new ArrayList<Node>());
+        }
+        if(contentAsDoc == null){
+            try{
+                read(new LimitHandler(new SelectHandler(paths, results)));
+            }
+            catch (ContentLimitException e){
+                skip(e.getMessage());
+                clearResults(results);
+            }
+            catch (Exception e){
+                log.debug("Failed to parse content while streaming. Will use empty results.");
+                clearResults(results);
+            }
+        }
+        else{
+            // already parsed: no need to read the content again.
+            for(StreamPath path : paths){
+                results.put(path.expression, new CompiledXPath(path.expression).selectNodes(contentAsDoc));
+            }
+        }
+        streamedNodes = results;
+    }
+
+    /**
+     * @param expression an XPath expression
+     * @return the nodes found by streamSelect() for this expression in document order,
+     * or null if the expression was not part of the last streamSelect().
+     */
+    public List<Node> fetchStreamedNodes(String expression){
+        if(streamedNodes == null){
+            return null;
+        }
+        return streamedNodes.get(expression);
+    }
+
+    /**
+     * @param expression an XPath expression
+     * @return true if streamSelect() can evaluate the given expression.
+     */
+    public static Boolean isStreamable(String expression){
+        return expression != null && STREAMABLE_PATH.matcher(expression.trim()).matches();
+    }
+
+    /**
+     * @return true if the content was skipped because it exceeded maxSize or maxDepth, or because its
+     * text could not be extracted.
+     */
+    public Boolean isSkipped(){
+        return skipReason != null;
+    }
+
+    /**
+     * @return the limit which caused the content to be skipped ("maxSize" or "maxDepth"), the reason
+     * why its text could not be extracted (see ContentExtractor), or null.
+     */
+    public String getSkipReason(){
+        return skipReason;
+    }
+
+    /**
+     * @return true if the content was skipped for a reason which may not apply next time, like an
+     * extraction timeout. A document created from this content should be indexed again later.
+     */
+    public Boolean isSkippedTemporarily(){
+        return skippedTemporarily;
+    }
+
     /**
      * Return the content as a String. This method always returns a String, which may be empty in case
      * the content is not defined.
@@ -81,14 +275,451 @@ public class ContentContainer {
         return contentAsString;
     }
 
+    /**
+     * Compute the SHA-1 digest of the raw content (see Fingerprint) without loading it into memory.
+     * The size limits do not apply. If the content has already been parsed, the digest computed while
+     * reading it is returned. Otherwise, a stream opened by openStream() is consumed, so the content
+     * is read a second time if it is parsed afterwards: parse it first. Content which cannot be read is replaced
+     * with "&lt;empty /&gt;" and gets its digest.
+     * @return the hex encoded digest of the content.
+     */
+    public String digest(){
+        if(digest == null){
+            InputStream in = null;
+            try{
+                if(contentLoaded || indexable == null){
+                    in = new ByteArrayInputStream(asBytes());
+                }
+                else{
+                    in = contentStream != null ? contentStream : Indexables.getContentAsStream(indexable, repository);
+                    contentStream = null;
+                }
+                digest = Fingerprint.digestStream(in);
+            }
+            catch (Exception e){
+                // unreadable content is indexed as <empty/>, so it gets the digest of <empty/>.
+                useEmptyContent(e);
+                digest = digestEmptyContent();
+            }
+            finally {
+                if(in != null){
+                    close(in);
+                }
+            }
+        }
+        return digest;
+    }
+
+    String digestEmptyContent(){
+        try{
+            return Fingerprint.digestStream(new ByteArrayInputStream(content));
+        }
+        catch (IOException e){
+            throw new CinnamonException("error.loading.content", e);
+        }
+    }
+
+    /**
+     * Read the complete content into memory. Prefer asDocument() or streamSelect(), which parse the content
+     * from a stream. If the content exceeds maxSize, an empty array is returned and the content is marked as skipped.
+     * @return the content as a byte array.
+     */
     public byte[] asBytes(){
-        if(contentLoaded){
-            return content;
+        if(! contentLoaded){
+            InputStream in = openContent();
+            try{
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                byte[] chunk = new byte[8192];
+                int n;
+                while((n = in.read(chunk)) != -1){
+                    buffer.write(chunk, 0, n);
+                }
+                content = buffer.toByteArray();
+            }
+            catch (ContentLimitException e){
+                skip(e.getMessage());
+                content = new byte[0];
+            }
+            catch (IOException e){
+                throw new CinnamonException("error.loading.content", e);
+            }
+            finally {
+                finishDigest();
+                close(in);
+            }
+            contentLoaded = true;
         }
-        else{
-            content = indexable.getContentAsBytes(repository);
+        return content;
+    }
+
+    Document read(ElementHandler handler) throws Exception{
+        if(contentLoaded && maxSize > 0 && content.length > maxSize){
+            throw new ContentLimitException("maxSize");
+        }
+        SAXReader reader = new SAXReader();
+        try{
+            // do not fetch DTDs from the network for each indexed document.
+            reader.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        }
+        catch (SAXException e){
+            log.debug("XML parser does not support disabling external DTDs.");
+        }
+        reader.setDefaultHandler(handler);
+        InputStream in = openContent();
+        try{
+            return reader.read(in);
+        }
+        catch (Exception e){
+            ContentLimitException limit = findLimitException(e);
+            throw limit != null ? limit : e;
+        }
+        finally {
+            finishDigest();
+            close(in);
+        }
+    }
+
+    InputStream openContent(){
+        if(extractor != null && !contentLoaded){
+            extract();
+        }
+        if(! contentLoaded && indexable == null){
+            content = contentAsDoc.asXML().getBytes();
             contentLoaded = true;
-            return content;
+        }
+        if(contentLoaded){
+            return new ByteArrayInputStream(content);
+        }
+        InputStream in = contentStream;
+        contentStream = null;
+        if(in == null){
+            in = Indexables.getContentAsStream(indexable, repository);
+        }
+        if(digest == null){
+            digesting = new DigestInputStream(in, Fingerprint.createDigest());
+            in = digesting;
+        }
+        in = new BufferedInputStream(in);
+        if(maxSize > 0){
+            in = new LimitedInputStream(in, maxSize);
+        }
+        return in;
+    }
+
+    /**
+     * Replace the raw content with its extracted text. The digest of the raw content is computed while it is
+     * spooled for the ContentExtractor, as it is the key of the extraction cache and must not change when the
+     * content is replaced. If the digest is already known, cached text is used without reading the content.
+     */
+    void extract(){
+        if(digest != null){
+            byte[] cached = extractor.fetchCached(digest);
+            if(cached != null){
+                close();
+                content = cached;
+                contentLoaded = true;
+                return;
+            }
+        }
+        InputStream raw;
+        try{
+            raw = contentStream != null ? contentStream : Indexables.getContentAsStream(indexable, repository);
+            contentStream = null;
+        }
+        catch (Exception e){
+            useEmptyContent(e);
+            return;
+        }
+        DigestInputStream in = new DigestInputStream(raw, Fingerprint.createDigest());
+        try{
+            File spool;
+            try{
+                spool = extractor.spool(in);
+            }
+            catch (ContentExtractor.ExtractionException e){
+                if(digest == null && !ContentExtractor.FAILED.equals(e.getMessage())){
+                    // the content exceeds extractionMaxSize, but was read to its end.
+                    digest = Fingerprint.toHex(in.getMessageDigest().digest());
+                }
+                // otherwise, the digest is incomplete and digest() reads the content again.
+                throw e;
+            }
+            if(digest == null){
+                digest = Fingerprint.toHex(in.getMessageDigest().digest());
+            }
+            content = extractor.extract(digest, spool);
+        }
+        catch (ContentExtractor.ExtractionException e){
+            skip(e.getMessage());
+            skippedTemporarily = e.isTemporary();
+            content = "<empty />".getBytes();
+        }
+        contentLoaded = true;
+    }
+
+    /**
+     * Complete the digest of the raw content which was read by openContent: the bytes which the parser did not
+     * need (after the root element, or after a limit was exceeded) are read, too, as the limits do not apply to
+     * the digest. If they cannot be read, digest() reads the content again.
+     */
+    void finishDigest(){
+        if(digesting == null){
+            return;
+        }
+        DigestInputStream in = digesting;
+        digesting = null;
+        try{
+            byte[] buffer = new byte[8192];
+            while(in.read(buffer) != -1){
+                // only the digest is needed.
+            }
+            digest = Fingerprint.toHex(in.getMessageDigest().digest());
+        }
+        catch (IOException e){
+            log.debug("Failed to read the rest of the content for its digest:", e);
+        }
+    }
+
+    /**
+     * Replace content which cannot be read, like a missing content file, with "&lt;empty /&gt;",
+     * so the object is still indexed with its metadata and system metadata (see asDocument).
+     */
+    void useEmptyContent(Exception e){
+        log.debug("Failed to load content of "+(indexable == null ? "ContentContainer" : indexable.uniqueId())
+                +". Will create <empty/> content.", e);
+        content = "<empty />".getBytes();
+        contentLoaded = true;
+    }
+
+    void skip(String reason){
+        log.debug("Content of "+(indexable == null ? "ContentContainer" : indexable.uniqueId())
+                +" was skipped ("+reason+") and will not be indexed.");
+        skipReason = reason;
+    }
+
+    void close(InputStream in){
+        try{
+            in.close();
+        }
+        catch (IOException e){
+            log.debug("Failed to close content stream:", e);
+        }
+    }
+
+    static Document createEmptyDocument(){
+        return DocumentHelper.createDocument(DocumentHelper.createElement("empty"));
+    }
+
+    static void clearResults(Map<String, List<Node>> results){
+        for(List<Node> nodes : results.values()){
+            nodes.clear();
+        }
+    }
+
+    /**
+     * The SAX parser and dom4j wrap exceptions thrown by stream or handler, so look for
+     * a ContentLimitException among the causes.
+     */
+    static ContentLimitException findLimitException(Throwable t){
+        while(t != null){
+            if(t instanceof ContentLimitException){
+                return (ContentLimitException) t;
+            }
+            if(t instanceof SAXException && ((SAXException) t).getException() != null){
+                t = ((SAXException) t).getException();
+            }
+            else if(t instanceof org.dom4j.DocumentException && ((org.dom4j.DocumentException) t).getNestedException() != null){
+                t = ((org.dom4j.DocumentException) t).getNestedException();
+            }
+            else{
+                t = t.getCause();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Thrown when the content exceeds maxSize or maxDepth. The message is the name of the limit.
+     */
+    static class ContentLimitException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ContentLimitException(String limit){
+            super(limit);
+        }
+    }
+
+    /**
+     * An InputStream which throws a ContentLimitException after more than maxSize bytes have been read.
+     */
+    static class LimitedInputStream extends FilterInputStream {
+        final long maxSize;
+        long count = 0;
+
+        LimitedInputStream(InputStream in, long maxSize){
+            super(in);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b != -1){
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if(n > 0){
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        void count(long n){
+            count += n;
+            if(count > maxSize){
+                throw new ContentLimitException("maxSize");
+            }
+        }
+    }
+
+    /**
+     * Checks the nesting depth of each element and passes the events on to an optional delegate.
+     */
+    class LimitHandler implements ElementHandler {
+        final ElementHandler delegate;
+
+        LimitHandler(ElementHandler delegate){
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onStart(ElementPath elementPath) {
+            if(maxDepth > 0 && elementPath.size() > maxDepth){
+                throw new ContentLimitException("maxDepth");
+            }
+            if(delegate != null){
+                delegate.onStart(elementPath);
+            }
+        }
+
+        @Override
+        public void onEnd(ElementPath elementPath) {
+            if(delegate != null){
+                delegate.onEnd(elementPath);
+            }
+        }
+    }
+
+    /**
+     * Collects the nodes matching a list of StreamPaths and prunes every other element from
+     * the document as soon as it has been read, so memory use is bounded by the size of the matches.
+     */
+    static class SelectHandler implements ElementHandler {
+        final List<StreamPath> paths;
+        final Map<String, List<Node>> results;
+        /**
+         * For each open element: true if it matched an element path and must be kept.
+         */
+        final List<Boolean> keep = new ArrayList<Boolean>();
+        int keptAncestors = 0;
+
+        SelectHandler(List<StreamPath> paths, Map<String, List<Node>> results){
+            this.paths = paths;
+            this.results = results;
+        }
+
+        @Override
+        public void onStart(ElementPath elementPath) {
+            Element element = elementPath.getCurrent();
+            Boolean matched = false;
+            for(StreamPath path : paths){
+                if(! path.matches(elementPath)){
+                    continue;
+                }
+                if(path.attribute == null){
+                    results.get(path.expression).add(element);
+                    matched = true;
+                }
+                else if(element.attribute(path.attribute) != null){
+                    results.get(path.expression).add(element.attribute(path.attribute));
+                }
+            }
+            keep.add(matched);
+            if(matched){
+                keptAncestors++;
+            }
+        }
+
+        @Override
+        public void onEnd(ElementPath elementPath) {
+            Boolean matched = keep.remove(keep.size() - 1);
+            if(matched){
+                keptAncestors--;
+            }
+            // a matched element needs its descendants; everything else is no longer needed.
+            if(keptAncestors == 0){
+                elementPath.getCurrent().detach();
+            }
+        }
+    }
+
+    /**
+     * A streamable XPath expression, split into element names and an optional attribute name.
+     */
+    static class StreamPath {
+        final String expression;
+        final String[] names;
+        final Boolean anyDepth;
+        final String attribute;
+
+        StreamPath(String expression){
+            this.expression = expression;
+            String path = expression.trim();
+            int at = path.indexOf("/@");
+            if(at >= 0){
+                attribute = path.substring(at + 2);
+                path = path.substring(0, at);
+            }
+            else{
+                attribute = null;
+            }
+            anyDepth = path.startsWith("//");
+            names = path.substring(anyDepth ? 2 : 1).split("/");
+        }
+
+        Boolean matches(ElementPath elementPath){
+            int depth = elementPath.size();
+            if(anyDepth){
+                return matchesName(elementPath.getElement(depth - 1), names[0]);
+            }
+            if(depth != names.length){
+                return false;
+            }
+            for(int i = 0; i < depth; i++){
+                if(! matchesName(elementPath.getElement(i), names[i])){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * An unprefixed name in an XPath expression only matches elements without a namespace.
+         */
+        static Boolean matchesName(Element element, String name){
+            return element.getName().equals(name) && element.getNamespaceURI().length() == 0;
         }
     }
 }
@@ -0,0 +1,403 @@
+package server.index;
+
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.WriteOutContentHandler;
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Extracts the text of binary content (PDF, office documents etc., see ExtendedIndexable.hasExtractableContent())
+ * with Apache Tika, so content IndexItems can index it. The extracted text is presented to the
+ * IndexItems as the XML document {@code <extractedContent>text</extractedContent>}.
+ * <p>Tika runs in a bounded pool of daemon threads. The caller waits at most extractionTimeout ms
+ * per document; a parser which does not finish in time is interrupted and its document is indexed
+ * without content. If a parser ignores the interrupt, the pool starts a replacement thread (up to
+ * extractionWorkers more), so a hung parser cannot block the IndexServer. The memory per document
+ * is limited by extractionMaxSize (bytes of content which are passed to Tika) and extractionMaxChars
+ * (characters of extracted text; longer texts are truncated).</p>
+ * <p>The extracted text is cached by the SHA-1 digest of the content in the folder
+ * $indexDir/$repository.extracted, so the same content is never extracted twice - not even
+ * across new versions of an object or a complete IndexRebuild. The cache folder may be
+ * deleted at any time.</p>
+ */
+public class ContentExtractor {
+
+    transient Logger log = LoggerFactory.getLogger(this.getClass());
+
+    static final String ROOT = "extractedContent";
+
+    /**
+     * Skip reasons (see ContentContainer.getSkipReason()).
+     */
+    static final String TIMEOUT = "extractionTimeout";
+    static final String BUSY = "extractionBusy";
+    static final String FAILED = "extractionFailed";
+    static final String MEMORY = "extractionMemory";
+
+    static final int QUEUED = 0;
+    static final int RUNNING = 1;
+    static final int FINISHED = 2;
+    static final int ABANDONED = 3;
+
+    final AutoDetectParser parser = new AutoDetectParser();
+    final ThreadPoolExecutor pool;
+    final Integer workers;
+    final Long timeout;
+    final Long maxSize;
+    final Integer maxChars;
+    final File cacheFolder;
+
+    /**
+     * Number of parsers which have exceeded their timeout, but are still running.
+     */
+    final AtomicInteger hung = new AtomicInteger();
+
+    /**
+     * @param workers     number of threads which run Tika
+     * @param queueSize   number of documents which may wait for a free thread
+     * @param timeout     maximum time in ms to wait for the extraction of one document
+     * @param maxSize     maximum size of the content in bytes; 0 means unlimited.
+     * @param maxChars    maximum number of extracted characters per document
+     * @param cacheFolder folder of the extracted text cache, or null to disable the cache.
+     */
+    public ContentExtractor(Integer workers, Integer queueSize, Long timeout, Long maxSize, Integer maxChars,
+                            File cacheFolder) {
+        this.workers = workers;
+        this.timeout = timeout;
+        this.maxSize = maxSize;
+        this.maxChars = maxChars;
+        this.cacheFolder = cacheFolder;
+        pool = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+            final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ContentExtractor-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @param digest the digest of the content (see ContentContainer.digest())
+     * @return the cached text of the content as XML, or null if it is not cached.
+     */
+    public byte[] fetchCached(String digest) {
+        File cached = cacheFile(digest);
+        if (cached != null && cached.exists()) {
+            try {
+                return readCache(cached);
+            } catch (IOException e) {
+                log.debug("Failed to read cached text " + cached.getName() + ", extracting again:", e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Extract the text of spooled content (see spool), or fetch it from the cache.
+     * The spool file is always deleted.
+     *
+     * @param digest the digest of the content (see ContentContainer.digest())
+     * @param spool  the spooled content
+     * @return the extracted text as XML.
+     * @throws ExtractionException if the text could not be extracted.
+     */
+    public byte[] extract(String digest, File spool) {
+        File cached = cacheFile(digest);
+        try {
+            byte[] xml = fetchCached(digest);
+            if (xml != null) {
+                return xml;
+            }
+            String text = parse(spool);
+            xml = toXml(text);
+            if (cached != null) {
+                writeCache(cached, xml);
+            }
+            return xml;
+        } finally {
+            if (!spool.delete()) {
+                spool.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Copy the content to a temporary file: the caller's thread may be the only one which can open
+     * the content, and Tika's container parsers (zip, OLE2, PDF) need random access anyway.
+     * The content is read to its end, even if it exceeds extractionMaxSize, so a DigestInputStream
+     * computes the digest of the whole content while it is spooled. The stream is always closed.
+     *
+     * @param content the raw content
+     * @return the temporary file, which extract(String, File) deletes.
+     * @throws ExtractionException if the content exceeds extractionMaxSize (the reason is "maxSize")
+     *                             or cannot be read (FAILED).
+     */
+    public File spool(InputStream content) {
+        InputStream in = new BufferedInputStream(content);
+        if (maxSize > 0) {
+            in = new ContentContainer.LimitedInputStream(in, maxSize);
+        }
+        Boolean complete = false;
+        File spool = null;
+        try {
+            spool = File.createTempFile("cinnamon-extract", ".tmp");
+            OutputStream out = new FileOutputStream(spool);
+            try {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+                complete = true;
+            } finally {
+                out.close();
+            }
+        } catch (ContentContainer.ContentLimitException e) {
+            drain(content);
+            throw new ExtractionException(e.getMessage(), false);
+        } catch (IOException e) {
+            throw new ExtractionException(FAILED, false, e);
+        } finally {
+            close(in);
+            if (!complete && spool != null) {
+                spool.delete();
+            }
+        }
+        return spool;
+    }
+
+    /**
+     * Read the rest of a stream without keeping it.
+     */
+    void drain(InputStream content) {
+        try {
+            byte[] buffer = new byte[8192];
+            while (content.read(buffer) != -1) {
+                // only a DigestInputStream needs the bytes.
+            }
+        } catch (IOException e) {
+            throw new ExtractionException(FAILED, false, e);
+        }
+    }
+
+    String parse(final File file) {
+        // QUEUED -> RUNNING -> FINISHED, or ABANDONED by the caller after the timeout.
+        final AtomicInteger state = new AtomicInteger(QUEUED);
+        Future<String> future;
+        try {
+            future = pool.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    if (!state.compareAndSet(QUEUED, RUNNING)) {
+                        return null;
+                    }
+                    try {
+                        return runTika(file);
+                    } finally {
+                        if (state.getAndSet(FINISHED) == ABANDONED) {
+                            // the caller has started a replacement thread, which is no longer needed.
+                            hung.decrementAndGet();
+                            resizePool();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("All content extraction threads are busy, the content will not be indexed.");
+            throw new ExtractionException(BUSY, true);
+        }
+
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            if (state.compareAndSet(RUNNING, ABANDONED)) {
+                log.warn("Content extraction did not finish within " + timeout + " ms and was cancelled.");
+                hung.incrementAndGet();
+                resizePool();
+            } else {
+                state.compareAndSet(QUEUED, ABANDONED);
+            }
+            throw new ExtractionException(TIMEOUT, true);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            state.compareAndSet(QUEUED, ABANDONED);
+            Thread.currentThread().interrupt();
+            throw new ExtractionException(TIMEOUT, true);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof OutOfMemoryError) {
+                log.warn("Content extraction ran out of memory.");
+                throw new ExtractionException(MEMORY, true);
+            }
+            log.debug("Content extraction failed:", e.getCause());
+            throw new ExtractionException(FAILED, false, e.getCause());
+        }
+    }
+
+    /**
+     * Run a thread for each hung parser in addition to the configured workers, but never more than
+     * twice the configured number.
+     */
+    synchronized void resizePool() {
+        int size = workers + Math.min(Math.max(hung.get(), 0), workers);
+        if (size > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(size);
+            pool.setCorePoolSize(size);
+        } else {
+            pool.setCorePoolSize(size);
+            pool.setMaximumPoolSize(size);
+        }
+    }
+
+    String runTika(File file) throws IOException, SAXException {
+        WriteOutContentHandler text = new WriteOutContentHandler(maxChars);
+        InputStream in = TikaInputStream.get(file);
+        try {
+            parser.parse(in, new BodyContentHandler(text), new Metadata(), new ParseContext());
+        } catch (SAXException e) {
+            if (!text.isWriteLimitReached(e)) {
+                throw e;
+            }
+            log.debug("Extracted text exceeds " + maxChars + " characters and was truncated.");
+        } catch (TikaException e) {
+            throw new IOException(e);
+        } finally {
+            in.close();
+        }
+        return text.toString();
+    }
+
+    static byte[] toXml(String text) {
+        Document doc = DocumentHelper.createDocument();
+        // remove characters which are not allowed in XML 1.0 (text extracted from binary formats may contain them).
+        doc.addElement(ROOT).addText(text.replaceAll("[^\\x09\\x0A\\x0D\\x20-\\uD7FF\\uE000-\\uFFFD]", " "));
+        try {
+            return doc.asXML().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    File cacheFile(String digest) {
+        if (cacheFolder == null || digest == null || digest.length() < 2) {
+            return null;
+        }
+        return new File(new File(cacheFolder, digest.substring(0, 2)), digest + ".xml.gz");
+    }
+
+    byte[] readCache(File file) throws IOException {
+        InputStream in = new GZIPInputStream(new FileInputStream(file));
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                buffer.write(chunk, 0, n);
+            }
+            return buffer.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Write the cache file under a temporary name and rename it, so a concurrent reader never sees a partial file.
+     */
+    void writeCache(File file, byte[] xml) {
+        File folder = file.getParentFile();
+        if (!folder.isDirectory() && !folder.mkdirs() && !folder.isDirectory()) {
+            log.debug("Could not create the extraction cache folder " + folder.getAbsolutePath());
+            return;
+        }
+        File temp = new File(folder, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            OutputStream out = new GZIPOutputStream(new FileOutputStream(temp));
+            try {
+                out.write(xml);
+            } finally {
+                out.close();
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.debug("Failed to cache extracted text in " + file.getAbsolutePath() + ":", e);
+            temp.delete();
+        }
+    }
+
+    void close(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            log.debug("Failed to close content stream:", e);
+        }
+    }
+
+    /**
+     * Stop the extraction threads. Parsers which are still running are interrupted.
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Thrown when the text of a document cannot be extracted. The message is the skip reason.
+     */
+    public static class ExtractionException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final Boolean temporary;
+
+        ExtractionException(String reason, Boolean temporary) {
+            super(reason);
+            this.temporary = temporary;
+        }
+
+        ExtractionException(String reason, Boolean temporary, Throwable cause) {
+            super(reason, cause);
+            this.temporary = temporary;
+        }
+
+        /**
+         * @return true if the extraction may succeed next time (timeout, busy, out of memory).
+         */
+        public Boolean isTemporary() {
+            return temporary;
+        }
+    }
+}
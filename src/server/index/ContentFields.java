@@ -0,0 +1,154 @@
+package server.index;
+
+import org.apache.lucene.document.CompressionTools;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.document.NumericField;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+/**
+ * Serializes the fields which were created from an object's content into one compressed, stored
+ * binary field ("contentFields"). When an object is re-indexed with unchanged content (for example,
+ * after its folder was renamed), the LuceneBridge restores these fields instead of parsing the content again.
+ * <p>Only plain String fields and long or double NumericFields can be restored; encode() returns null
+ * for any other kind of field.</p>
+ */
+public class ContentFields {
+
+    public static final String FIELD = "contentFields";
+
+    /**
+     * Version 2 added NumericFields; version 1 data (String fields only) is still readable.
+     */
+    static final int FORMAT = 2;
+
+    static final byte STRING = 0;
+    static final byte LONG = 1;
+    static final byte DOUBLE = 2;
+
+    private ContentFields() {
+    }
+
+    /**
+     * @param fields the fields created from the content
+     * @return the compressed fields, or null if one of them cannot be restored by decode().
+     */
+    public static byte[] encode(List<Fieldable> fields) {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeInt(FORMAT);
+            out.writeInt(fields.size());
+            for (Fieldable field : fields) {
+                if (field instanceof NumericField) {
+                    if (!writeNumeric((NumericField) field, out)) {
+                        return null;
+                    }
+                    continue;
+                }
+                if (field.isBinary() || field.stringValue() == null || field.isTermVectorStored()) {
+                    return null;
+                }
+                out.writeByte(STRING);
+                out.writeUTF(field.name());
+                out.writeBoolean(field.isStored());
+                out.writeBoolean(field.isIndexed());
+                out.writeBoolean(field.isTokenized());
+                out.writeBoolean(field.getOmitNorms());
+                byte[] value = field.stringValue().getBytes("UTF-8");
+                out.writeInt(value.length);
+                out.write(value);
+            }
+            out.close();
+            return CompressionTools.compress(buffer.toByteArray());
+        } catch (IOException e) {
+            // cannot happen with a ByteArrayOutputStream
+            return null;
+        }
+    }
+
+    /**
+     * @param compressed the output of encode(), may be null.
+     * @return the restored fields, or null if compressed is null or unreadable.
+     */
+    public static List<Fieldable> decode(byte[] compressed) {
+        if (compressed == null) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(CompressionTools.decompress(compressed)));
+            int format = in.readInt();
+            if (format != FORMAT && format != 1) {
+                return null;
+            }
+            int count = in.readInt();
+            List<Fieldable> fields = new ArrayList<Fieldable>(count);
+            for (int i = 0; i < count; i++) {
+                byte kind = format == 1 ? STRING : in.readByte();
+                if (kind != STRING) {
+                    fields.add(readNumeric(kind, in));
+                    continue;
+                }
+                String name = in.readUTF();
+                Store store = in.readBoolean() ? Store.YES : Store.NO;
+                boolean indexed = in.readBoolean();
+                boolean tokenized = in.readBoolean();
+                boolean omitNorms = in.readBoolean();
+                byte[] value = new byte[in.readInt()];
+                in.readFully(value);
+                fields.add(new Field(name, new String(value, "UTF-8"), store, Index.toIndex(indexed, tokenized, omitNorms)));
+            }
+            return fields;
+        } catch (IOException e) {
+            return null;
+        } catch (DataFormatException e) {
+            return null;
+        }
+    }
+
+    static Boolean writeNumeric(NumericField field, DataOutputStream out) throws IOException {
+        Number value = field.getNumericValue();
+        if (value instanceof Long) {
+            out.writeByte(LONG);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+        } else {
+            return false;
+        }
+        out.writeUTF(field.name());
+        out.writeInt(field.getPrecisionStep());
+        out.writeBoolean(field.isStored());
+        out.writeBoolean(field.isIndexed());
+        if (value instanceof Long) {
+            out.writeLong(value.longValue());
+        } else {
+            out.writeDouble(value.doubleValue());
+        }
+        return true;
+    }
+
+    static NumericField readNumeric(byte kind, DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        int precisionStep = in.readInt();
+        Store store = in.readBoolean() ? Store.YES : Store.NO;
+        boolean indexed = in.readBoolean();
+        NumericField field = new NumericField(name, precisionStep, store, indexed);
+        if (kind == LONG) {
+            return field.setLongValue(in.readLong());
+        }
+        if (kind == DOUBLE) {
+            return field.setDoubleValue(in.readDouble());
+        }
+        throw new IOException("unknown field kind " + kind);
+    }
+}
@@ -0,0 +1,48 @@
+package server.index;
+
+import org.dom4j.Document;
+
+import java.io.InputStream;
+
+/**
+ * Optional methods of an Indexable which let the LuceneBridge index it with less work. Existing Indexable
+ * implementations need not implement them: the LuceneBridge falls back to the methods of Indexable
+ * (see Indexables).
+ */
+public interface ExtendedIndexable extends Indexable {
+
+    /**
+     * Open the object's content as a stream, so large content can be parsed without
+     * loading it into memory first. The caller must close the stream.
+     * @param repository The repository where the indexable object is located.
+     * @return an InputStream of the content, as returned by getContentAsBytes.
+     */
+    InputStream getContentAsStream(String repository);
+
+    /**
+     * The system metadata as a dom4j Document, with the same structure as getSystemMetadata().
+     * The LuceneBridge evaluates the system metadata IndexItems on this Document, so it is
+     * neither serialized nor parsed again for each indexed object.
+     * @return a new Document of the system metadata, which the caller may keep.
+     */
+    Document getSystemMetadataAsDocument();
+
+    /**
+     * @return true if the object has binary content (for example, a PDF file) whose text should be
+     * extracted for the index (see ContentExtractor). Only checked if hasXmlContent() is false.
+     */
+    Boolean hasExtractableContent();
+
+    /**
+     * Schedule the object to be updated by the background index thread, when only a part of it was changed.
+     * @param scope the part of the object which was changed. If the content is not included, the index
+     * fields of the content are taken over from the indexed document instead of reading the content again.
+     */
+    void updateIndex(ChangeScope scope);
+
+    /**
+     * @return the name of the object's Java class, without any Hibernate proxy class. This is the javaClass
+     * attribute of the system metadata and the first part of the uniqueId.
+     */
+    String javaClassName();
+}
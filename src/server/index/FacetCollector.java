@@ -0,0 +1,186 @@
+package server.index;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Scorer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Collector which counts the hits of a search by the values of some fields (facets), for example
+ * by object type or owner, without loading any document or entity.
+ * <p>The values are read from the FieldCache's StringIndex of each segment, which Lucene loads once per
+ * segment and keeps until the segment is merged away. Counting a hit costs one array lookup per field,
+ * so even a million hits are counted in milliseconds once the segments are cached.</p>
+ * <p>Each document must have at most one term per facet field: suitable are the system fields of
+ * CinnamonIndexInitializer which hold ids or complete strings, not analyzed text
+ * (see CinnamonIndexInitializer.FACET_FIELDS).</p>
+ */
+public class FacetCollector extends Collector {
+
+    final String[] fields;
+    final Integer maxValues;
+    final List<Map<String, Integer>> counts = new ArrayList<Map<String, Integer>>();
+
+    // the current segment:
+    FieldCache.StringIndex[] values;
+    int[][] segmentCounts;
+
+    /**
+     * @param fields    the facet fields
+     * @param maxValues the maximum number of values per field returned by getFacets(); 0 means unlimited.
+     */
+    public FacetCollector(String[] fields, Integer maxValues) {
+        this.fields = fields;
+        this.maxValues = maxValues;
+        for (String field : fields) {
+            counts.add(new HashMap<String, Integer>());
+        }
+    }
+
+    @Override
+    public void setNextReader(IndexReader reader, int docBase) throws IOException {
+        flush();
+        values = new FieldCache.StringIndex[fields.length];
+        segmentCounts = new int[fields.length][];
+        for (int i = 0; i < fields.length; i++) {
+            values[i] = FieldCache.DEFAULT.getStringIndex(reader, fields[i]);
+            segmentCounts[i] = new int[values[i].lookup.length];
+        }
+    }
+
+    @Override
+    public void collect(int doc) {
+        for (int i = 0; i < values.length; i++) {
+            segmentCounts[i][values[i].order[doc]]++;
+        }
+    }
+
+    /**
+     * Count hits which were found without this collector, for example in the ResultCache.
+     *
+     * @param searcher the searcher which found the hits
+     * @param docs     document numbers of the searcher's index, in any order
+     * @param visible  for each document, true if it is to be counted (see ResultCache.findVisible).
+     * @throws IOException if the field values cannot be loaded.
+     */
+    public void collect(IndexSearcher searcher, int[] docs, boolean[] visible) throws IOException {
+        int[] sorted = new int[docs.length];
+        int n = 0;
+        for (int i = 0; i < docs.length; i++) {
+            if (visible[i]) {
+                sorted[n++] = docs[i];
+            }
+        }
+        Arrays.sort(sorted, 0, n);
+        IndexReader[] segments = searcher.getSubReaders();
+        int[] starts = ResultCache.docStarts(segments);
+        int segment = -1;
+        for (int i = 0; i < n; i++) {
+            int doc = sorted[i];
+            if (segment < 0 || (segment + 1 < segments.length && doc >= starts[segment + 1])) {
+                // skip the segments without hits.
+                while (segment + 1 < segments.length && doc >= starts[segment + 1]) {
+                    segment++;
+                }
+                setNextReader(segments[segment], starts[segment]);
+            }
+            collect(doc - starts[segment]);
+        }
+    }
+
+    /**
+     * Add the counts of the current segment to the totals. Ordinal 0 stands for documents without a value.
+     */
+    void flush() {
+        if (values == null) {
+            return;
+        }
+        for (int i = 0; i < values.length; i++) {
+            Map<String, Integer> total = counts.get(i);
+            String[] lookup = values[i].lookup;
+            int[] segment = segmentCounts[i];
+            for (int ord = 1; ord < segment.length; ord++) {
+                if (segment[ord] > 0) {
+                    String value = unpad(lookup[ord]);
+                    Integer count = total.get(value);
+                    total.put(value, count == null ? segment[ord] : count + segment[ord]);
+                }
+            }
+        }
+        values = null;
+        segmentCounts = null;
+    }
+
+    /**
+     * @param term an indexed term
+     * @return the number without its zero padding if the term was created by NumericFields.pad,
+     * otherwise the term itself.
+     */
+    static String unpad(String term) {
+        int start = term.startsWith("-") ? 1 : 0;
+        if (term.length() - start != NumericFields.PADDED_LENGTH) {
+            return term;
+        }
+        for (int i = start; i < term.length(); i++) {
+            if (!Character.isDigit(term.charAt(i))) {
+                return term;
+            }
+        }
+        try {
+            return String.valueOf(Long.parseLong(term));
+        } catch (NumberFormatException e) {
+            // 20 digits, but larger than any padded long.
+            return term;
+        }
+    }
+
+    /**
+     * @return the counts by field and value, the most frequent values first (at most maxValues per field).
+     * Zero-padded numbers are returned without their padding (for example ids as "42"), other values
+     * as indexed.
+     */
+    public Map<String, Map<String, Integer>> getFacets() {
+        flush();
+        Map<String, Map<String, Integer>> facets = new LinkedHashMap<String, Map<String, Integer>>();
+        for (int i = 0; i < fields.length; i++) {
+            List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>(counts.get(i).entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+                @Override
+                public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+                    int byCount = b.getValue().compareTo(a.getValue());
+                    return byCount != 0 ? byCount : a.getKey().compareTo(b.getKey());
+                }
+            });
+            Map<String, Integer> facet = new LinkedHashMap<String, Integer>();
+            for (Map.Entry<String, Integer> entry : entries) {
+                if (maxValues > 0 && facet.size() >= maxValues) {
+                    break;
+                }
+                facet.put(entry.getKey(), entry.getValue());
+            }
+            facets.put(fields[i], facet);
+        }
+        return facets;
+    }
+
+    @Override
+    public void setScorer(Scorer scorer) {
+        // the scores are not needed.
+    }
+
+    @Override
+    public boolean acceptsDocsOutOfOrder() {
+        return true;
+    }
+}
@@ -0,0 +1,171 @@
+package server.index;
+
+import org.apache.lucene.document.Fieldable;
+import server.exceptions.CinnamonException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The fingerprint of an indexed object, stored in the "fingerprint" field of its Lucene document.
+ * It consists of three SHA-1 digests:
+ * <ul>
+ * <li>items: the definitions of the content-only IndexItems which created the document (see
+ * IndexItemSnapshot.getContentDigest). The other IndexItems are always run, so a change of their
+ * definitions shows in the fields digest.</li>
+ * <li>content: the raw content bytes</li>
+ * <li>fields: all fields which were not created from the content alone, that is the fields of
+ * the metadata and system metadata IndexItems (including values an indexer fetched from the
+ * database, like the parent folder path).</li>
+ * </ul>
+ * <p>If the fingerprint of an object is unchanged, its document need not be rebuilt. If only the fields
+ * digest differs, the content-derived fields of the old document can be reused (see ContentFields).</p>
+ */
+public class Fingerprint {
+
+    public static final String FIELD = "fingerprint";
+
+    static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    final String items;
+    final String content;
+    final String fields;
+
+    public Fingerprint(String items, String content, String fields) {
+        this.items = items;
+        this.content = content;
+        this.fields = fields;
+    }
+
+    /**
+     * @param value a fingerprint as returned by toString()
+     * @return the parsed Fingerprint, or null if the value is null or malformed (for example,
+     * a document indexed before fingerprints existed).
+     */
+    public static Fingerprint parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        String[] parts = value.split(":", -1);
+        if (parts.length != 3) {
+            return null;
+        }
+        return new Fingerprint(parts[0], parts[1], parts[2]);
+    }
+
+    /**
+     * @param other another fingerprint, may be null.
+     * @return true if both fingerprints were created by the same IndexItems from the same content.
+     */
+    public Boolean hasSameContent(Fingerprint other) {
+        return other != null && items.equals(other.items) && content.equals(other.content);
+    }
+
+    /**
+     * @param itemsDigest the digest of the current content-only IndexItems (see IndexItemSnapshot.getContentDigest).
+     * @return true if this fingerprint was created by the given IndexItems.
+     */
+    public Boolean hasItems(String itemsDigest) {
+        return items.equals(itemsDigest);
+    }
+
+    /**
+     * @param descriptions one String per IndexItem which describes everything that affects its output.
+     * @return the digest of the descriptions, independent of their order.
+     */
+    public static String digestItems(Collection<String> descriptions) {
+        List<String> sorted = new ArrayList<String>(descriptions);
+        Collections.sort(sorted);
+        return digestStrings(sorted);
+    }
+
+    /**
+     * @param fields Lucene fields
+     * @return the digest of the fields' names and values, independent of their order.
+     */
+    public static String digestFields(Collection<Fieldable> fields) {
+        List<String> values = new ArrayList<String>(fields.size());
+        for (Fieldable field : fields) {
+            values.add(field.name() + "=" + field.stringValue());
+        }
+        Collections.sort(values);
+        return digestStrings(values);
+    }
+
+    /**
+     * Read the stream to its end and compute its digest. The stream is not closed.
+     *
+     * @param in the stream to digest
+     * @return the hex encoded digest
+     * @throws IOException if the stream cannot be read.
+     */
+    public static String digestStream(InputStream in) throws IOException {
+        MessageDigest digest = createDigest();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, n);
+        }
+        return toHex(digest.digest());
+    }
+
+    static String digestStrings(List<String> values) {
+        MessageDigest digest = createDigest();
+        try {
+            for (String value : values) {
+                digest.update(value.getBytes("UTF-8"));
+                // separator, so ["ab","c"] and ["a","bc"] differ.
+                digest.update((byte) 0);
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new CinnamonException("error.unsupported_encoding", e);
+        }
+        return toHex(digest.digest());
+    }
+
+    static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new CinnamonException("error.digest.unavailable", e, "SHA-1");
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Fingerprint)) {
+            return false;
+        }
+        Fingerprint that = (Fingerprint) o;
+        return items.equals(that.items) && content.equals(that.content) && fields.equals(that.fields);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * items.hashCode() + content.hashCode()) + fields.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return items + ":" + content + ":" + fields;
+    }
+}
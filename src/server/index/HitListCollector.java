@@ -0,0 +1,114 @@
+package server.index;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.Scorer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A Collector which records the document number (and, for a scored query, the score) of every hit,
+ * up to maxHits, for the ResultCache. Further hits are only counted.
+ */
+public class HitListCollector extends Collector {
+
+    final Integer maxHits;
+    final Boolean scored;
+    int[] docs = new int[64];
+    float[] scores;
+    int count = 0;
+    int totalHits = 0;
+    int docBase;
+    Scorer scorer;
+
+    /**
+     * @param maxHits the maximum number of hits to record.
+     * @param scored  if true, record the scores, too.
+     */
+    public HitListCollector(Integer maxHits, Boolean scored) {
+        this.maxHits = maxHits;
+        this.scored = scored;
+        scores = scored ? new float[64] : null;
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        totalHits++;
+        if (totalHits > maxHits) {
+            return;
+        }
+        if (count == docs.length) {
+            docs = Arrays.copyOf(docs, 2 * count);
+            if (scored) {
+                scores = Arrays.copyOf(scores, 2 * count);
+            }
+        }
+        docs[count] = docBase + doc;
+        if (scored) {
+            scores[count] = scorer.score();
+        }
+        count++;
+    }
+
+    /**
+     * @return false if there were more than maxHits hits.
+     */
+    public Boolean isComplete() {
+        return totalHits <= maxHits;
+    }
+
+    public Integer getTotalHits() {
+        return totalHits;
+    }
+
+    /**
+     * @param generation the generation of the searcher (see SearcherProvider.getGeneration)
+     * @return the recorded hits in result order, or an entry which marks the query as too large.
+     */
+    public ResultCache.Hits toHits(long generation) {
+        if (!isComplete()) {
+            return ResultCache.Hits.tooMany(generation);
+        }
+        if (!scored) {
+            int[] sorted = Arrays.copyOf(docs, count);
+            Arrays.sort(sorted);
+            return new ResultCache.Hits(generation, sorted, null);
+        }
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int byScore = Float.compare(scores[b], scores[a]);
+                return byScore != 0 ? byScore : (docs[a] < docs[b] ? -1 : (docs[a] == docs[b] ? 0 : 1));
+            }
+        });
+        int[] sortedDocs = new int[count];
+        float[] sortedScores = new float[count];
+        for (int i = 0; i < count; i++) {
+            sortedDocs[i] = docs[order[i]];
+            sortedScores[i] = scores[order[i]];
+        }
+        return new ResultCache.Hits(generation, sortedDocs, sortedScores);
+    }
+
+    @Override
+    public void setScorer(Scorer scorer) throws IOException {
+        this.scorer = scorer;
+    }
+
+    @Override
+    public void setNextReader(IndexReader reader, int docBase) throws IOException {
+        this.docBase = docBase;
+    }
+
+    @Override
+    public boolean acceptsDocsOutOfOrder() {
+        // the hits are sorted afterwards.
+        return true;
+    }
+}
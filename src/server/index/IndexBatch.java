@@ -0,0 +1,205 @@
+package server.index;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import server.dao.IndexJobDAO;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An IndexBatch collects index changes and commits them to the Lucene index in one go,
+ * instead of committing (and thereby syncing the index files to disk) after every single document.
+ * <p>maybeCommit() commits the batch when it contains maxBatchSize changes or when its oldest uncommitted
+ * change is older than maxCommitLatency milliseconds. The IndexJobs which belong to the changes are deleted
+ * only after the commit succeeded, so a crash in the middle of a batch leaves the jobs in the queue
+ * and the IndexServer will simply do the work again.</p>
+ * <p>The same holds if the LuceneBridge had to re-create its IndexWriter (for example after an OutOfMemoryError
+ * in any thread) between a change and the commit: the old writer discarded the change, so the commit keeps
+ * the IndexJobs of the batch (see LuceneBridge.getWriterGeneration).</p>
+ * <p>An IndexBatch is not thread safe: it is intended to be used by one IndexServer run.
+ * Create it via LuceneBridge.createBatch(jobDao).</p>
+ */
+public class IndexBatch {
+
+    transient Logger log = LoggerFactory.getLogger(this.getClass());
+
+    final LuceneBridge lucene;
+    final IndexJobDAO jobDao;
+    final Integer maxBatchSize;
+    final Long maxCommitLatency;
+
+    List<IndexJob> pendingJobs = new ArrayList<IndexJob>();
+    /**
+     * Jobs which are finished without a change to the index (see done()). They may be deleted even if
+     * the changes of the batch were lost.
+     */
+    List<IndexJob> doneJobs = new ArrayList<IndexJob>();
+    /**
+     * Jobs whose object was indexed without its content, as it was skipped temporarily (see LuceneBridge.retryLater).
+     * They are kept, so the object is indexed again in the next run.
+     */
+    List<IndexJob> retryJobs = new ArrayList<IndexJob>();
+    Integer pendingChanges = 0;
+    /**
+     * The oldest writer generation any of the pending changes was staged to, or null.
+     */
+    Long writerGeneration = null;
+    Long oldestChange = 0L;
+    Long committedChanges = 0L;
+    Long unchangedCount = 0L;
+
+    public IndexBatch(LuceneBridge lucene, IndexJobDAO jobDao, Integer maxBatchSize, Long maxCommitLatency) {
+        this.lucene = lucene;
+        this.jobDao = jobDao;
+        this.maxBatchSize = maxBatchSize;
+        this.maxCommitLatency = maxCommitLatency;
+    }
+
+    /**
+     * Add or replace the document of the given Indexable. If the indexed document is
+     * up to date, the job is only marked as done.
+     *
+     * @param indexable the object to (re-)index
+     * @param job       the IndexJob which requested the update; it will be deleted after the next commit. May be null.
+     */
+    public void update(Indexable indexable, IndexJob job) {
+        update(indexable, job, job == null ? ChangeScope.ALL : job.getChangeScope());
+    }
+
+    /**
+     * Add or replace the document of the given Indexable, of which only a part was changed.
+     *
+     * @param indexable the object to (re-)index
+     * @param job       the IndexJob which requested the update; it will be deleted after the next commit. May be null.
+     * @param scope     the part of the object which was changed.
+     */
+    public void update(Indexable indexable, IndexJob job, ChangeScope scope) {
+        Long generation = lucene.getWriterGeneration();
+        if (lucene.stageUpdate(indexable, scope, job)) {
+            changed(job, generation);
+        } else {
+            unchanged(job);
+        }
+    }
+
+    /**
+     * Remove the document of the given Indexable from the index.
+     *
+     * @param indexable the object to remove
+     * @param job       the IndexJob which requested the removal; it will be deleted after the next commit. May be null.
+     */
+    public void remove(Indexable indexable, IndexJob job) {
+        Long generation = lucene.getWriterGeneration();
+        lucene.stageRemove(indexable);
+        changed(job, generation);
+    }
+
+    /**
+     * Mark a job as done without changing the index (for example, a duplicate job or a job
+     * for an object which no longer exists). It will be deleted after the next commit.
+     *
+     * @param job the finished IndexJob
+     */
+    public void done(IndexJob job) {
+        doneJobs.add(job);
+    }
+
+    /**
+     * Mark a job as done because the indexed document was already up to date.
+     *
+     * @param job the finished IndexJob, may be null.
+     */
+    void unchanged(IndexJob job) {
+        if (job != null) {
+            pendingJobs.add(job);
+        }
+        unchangedCount++;
+    }
+
+    /**
+     * @param job        the IndexJob of the change, may be null.
+     * @param generation the writer generation read before the change was staged.
+     */
+    void changed(IndexJob job, Long generation) {
+        if (job != null && job.retry) {
+            retryJobs.add(job);
+        } else if (job != null) {
+            pendingJobs.add(job);
+        }
+        if (writerGeneration == null || generation < writerGeneration) {
+            writerGeneration = generation;
+        }
+        pendingChanges++;
+        if (oldestChange == 0) {
+            oldestChange = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Commit the batch if it has reached maxBatchSize changes or if its oldest change
+     * is older than maxCommitLatency milliseconds.
+     */
+    public void maybeCommit() {
+        if (pendingChanges >= maxBatchSize
+                || (pendingChanges > 0 && System.currentTimeMillis() - oldestChange >= maxCommitLatency)) {
+            commit();
+        }
+    }
+
+    /**
+     * Commit all pending changes to the index and then delete the IndexJobs which belong to them.
+     * If the commit fails, the exception is propagated and the jobs are kept.
+     * If the IndexWriter was re-created after the first change of the batch, some of the changes may have
+     * been discarded: the jobs are kept (and not marked as failed), so the next run indexes the objects again.
+     */
+    public void commit() {
+        Boolean lost = false;
+        if (pendingChanges > 0) {
+            long start = System.currentTimeMillis();
+            lost = lucene.commitWriter() > writerGeneration;
+            log.debug(String.format("committed %d index changes in %d ms", pendingChanges,
+                    System.currentTimeMillis() - start));
+        }
+        if (lost) {
+            log.warn(String.format("The IndexWriter was re-created before %d index changes were committed. "
+                    + "Keeping %d IndexJobs to index the objects again.", pendingChanges, pendingJobs.size()));
+        }
+        if (jobDao != null) {
+            if (!lost) {
+                for (IndexJob job : pendingJobs) {
+                    jobDao.delete(job);
+                }
+            }
+            for (IndexJob job : doneJobs) {
+                jobDao.delete(job);
+            }
+        }
+        if (!lost) {
+            committedChanges += pendingChanges;
+        }
+        if (!retryJobs.isEmpty()) {
+            log.debug(String.format("keeping %d IndexJobs whose content was skipped temporarily", retryJobs.size()));
+        }
+        pendingJobs.clear();
+        doneJobs.clear();
+        retryJobs.clear();
+        pendingChanges = 0;
+        writerGeneration = null;
+        oldestChange = 0L;
+    }
+
+    /**
+     * @return the number of index changes committed by this batch so far.
+     */
+    public Long getCommittedChanges() {
+        return committedChanges;
+    }
+
+    /**
+     * @return the number of updates which were dropped because the indexed document was up to date.
+     */
+    public Long getUnchangedCount() {
+        return unchangedCount;
+    }
+}
@@ -0,0 +1,78 @@
+package server.index;
+
+import org.apache.lucene.document.Document;
+
+/**
+ * Everything the LuceneBridge needs to create the Lucene document of an Indexable:
+ * its identifiers and its content, metadata and system metadata. An IndexData object
+ * is detached from the database, so the document may be built in another thread than
+ * the one which loaded the Indexable.
+ */
+public class IndexData {
+
+    private String uniqueId;
+    private String javaClass;
+    private String hibernateId;
+    private ContentContainer content;
+    private ContentContainer metadata;
+    private ContentContainer systemMetadata;
+    private ChangeScope scope = ChangeScope.ALL;
+    private Document previous;
+
+    public IndexData(String uniqueId, String javaClass, String hibernateId, ContentContainer content,
+                     ContentContainer metadata, ContentContainer systemMetadata) {
+        this.uniqueId = uniqueId;
+        this.javaClass = javaClass;
+        this.hibernateId = hibernateId;
+        this.content = content;
+        this.metadata = metadata;
+        this.systemMetadata = systemMetadata;
+    }
+
+    public String getUniqueId() {
+        return uniqueId;
+    }
+
+    public String getJavaClass() {
+        return javaClass;
+    }
+
+    public String getHibernateId() {
+        return hibernateId;
+    }
+
+    public ContentContainer getContent() {
+        return content;
+    }
+
+    public ContentContainer getMetadata() {
+        return metadata;
+    }
+
+    public ContentContainer getSystemMetadata() {
+        return systemMetadata;
+    }
+
+    /**
+     * @return the part of the object which was changed since it was indexed.
+     */
+    public ChangeScope getScope() {
+        return scope;
+    }
+
+    public void setScope(ChangeScope scope) {
+        this.scope = scope;
+    }
+
+    /**
+     * @return the fingerprint and content fields of the indexed document, if they were looked up
+     * while loading (see LuceneBridge.loadIndexData), or null.
+     */
+    public Document getPrevious() {
+        return previous;
+    }
+
+    public void setPrevious(Document previous) {
+        this.previous = previous;
+    }
+}
@@ -125,6 +125,16 @@ public class IndexItem implements Serializable{
 			nullable = false)
 	@Type(type="text")		
 	String vaProviderParams = "<vaParams />";
+
+	/**
+	 * Compiled forms of searchString and searchCondition. They are created on first use
+	 * and discarded when the expression is changed.
+	 */
+	@Transient
+	transient volatile CompiledXPath compiledSearchString;
+
+	@Transient
+	transient volatile CompiledXPath compiledSearchCondition;
 	
 	public IndexItem(){
 		
@@ -201,33 +211,71 @@ public class IndexItem implements Serializable{
         log.debug("searchString: "+searchString);
         log.debug("fieldname: "+fieldname);
 
+		CompiledXPath searchXPath = fetchCompiledSearchString();
 		if(forContent){
 //            log.trace("searching on content:\n"+content.asString());
-			indexType.indexContent(content, doc, fieldname, searchString, multipleResults);
+			indexType.indexContent(content, doc, fieldname, searchXPath, multipleResults);
 		}
 		if(forSysMeta){
 //            log.debug("sysMeta:\n "+systemMetadata.asString());
-			indexType.indexSysMeta(systemMetadata, doc, fieldname, searchString, multipleResults);
+			indexType.indexSysMeta(systemMetadata, doc, fieldname, searchXPath, multipleResults);
 		}
 		if(forMetadata){            
-			indexType.indexMetadata(metadata, doc, fieldname, searchString, multipleResults);
+			indexType.indexMetadata(metadata, doc, fieldname, searchXPath, multipleResults);
 		}
 	}
+
+	/**
+	 * @return the compiled XPath of the searchString.
+	 */
+	public CompiledXPath fetchCompiledSearchString(){
+		CompiledXPath xpath = compiledSearchString;
+		if(xpath == null){
+			xpath = new CompiledXPath(searchString);
+			compiledSearchString = xpath;
+		}
+		return xpath;
+	}
+
+	/**
+	 * @return the compiled XPath of the searchCondition.
+	 */
+	public CompiledXPath fetchCompiledSearchCondition(){
+		CompiledXPath xpath = compiledSearchCondition;
+		if(xpath == null){
+			xpath = new CompiledXPath(searchCondition);
+			compiledSearchCondition = xpath;
+		}
+		return xpath;
+	}
 	
 	/**
 	 * Check if one of the given parameter Strings has a positive result for the
 	 * xpath expression in searchCondition.
+	 * The default condition "true()" is accepted without parsing any of the documents.
 	 * @param params an array of strings which contain XML documents.
 	 * @return true if one of the strings resulted in a positive match for searchCondition.
 	 */
 	public Boolean checkCondition(ContentContainer[] params){
 		Boolean result = false;
+		CompiledXPath condition;
+		try{
+			condition = fetchCompiledSearchCondition();
+		}
+		catch (Exception e) {
+			log.debug("checkCondition: invalid searchCondition "+searchCondition, e);
+			return false;
+		}
+		if(condition.isAlwaysTrue()){
+			return true;
+		}
 		for(ContentContainer xml : params){
 			try{
                 // TODO: possibly define size limits.
 				org.dom4j.Document indexObject = xml.asDocument();
-				log.debug("checkCondition "+searchCondition+": "+indexObject.valueOf(searchCondition)) ;
-				if(indexObject.valueOf(searchCondition).equals("true")){
+				String value = condition.valueOf(indexObject);
+				log.debug("checkCondition "+searchCondition+": "+value) ;
+				if(value.equals("true")){
 					result = true;
 					break;
 				}				
@@ -257,6 +305,7 @@ public class IndexItem implements Serializable{
 
     public void setSearchString(String searchString) {
         this.searchString = searchString;
+        compiledSearchString = null;
     }
 
     public String getSearchCondition() {
@@ -265,6 +314,7 @@ public class IndexItem implements Serializable{
 
     public void setSearchCondition(String searchCondition) {
         this.searchCondition = searchCondition;
+        compiledSearchCondition = null;
     }
 
     public String getFieldname() {
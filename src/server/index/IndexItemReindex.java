@@ -0,0 +1,416 @@
+package server.index;
+
+import org.jaxen.JaxenException;
+import org.jaxen.dom4j.Dom4jXPath;
+import org.jaxen.expr.BinaryExpr;
+import org.jaxen.expr.FilterExpr;
+import org.jaxen.expr.FunctionCallExpr;
+import org.jaxen.expr.LiteralExpr;
+import org.jaxen.expr.LocationPath;
+import org.jaxen.expr.NameStep;
+import org.jaxen.expr.NumberExpr;
+import org.jaxen.expr.PathExpr;
+import org.jaxen.expr.Predicate;
+import org.jaxen.expr.Step;
+import org.jaxen.expr.UnaryExpr;
+import org.jaxen.saxpath.Axis;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import server.Folder;
+import server.dao.DAOFactory;
+import server.dao.FolderDAO;
+import server.dao.IndexJobDAO;
+import server.dao.ObjectSystemDataDAO;
+import server.data.ObjectSystemData;
+import utils.HibernateSession;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Queues IndexJobs for the objects which a set of added, changed or removed IndexItems may have indexed,
+ * instead of re-indexing the whole repository (see IndexServer.reloadIndexItems).
+ * <p>All ObjectSystemData and Folder objects are read page by page (lucene.properties: rebuildPageSize),
+ * but their content is not. An object is queued if the searchCondition of one of the IndexItems is true
+ * for its metadata or its system metadata. This requires conditions which cannot be true because of the
+ * content (see canNarrow). If an IndexItem's condition cannot be narrowed like this (for example,
+ * the default "true()"), every object of the class the IndexItem applies to is queued.</p>
+ * <p>The IndexJobs get the smallest ChangeScope which runs the IndexItems again (see scopeOf): unless one
+ * of them reads the content, the content of the queued objects is not read.</p>
+ * <p>Only one IndexItemReindex runs per repository (see LuceneBridge.beginReindex). If the IndexItems change
+ * again while it runs, the new reindex hands its IndexItems to the running one, which queues their objects
+ * after it has finished its own.</p>
+ * <p>Usage: new IndexItemReindex(lucene, hibernateSession, items).run(), preferably in a thread of its own
+ * (see IndexServer.startReindex).</p>
+ */
+public class IndexItemReindex implements Runnable {
+
+    transient Logger log = LoggerFactory.getLogger(this.getClass());
+    static DAOFactory daoFactory = DAOFactory.instance(DAOFactory.HIBERNATE);
+
+    /**
+     * The root elements of the metadata and the system metadata.
+     */
+    static final Set<String> METADATA_ROOTS = new HashSet<String>(Arrays.asList("meta", "sysMeta"));
+
+    /**
+     * Functions without arguments whose result does not depend on the context node, if it is the document.
+     */
+    static final Set<String> CONSTANT_FUNCTIONS = new HashSet<String>(Arrays.asList("true", "false", "position", "last"));
+
+    final LuceneBridge lucene;
+    final HibernateSession hibernateSession;
+    final Collection<IndexItem> items;
+    final Integer pageSize;
+
+    /**
+     * IndexItems which were handed over by other reindexes while this one was running (see add).
+     */
+    final List<IndexItem> added = new ArrayList<IndexItem>();
+    Boolean finished = false;
+
+    Long objects = 0L;
+    Long queued = 0L;
+
+    /**
+     * @param lucene           the bridge of the repository.
+     * @param hibernateSession used to create the EntityManager of the reindex thread.
+     * @param items            the IndexItems whose objects will be re-indexed: for a changed IndexItem,
+     *                         both its old and its new version (see IndexItemSnapshot.findChanges).
+     */
+    public IndexItemReindex(LuceneBridge lucene, HibernateSession hibernateSession, Collection<IndexItem> items) {
+        this.lucene = lucene;
+        this.hibernateSession = hibernateSession;
+        this.items = items;
+        pageSize = Integer.parseInt(LuceneBridge.luceneProperties.getProperty("rebuildPageSize", "500"));
+    }
+
+    @Override
+    public void run() {
+        if (!lucene.beginReindex(this)) {
+            log.info("The objects of the changed IndexItems " + describe(items) + " of " + lucene.getRepository()
+                    + " will be queued by the IndexItemReindex which is already running.");
+            return;
+        }
+        EntityManager em = hibernateSession.getEntityManager();
+        HibernateSession.setLocalEntityManager(em);
+        Collection<IndexItem> current = items;
+        try {
+            while (current != null) {
+                long start = System.currentTimeMillis();
+                objects = 0L;
+                queued = 0L;
+                reindexOSDs(em, select(current, "object"));
+                reindexFolders(em, select(current, "folder"));
+                log.info(String.format("Queued %d of %d objects of %s for re-indexing after %d IndexItems were changed (%d ms).",
+                        queued, objects, lucene.getRepository(), current.size(), System.currentTimeMillis() - start));
+                current = takeAdded();
+            }
+        } catch (RuntimeException e) {
+            List<IndexItem> failed = new ArrayList<IndexItem>(current);
+            List<IndexItem> remaining = takeAdded();
+            if (remaining != null) {
+                failed.addAll(remaining);
+            }
+            log.error("Failed to queue the objects of the changed IndexItems " + describe(failed) + ". Please re-index.", e);
+            throw e;
+        } finally {
+            synchronized (this) {
+                finished = true;
+            }
+            lucene.endReindex(this);
+            if (em.isOpen()) {
+                em.close();
+            }
+        }
+    }
+
+    /**
+     * Hand the IndexItems of another reindex to this one.
+     *
+     * @param more changed IndexItems
+     * @return false if this reindex has already finished, so it will not queue their objects.
+     */
+    synchronized Boolean add(Collection<IndexItem> more) {
+        if (finished) {
+            return false;
+        }
+        added.addAll(more);
+        return true;
+    }
+
+    /**
+     * @return the IndexItems which were added since the last call, or null if there are none: then this
+     * reindex is finished and accepts no more IndexItems.
+     */
+    synchronized List<IndexItem> takeAdded() {
+        if (added.isEmpty()) {
+            finished = true;
+            return null;
+        }
+        List<IndexItem> next = new ArrayList<IndexItem>(added);
+        added.clear();
+        return next;
+    }
+
+    void reindexOSDs(EntityManager em, List<IndexItem> candidates) {
+        if (candidates.isEmpty()) {
+            return;
+        }
+        ObjectSystemDataDAO oDao = daoFactory.getObjectSystemDataDAO(em);
+        Boolean all = matchesAll(candidates);
+        ChangeScope scope = scopeOf(candidates);
+        Long lastId = 0L;
+        List<ObjectSystemData> osds;
+        while (!(osds = oDao.findAfterId(lastId, pageSize)).isEmpty()) {
+            List<Indexable> matches = new ArrayList<Indexable>();
+            for (ObjectSystemData osd : osds) {
+                if (all || matches(candidates, osd)) {
+                    matches.add(osd);
+                }
+                lastId = osd.getId();
+            }
+            queue(em, matches, scope);
+            objects += osds.size();
+            em.clear();
+        }
+    }
+
+    void reindexFolders(EntityManager em, List<IndexItem> candidates) {
+        if (candidates.isEmpty()) {
+            return;
+        }
+        FolderDAO fDao = daoFactory.getFolderDAO(em);
+        Boolean all = matchesAll(candidates);
+        ChangeScope scope = scopeOf(candidates);
+        Long lastId = 0L;
+        List<Folder> folders;
+        while (!(folders = fDao.findAfterId(lastId, pageSize)).isEmpty()) {
+            List<Indexable> matches = new ArrayList<Indexable>();
+            for (Folder folder : folders) {
+                if (all || matches(candidates, folder)) {
+                    matches.add(folder);
+                }
+                lastId = folder.getId();
+            }
+            queue(em, matches, scope);
+            objects += folders.size();
+            em.clear();
+        }
+    }
+
+    /**
+     * Create an IndexJob for each of the objects, in one transaction.
+     */
+    void queue(EntityManager em, List<Indexable> indexables, ChangeScope scope) {
+        if (indexables.isEmpty()) {
+            return;
+        }
+        IndexJobDAO jobDao = daoFactory.getIndexJobDAO(em);
+        EntityTransaction et = em.getTransaction();
+        et.begin();
+        try {
+            for (Indexable indexable : indexables) {
+                jobDao.makePersistent(new IndexJob(indexable, scope));
+            }
+            et.commit();
+            queued += indexables.size();
+        } finally {
+            if (et.isActive()) {
+                et.rollback();
+            }
+        }
+    }
+
+    /**
+     * @return true if the condition of one of the IndexItems is true for the metadata or system metadata of the object.
+     */
+    Boolean matches(List<IndexItem> candidates, Indexable indexable) {
+        ContentContainer[] containers = {new ContentContainer(indexable.getMetadata().getBytes()),
+                new ContentContainer(Indexables.getSystemMetadataAsDocument(indexable))};
+        for (IndexItem item : candidates) {
+            if (item.checkCondition(containers)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param items   IndexItems
+     * @param element the element of the system metadata which contains the object's fields:
+     *                "object" for ObjectSystemData, "folder" for folders.
+     * @return the IndexItems which may create fields for the given kind of object. An IndexItem which
+     * only reads another kind's system metadata (for example, /sysMeta/folder/name for an object) does not.
+     */
+    static List<IndexItem> select(Collection<IndexItem> items, String element) {
+        List<IndexItem> selected = new ArrayList<IndexItem>();
+        for (IndexItem item : items) {
+            String path = item.getSearchString().trim();
+            if (item.getForContent() || item.getForMetadata() || !path.startsWith("/sysMeta/")
+                    || path.startsWith("/sysMeta/" + element)) {
+                selected.add(item);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @param items the changed IndexItems of one kind of object
+     * @return the ChangeScope of their IndexJobs: the content is read again only if one of the IndexItems
+     * reads it. Without content, METADATA rebuilds the fields of metadata and system metadata IndexItems,
+     * and the stored content fields are reused (see LuceneBridge.createDocument).
+     */
+    static ChangeScope scopeOf(List<IndexItem> items) {
+        ChangeScope scope = ChangeScope.SYSMETA;
+        for (IndexItem item : items) {
+            if (item.getForContent()) {
+                return ChangeScope.ALL;
+            }
+            if (item.getForMetadata()) {
+                scope = ChangeScope.METADATA;
+            }
+        }
+        return scope;
+    }
+
+    /**
+     * @return true if the condition of one of the IndexItems cannot be narrowed, so it may match any object.
+     */
+    static Boolean matchesAll(List<IndexItem> items) {
+        for (IndexItem item : items) {
+            if (!canNarrow(item)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * IndexItem.checkCondition evaluates the searchCondition on the content, the metadata and the system
+     * metadata of an object. The condition can be narrowed to the objects whose metadata or system metadata
+     * fulfil it if its result on the content is known without reading the content:
+     * <ul>
+     * <li>All location paths which start at the document must start with the root element of the metadata
+     * (meta) or of the system metadata (sysMeta), so they select no nodes of the content (unless the root
+     * element of the content is called meta or sysMeta, too).</li>
+     * <li>It must not use the document node itself, for example by string() or id().</li>
+     * <li>It must be false for a document without these elements: not(/sysMeta/object/format) is true
+     * for every content.</li>
+     * </ul>
+     *
+     * @param item an IndexItem
+     * @return true if the objects which the IndexItem's condition may match can be found without their content.
+     */
+    static Boolean canNarrow(IndexItem item) {
+        CompiledXPath condition;
+        try {
+            condition = item.fetchCompiledSearchCondition();
+        } catch (Exception e) {
+            // an invalid condition is never true.
+            return true;
+        }
+        if (condition.isAlwaysTrue()) {
+            return false;
+        }
+        try {
+            if (!isContentIndependent(new Dom4jXPath(condition.getExpression()).getRootExpr(), false)) {
+                return false;
+            }
+        } catch (JaxenException e) {
+            return true;
+        }
+        ContentContainer[] content = {new ContentContainer("<empty />".getBytes())};
+        return !item.checkCondition(content);
+    }
+
+    /**
+     * @param expr   a part of an XPath expression
+     * @param nested false if the context node of the expression is the document, true if it is
+     *               a node which was selected by a location path (as in a predicate).
+     * @return true if the expression reads no nodes of a document except those below a meta
+     * or sysMeta root element.
+     */
+    static Boolean isContentIndependent(Object expr, Boolean nested) {
+        if (expr instanceof LocationPath) {
+            LocationPath path = (LocationPath) expr;
+            List<?> steps = path.getSteps();
+            if (path.isAbsolute() || !nested) {
+                if (steps.isEmpty()) {
+                    return false;
+                }
+                Step first = (Step) steps.get(0);
+                if (first.getAxis() != Axis.CHILD || !(first instanceof NameStep)
+                        || !METADATA_ROOTS.contains(((NameStep) first).getLocalName())) {
+                    return false;
+                }
+            }
+            for (Object step : steps) {
+                if (!arePredicatesContentIndependent(((Step) step).getPredicates())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (expr instanceof PathExpr) {
+            PathExpr path = (PathExpr) expr;
+            if (path.getFilterExpr() == null) {
+                return isContentIndependent(path.getLocationPath(), nested);
+            }
+            return isContentIndependent(path.getFilterExpr(), nested)
+                    && (path.getLocationPath() == null || isContentIndependent(path.getLocationPath(), true));
+        }
+        if (expr instanceof FilterExpr) {
+            FilterExpr filter = (FilterExpr) expr;
+            return isContentIndependent(filter.getExpr(), nested) && arePredicatesContentIndependent(filter.getPredicates());
+        }
+        if (expr instanceof BinaryExpr) {
+            BinaryExpr binary = (BinaryExpr) expr;
+            return isContentIndependent(binary.getLHS(), nested) && isContentIndependent(binary.getRHS(), nested);
+        }
+        if (expr instanceof UnaryExpr) {
+            return isContentIndependent(((UnaryExpr) expr).getExpr(), nested);
+        }
+        if (expr instanceof FunctionCallExpr) {
+            FunctionCallExpr function = (FunctionCallExpr) expr;
+            String name = function.getFunctionName();
+            if ((function.getPrefix() != null && function.getPrefix().length() > 0) || name.equals("id")) {
+                // extension functions may do anything, id() searches the whole document.
+                return false;
+            }
+            if (function.getParameters().isEmpty()) {
+                return nested || CONSTANT_FUNCTIONS.contains(name);
+            }
+            for (Object parameter : function.getParameters()) {
+                if (!isContentIndependent(parameter, nested)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return expr instanceof LiteralExpr || expr instanceof NumberExpr;
+    }
+
+    static Boolean arePredicatesContentIndependent(List<?> predicates) {
+        for (Object predicate : predicates) {
+            if (!isContentIndependent(((Predicate) predicate).getExpr(), true)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String describe(Collection<IndexItem> items) {
+        List<String> names = new ArrayList<String>(items.size());
+        for (IndexItem item : items) {
+            names.add(item.getName());
+        }
+        return names.toString();
+    }
+}
@@ -0,0 +1,87 @@
+package server.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An immutable copy of the IndexItems of a repository, together with the digest of their descriptions and
+ * the items digest of the Fingerprint, which covers only the content-only IndexItems. The LuceneBridge replaces its snapshot as a whole when the IndexItems are reloaded, and reads it
+ * once per document, so a document is always created by one consistent set of IndexItems, even if
+ * the IndexItems are reloaded while it is being indexed.
+ * <p>The IndexItems of a snapshot must not be changed; a reload creates a new snapshot with
+ * new IndexItem objects.</p>
+ */
+public class IndexItemSnapshot {
+
+    final List<IndexItem> items;
+    /**
+     * The description of each IndexItem (see LuceneBridge.describe), in the same order as the items.
+     */
+    final List<String> descriptions;
+    final String digest;
+    final String contentDigest;
+
+    /**
+     * @param items               the IndexItems
+     * @param descriptions        the description of each IndexItem, in the same order as the items.
+     * @param contentDescriptions the descriptions of the content-only IndexItems (see LuceneBridge.isContentOnly).
+     */
+    IndexItemSnapshot(List<IndexItem> items, List<String> descriptions, List<String> contentDescriptions) {
+        this.items = Collections.unmodifiableList(new ArrayList<IndexItem>(items));
+        this.descriptions = Collections.unmodifiableList(new ArrayList<String>(descriptions));
+        this.digest = Fingerprint.digestItems(descriptions);
+        this.contentDigest = Fingerprint.digestItems(contentDescriptions);
+    }
+
+    public List<IndexItem> getItems() {
+        return items;
+    }
+
+    /**
+     * @return the digest of all IndexItems, which changes whenever one of them is added, changed or removed.
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    /**
+     * @return the items digest of the Fingerprint: the digest of the content-only IndexItems, whose fields
+     * are reused while it and the content are unchanged. The other IndexItems run for every document,
+     * and their output is covered by the fields digest.
+     */
+    public String getContentDigest() {
+        return contentDigest;
+    }
+
+    /**
+     * Compare this snapshot with a newer one. The descriptions contain the id of the IndexItem,
+     * so an IndexItem whose description is missing in the other snapshot was added, changed or removed.
+     *
+     * @param newer the snapshot which replaces this one.
+     * @return the IndexItems which were added or changed (in their new version) and those which were
+     * changed or removed (in their old version). A changed IndexItem is returned twice, as both
+     * versions may have created fields of the same objects.
+     */
+    public List<IndexItem> findChanges(IndexItemSnapshot newer) {
+        List<IndexItem> changes = new ArrayList<IndexItem>();
+        if (digest.equals(newer.digest)) {
+            return changes;
+        }
+        Set<String> known = new HashSet<String>(descriptions);
+        for (int i = 0; i < newer.items.size(); i++) {
+            if (!known.contains(newer.descriptions.get(i))) {
+                changes.add(newer.items.get(i));
+            }
+        }
+        Set<String> current = new HashSet<String>(newer.descriptions);
+        for (int i = 0; i < items.size(); i++) {
+            if (!current.contains(descriptions.get(i))) {
+                changes.add(items.get(i));
+            }
+        }
+        return changes;
+    }
+}
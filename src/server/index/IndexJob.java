@@ -38,13 +38,32 @@ public class IndexJob implements Serializable {
             nullable = false)
     Boolean failed = false;
 
+    /**
+     * The part of the object which was changed. Null (for jobs created before this column existed) means ALL.
+     */
+    @Column(name = "change_scope")
+    @Enumerated(EnumType.STRING)
+    ChangeScope changeScope = ChangeScope.ALL;
+
+    /**
+     * Set if the object must be indexed again in a later run (see LuceneBridge.retryLater).
+     * The IndexBatch does not delete such a job.
+     */
+    @Transient
+    transient Boolean retry = false;
+
     public IndexJob() {
 
     }
 
     public IndexJob(Indexable indexable){
+        this(indexable, ChangeScope.ALL);
+    }
+
+    public IndexJob(Indexable indexable, ChangeScope changeScope){
         this.indexableClass = indexable.getClass();
         this.indexableId = indexable.myId();
+        this.changeScope = changeScope;
     }
 
     public long getId() {
@@ -79,6 +98,14 @@ public class IndexJob implements Serializable {
         this.failed = failed;
     }
 
+    public ChangeScope getChangeScope() {
+        return changeScope == null ? ChangeScope.ALL : changeScope;
+    }
+
+    public void setChangeScope(ChangeScope changeScope) {
+        this.changeScope = changeScope;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
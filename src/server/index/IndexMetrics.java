@@ -0,0 +1,341 @@
+package server.index;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import server.dao.IndexJobDAO;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms of the indexer of one repository, exposed via JMX
+ * (see IndexMetricsMXBean). The LuceneBridge, IndexPipeline and IndexServer record into it;
+ * all record methods are thread safe and cheap enough to be called for every document.
+ */
+public class IndexMetrics implements IndexMetricsMXBean {
+
+    transient Logger log = LoggerFactory.getLogger(this.getClass());
+
+    final LuceneBridge lucene;
+    ObjectName objectName;
+
+    final LatencyHistogram load = new LatencyHistogram();
+    final LatencyHistogram content = new LatencyHistogram();
+    final LatencyHistogram xpath = new LatencyHistogram();
+    final LatencyHistogram addDocument = new LatencyHistogram();
+    final LatencyHistogram commit = new LatencyHistogram();
+    final ConcurrentMap<String, LatencyHistogram> indexItems = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    final AtomicLong indexed = new AtomicLong();
+    final AtomicLong unchanged = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    final Rate rate = new Rate(60);
+    /**
+     * Documents written by an IndexRebuild, which are counted apart from the live index's throughput.
+     */
+    final AtomicLong rebuilt = new AtomicLong();
+    final Rate rebuildRate = new Rate(60);
+
+    volatile Map<String, Long> pendingJobs = Collections.emptyMap();
+    volatile Map<String, Long> failedJobs = Collections.emptyMap();
+    volatile Long oldestPendingSince = 0L;
+
+    /**
+     * (highest IndexJob id, time when it was first seen) of the last IndexServer runs, oldest first,
+     * to estimate how long the oldest pending job has been waiting.
+     */
+    final Deque<long[]> jobSightings = new ArrayDeque<long[]>();
+
+    public IndexMetrics(LuceneBridge lucene) {
+        this.lucene = lucene;
+    }
+
+    /**
+     * Register this object with the platform MBeanServer. Failures are logged, as metrics are optional.
+     *
+     * @param repository the name of the repository
+     */
+    public void register(String repository) {
+        try {
+            objectName = new ObjectName("server.index:type=IndexMetrics,repository=" + ObjectName.quote(repository));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            log.warn("Failed to register the index metrics of " + repository + " with JMX:", e);
+            objectName = null;
+        }
+    }
+
+    public void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            log.debug("Failed to unregister " + objectName + ":", e);
+        }
+        objectName = null;
+    }
+
+    void recordIndexItem(IndexItem item, long nanos) {
+        String name = item.getName();
+        LatencyHistogram histogram = indexItems.get(name);
+        if (histogram == null) {
+            indexItems.putIfAbsent(name, new LatencyHistogram());
+            histogram = indexItems.get(name);
+        }
+        histogram.record(nanos);
+    }
+
+    void documentIndexed() {
+        indexed.incrementAndGet();
+        rate.mark();
+    }
+
+    /**
+     * Record a document which an IndexRebuild added to its new index.
+     */
+    void documentRebuilt() {
+        rebuilt.incrementAndGet();
+        rebuildRate.mark();
+    }
+
+    void documentUnchanged() {
+        unchanged.incrementAndGet();
+    }
+
+    void documentFailed() {
+        failed.incrementAndGet();
+    }
+
+    /**
+     * Refresh the IndexJob counts. Called by the IndexServer after each run, on its own thread and
+     * EntityManager, so JMX clients never cause database queries.
+     *
+     * @param jobDao the IndexJobDAO of the IndexServer
+     */
+    public void updateJobs(IndexJobDAO jobDao) {
+        pendingJobs = toNames(jobDao.countByClass(false));
+        failedJobs = toNames(jobDao.countByClass(true));
+        Long oldest = jobDao.findOldestPendingId();
+        Long newest = jobDao.findNewestId();
+        long now = System.currentTimeMillis();
+        synchronized (jobSightings) {
+            if (newest != null && (jobSightings.isEmpty() || jobSightings.peekLast()[0] < newest)) {
+                jobSightings.addLast(new long[]{newest, now});
+            }
+            // forget sightings of jobs which are all done, except the one which covers the oldest pending job.
+            while (jobSightings.size() > 1 && (oldest == null || jobSightings.peekFirst()[0] < oldest)) {
+                jobSightings.removeFirst();
+            }
+            oldestPendingSince = oldest == null || jobSightings.isEmpty() ? 0L : jobSightings.peekFirst()[1];
+        }
+    }
+
+    static Map<String, Long> toNames(Map<Class<? extends Indexable>, Long> counts) {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<Class<? extends Indexable>, Long> entry : counts.entrySet()) {
+            result.put(entry.getKey().getSimpleName(), entry.getValue());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getPendingJobs() {
+        return pendingJobs;
+    }
+
+    @Override
+    public Map<String, Long> getFailedJobs() {
+        return failedJobs;
+    }
+
+    @Override
+    public long getOldestPendingJobAgeMillis() {
+        long since = oldestPendingSince;
+        return since == 0 ? 0 : System.currentTimeMillis() - since;
+    }
+
+    @Override
+    public long getSearcherStalenessMillis() {
+        return lucene.getSearcherProvider().getStaleness();
+    }
+
+    @Override
+    public double getDocumentsPerSecond() {
+        return rate.perSecond();
+    }
+
+    @Override
+    public long getDocumentsIndexed() {
+        return indexed.get();
+    }
+
+    @Override
+    public double getRebuildDocumentsPerSecond() {
+        return rebuildRate.perSecond();
+    }
+
+    @Override
+    public long getDocumentsRebuilt() {
+        return rebuilt.get();
+    }
+
+    @Override
+    public long getDocumentsUnchanged() {
+        return unchanged.get();
+    }
+
+    @Override
+    public long getDocumentsFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public LatencySnapshot getLoadTime() {
+        return load.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getContentTime() {
+        return content.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getXPathTime() {
+        return xpath.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getAddDocumentTime() {
+        return addDocument.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getCommitTime() {
+        return commit.snapshot();
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getIndexItemTime() {
+        Map<String, LatencySnapshot> result = new HashMap<String, LatencySnapshot>();
+        for (Map.Entry<String, LatencyHistogram> entry : indexItems.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return result;
+    }
+
+    @Override
+    public double getResultCacheHitRate() {
+        return lucene.getResultCache().getHitRate();
+    }
+
+    @Override
+    public long getResultCacheHits() {
+        return lucene.getResultCache().getHits();
+    }
+
+    @Override
+    public long getResultCacheMisses() {
+        return lucene.getResultCache().getMisses();
+    }
+
+    @Override
+    public long getResultCacheEvictions() {
+        return lucene.getResultCache().getEvictions();
+    }
+
+    @Override
+    public int getResultCacheEntries() {
+        return lucene.getResultCache().size();
+    }
+
+    @Override
+    public long getResultCacheBytes() {
+        return lucene.getResultCache().getBytes();
+    }
+
+    @Override
+    public void reset() {
+        load.reset();
+        content.reset();
+        xpath.reset();
+        addDocument.reset();
+        commit.reset();
+        indexItems.clear();
+        indexed.set(0);
+        rebuilt.set(0);
+        unchanged.set(0);
+        failed.set(0);
+        lucene.getResultCache().resetStatistics();
+    }
+
+    /**
+     * Counts events in one-second slots over a sliding window.
+     * <p>Each slot is a single long which holds both the second it counts (in the upper bits) and the count
+     * (in the lower COUNT_BITS bits), so moving a slot to a new second and counting are one atomic update:
+     * an increment can never be lost to the reset of a slot by another thread.</p>
+     */
+    static class Rate {
+        static final int COUNT_BITS = 24;
+        static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+        final int seconds;
+        final AtomicLongArray slots;
+
+        Rate(int seconds) {
+            this.seconds = seconds;
+            slots = new AtomicLongArray(seconds);
+        }
+
+        void mark() {
+            long second = System.currentTimeMillis() / 1000;
+            int slot = (int) (second % seconds);
+            while (true) {
+                long value = slots.get(slot);
+                if (value >>> COUNT_BITS == second) {
+                    if ((value & COUNT_MASK) == COUNT_MASK) {
+                        // the count is saturated (more than 16 million events in one second).
+                        return;
+                    }
+                    if (slots.compareAndSet(slot, value, value + 1)) {
+                        return;
+                    }
+                } else if (slots.compareAndSet(slot, value, (second << COUNT_BITS) | 1)) {
+                    // this slot last counted a second which is out of the window.
+                    return;
+                }
+            }
+        }
+
+        double perSecond() {
+            long now = System.currentTimeMillis() / 1000;
+            long sum = 0;
+            for (int i = 0; i < seconds; i++) {
+                long value = slots.get(i);
+                // the current second is not complete, so it is left out.
+                long age = now - (value >>> COUNT_BITS);
+                if (age > 0 && age <= seconds) {
+                    sum += value & COUNT_MASK;
+                }
+            }
+            return sum / (double) seconds;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package server.index;
+
+import java.util.Map;
+
+/**
+ * The JMX view of IndexMetrics, registered as server.index:type=IndexMetrics,repository=$repository.
+ * Job counts are refreshed by the IndexServer after each run; everything else is live.
+ */
+public interface IndexMetricsMXBean {
+
+    /**
+     * @return the number of IndexJobs waiting to be processed, by indexable class.
+     */
+    Map<String, Long> getPendingJobs();
+
+    /**
+     * @return the number of failed IndexJobs (which will not be retried), by indexable class.
+     */
+    Map<String, Long> getFailedJobs();
+
+    /**
+     * @return the approximate age of the oldest pending IndexJob in milliseconds (accurate to one
+     * IndexServer run), or 0 if there is none.
+     */
+    long getOldestPendingJobAgeMillis();
+
+    /**
+     * @return milliseconds since the oldest index change which searches do not see yet, or 0.
+     */
+    long getSearcherStalenessMillis();
+
+    /**
+     * @return the number of documents written to the live index per second, averaged over the last minute.
+     */
+    double getDocumentsPerSecond();
+
+    long getDocumentsIndexed();
+
+    /**
+     * @return the number of documents an IndexRebuild wrote per second, averaged over the last minute.
+     * They are not part of getDocumentsPerSecond.
+     */
+    double getRebuildDocumentsPerSecond();
+
+    long getDocumentsRebuilt();
+
+    /**
+     * @return the number of documents which were up to date and not re-indexed (see Fingerprint).
+     */
+    long getDocumentsUnchanged();
+
+    long getDocumentsFailed();
+
+    /**
+     * @return time per document to load the object, its metadata and system metadata from the database.
+     */
+    LatencySnapshot getLoadTime();
+
+    /**
+     * @return time per document to read and parse the content (including text extraction).
+     */
+    LatencySnapshot getContentTime();
+
+    /**
+     * @return time per document to run all IndexItems.
+     */
+    LatencySnapshot getXPathTime();
+
+    /**
+     * @return time per document to hand the document to the IndexWriter.
+     */
+    LatencySnapshot getAddDocumentTime();
+
+    LatencySnapshot getCommitTime();
+
+    /**
+     * @return time per document of each IndexItem, by IndexItem name.
+     */
+    Map<String, LatencySnapshot> getIndexItemTime();
+
+    /**
+     * @return the share of searches whose hits were taken from the ResultCache (0 to 1).
+     */
+    double getResultCacheHitRate();
+
+    long getResultCacheHits();
+
+    long getResultCacheMisses();
+
+    long getResultCacheEvictions();
+
+    int getResultCacheEntries();
+
+    /**
+     * @return the estimated heap size of the ResultCache in bytes.
+     */
+    long getResultCacheBytes();
+
+    /**
+     * Reset all counters and histograms (but not the job counts).
+     */
+    void reset();
+}
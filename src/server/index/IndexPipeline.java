@@ -0,0 +1,388 @@
+package server.index;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import server.exceptions.CinnamonException;
+import utils.HibernateSession;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The IndexPipeline spreads the CPU heavy part of indexing over a pool of worker threads:
+ * <ol>
+ * <li>The IndexServer thread loads the objects from the database, collects their
+ * metadata and system metadata and opens their content stream (see LuceneBridge.loadIndexData).</li>
+ * <li>A worker parses the XML and runs the IndexItems to build the Lucene document.</li>
+ * <li>The worker hands the document to the LuceneBridge's IndexWriter, which is thread safe.</li>
+ * </ol>
+ * <p>At most queueCapacity objects are loaded but not yet indexed. If the workers fall behind, the
+ * IndexServer thread waits for them before loading the next object, so the pipeline never holds more
+ * than queueCapacity documents in memory.</p>
+ * <p>Finished jobs are handed back to the IndexBatch on the IndexServer thread, which owns the EntityManager.
+ * Each worker has its own EntityManager for indexers which need database access (for example the
+ * ParentFolderPathIndexer), which is closed when the worker stops (see shutdown()).</p>
+ * <p>An IndexRebuild uses a pipeline with a writer of its own: the documents are added to the new
+ * index without fingerprint checks, and there is no IndexBatch.</p>
+ * <p>The pipeline measures how long the workers are busy, so getStatistics() can report the
+ * throughput per core, which helps to size the worker pool.</p>
+ */
+public class IndexPipeline {
+
+    transient Logger log = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * Seconds shutdown() waits for the workers to finish their current document.
+     */
+    static final long SHUTDOWN_TIMEOUT = 60;
+
+    final LuceneBridge lucene;
+    final IndexWriter writer;
+    final Integer workers;
+    final Integer queueCapacity;
+    final ExecutorService executor;
+    final CompletionService<Result> completionService;
+
+    /**
+     * Number of submitted objects whose result has not been collected yet.
+     * Only accessed by the thread which feeds the pipeline.
+     */
+    int inFlight = 0;
+
+    final AtomicLong documents = new AtomicLong();
+    /**
+     * Number of documents which could not be built or added. Only accessed by the thread which feeds the pipeline.
+     */
+    long failures = 0;
+    /**
+     * Without an IndexBatch, the jobs of the failed documents are collected here (see IndexRebuild).
+     */
+    final List<IndexJob> failedJobs = new ArrayList<IndexJob>();
+    final AtomicLong workerNanos = new AtomicLong();
+    long loadNanos = 0;
+    long startTime = System.nanoTime();
+
+    /**
+     * @param lucene           the LuceneBridge whose IndexWriter receives the documents.
+     * @param workers          number of worker threads which build documents.
+     * @param queueCapacity    maximum number of objects which have been loaded but not yet indexed.
+     * @param hibernateSession used to create an EntityManager for each worker thread.
+     */
+    public IndexPipeline(LuceneBridge lucene, Integer workers, Integer queueCapacity,
+                         final HibernateSession hibernateSession) {
+        this(lucene, workers, queueCapacity, hibernateSession, null);
+    }
+
+    /**
+     * @param lucene           the LuceneBridge which creates the documents.
+     * @param workers          number of worker threads which build documents.
+     * @param queueCapacity    maximum number of objects which have been loaded but not yet indexed.
+     * @param hibernateSession used to create an EntityManager for each worker thread.
+     * @param writer           if not null, documents are added to this IndexWriter instead of the bridge's.
+     */
+    public IndexPipeline(LuceneBridge lucene, Integer workers, Integer queueCapacity,
+                         final HibernateSession hibernateSession, IndexWriter writer) {
+        this.lucene = lucene;
+        this.writer = writer;
+        this.workers = workers;
+        this.queueCapacity = queueCapacity;
+        final String name = "IndexWorker-" + lucene.getRepository() + "-";
+        executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+            final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        EntityManager em = hibernateSession.getEntityManager();
+                        HibernateSession.setLocalEntityManager(em);
+                        try {
+                            runnable.run();
+                        } finally {
+                            // the worker is stopped by shutdown().
+                            if (em.isOpen()) {
+                                em.close();
+                            }
+                        }
+                    }
+                }, name + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        completionService = new ExecutorCompletionService<Result>(executor);
+    }
+
+    /**
+     * Load the given object and submit it to the worker pool. Blocks while the pipeline is full.
+     * Must be called from the thread which owns the object's EntityManager.
+     *
+     * @param indexableObj the object to (re-)index
+     * @param job          the IndexJob which requested the update. May be null.
+     * @param batch        the IndexBatch which will receive the job after the document has been indexed.
+     *                     May be null if the pipeline has a writer of its own.
+     */
+    public void update(Indexable indexableObj, final IndexJob job, IndexBatch batch) {
+        update(indexableObj, job, job == null ? ChangeScope.ALL : job.getChangeScope(), batch);
+    }
+
+    /**
+     * Load the given object, of which only a part was changed, and submit it to the worker pool.
+     *
+     * @param indexableObj the object to (re-)index
+     * @param job          the IndexJob which requested the update. May be null.
+     * @param scope        the part of the object which was changed (see ChangeScope).
+     * @param batch        the IndexBatch which will receive the job, or null.
+     */
+    public void update(Indexable indexableObj, final IndexJob job, ChangeScope scope, IndexBatch batch) {
+        long start = System.nanoTime();
+        Indexable indexable = indexableObj.reload();
+        if (indexable == null) {
+            log.debug("Indexable Object " + indexableObj.uniqueId() + " no longer exists in the database.");
+            if (batch != null) {
+                batch.remove(indexableObj, job);
+            }
+            return;
+        }
+        if (writer == null) {
+            lucene.recordChange(indexable);
+        }
+        final IndexData data = lucene.loadIndexData(indexable, true, scope);
+        long loaded = System.nanoTime() - start;
+        loadNanos += loaded;
+        lucene.getMetrics().load.record(loaded);
+
+        while (inFlight >= queueCapacity) {
+            collect(batch);
+        }
+        completionService.submit(new Callable<Result>() {
+            @Override
+            public Result call() {
+                return buildDocument(data, job);
+            }
+        });
+        inFlight++;
+        collectFinished(batch);
+    }
+
+    Result buildDocument(IndexData data, IndexJob job) {
+        long start = System.nanoTime();
+        try {
+            if (writer != null) {
+                Document doc = lucene.createDocument(data);
+                long added = System.nanoTime();
+                writer.addDocument(doc);
+                lucene.getMetrics().addDocument.record(System.nanoTime() - added);
+                lucene.getMetrics().documentRebuilt();
+                return new Result(job, data.getUniqueId(), null, true);
+            }
+            Document doc = lucene.createDocument(data, lucene.findIndexedDocument(data));
+            if (doc == null) {
+                // the indexed document is up to date.
+                return new Result(job, data.getUniqueId(), null, false);
+            }
+            Result result = new Result(job, data.getUniqueId(), null, true);
+            result.writerGeneration = lucene.getWriterGeneration();
+            lucene.stageDocument(data.getUniqueId(), doc);
+            if (job != null) {
+                // read by the feeding thread after Future.get().
+                job.retry = lucene.retryLater(data);
+            }
+            return result;
+        } catch (Exception e) {
+            return new Result(job, data.getUniqueId(), e, false);
+        } finally {
+            data.getContent().close();
+            EntityManager em = HibernateSession.getLocalEntityManager();
+            if (em != null && em.isOpen()) {
+                em.clear();
+            }
+            documents.incrementAndGet();
+            workerNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Wait until all submitted objects have been indexed and hand their jobs to the batch.
+     *
+     * @param batch the IndexBatch which receives the finished jobs, or null.
+     */
+    public void finish(IndexBatch batch) {
+        while (inFlight > 0) {
+            collect(batch);
+        }
+    }
+
+    /**
+     * Wait until all submitted objects have been processed and drop their results, after the run which
+     * submitted them failed. Their IndexJobs were not deleted, so the next run processes them again.
+     */
+    public void discard() {
+        while (inFlight > 0) {
+            try {
+                completionService.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CinnamonException("error.interrupted_while_waiting_for_index_workers", e);
+            }
+            inFlight--;
+        }
+    }
+
+    void collectFinished(IndexBatch batch) {
+        Future<Result> future;
+        while ((future = completionService.poll()) != null) {
+            handle(future, batch);
+        }
+    }
+
+    void collect(IndexBatch batch) {
+        try {
+            handle(completionService.take(), batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CinnamonException("error.interrupted_while_waiting_for_index_workers", e);
+        }
+    }
+
+    void handle(Future<Result> future, IndexBatch batch) {
+        inFlight--;
+        Result result;
+        try {
+            result = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CinnamonException("error.interrupted_while_waiting_for_index_workers", e);
+        } catch (ExecutionException e) {
+            // buildDocument catches all exceptions, so this is an Error.
+            throw new CinnamonException("error.index_worker_failed", e.getCause());
+        }
+        handle(result, batch);
+    }
+
+    void handle(Result result, IndexBatch batch) {
+        if (result.error != null) {
+            failures++;
+            if (writer != null) {
+                // a rebuild has no IndexJob which records the failure.
+                log.warn("indexing of " + result.uniqueId + " failed with:", result.error);
+            } else {
+                log.debug("indexing of " + result.uniqueId + " failed with:", result.error);
+            }
+            lucene.getMetrics().documentFailed();
+            if (result.job != null) {
+                result.job.setFailed(true);
+                if (batch == null) {
+                    failedJobs.add(result.job);
+                }
+            }
+        } else if (batch == null) {
+            return;
+        } else if (result.changed) {
+            batch.changed(result.job, result.writerGeneration);
+        } else {
+            batch.unchanged(result.job);
+        }
+    }
+
+    /**
+     * Record an object whose document could not be submitted, for example because its content could not be read,
+     * like a document which failed in a worker.
+     *
+     * @param uniqueId the object's uniqueId
+     * @param job      the IndexJob of the object, or null.
+     * @param error    the reason
+     */
+    public void failed(String uniqueId, IndexJob job, Exception error) {
+        handle(new Result(job, uniqueId, error, false), null);
+    }
+
+    /**
+     * @return a summary of the pipeline's throughput since the last call of resetStatistics().
+     */
+    public String getStatistics() {
+        long docs = documents.get();
+        double wallSeconds = (System.nanoTime() - startTime) / 1e9;
+        double busySeconds = workerNanos.get() / 1e9;
+        return String.format("IndexPipeline: %d documents (%d failed) in %.2f s (%.1f docs/s); "
+                + "%.1f docs per busy worker second, %d workers at %.0f%% utilization; %.2f s spent loading.",
+                docs, failures, wallSeconds, wallSeconds > 0 ? docs / wallSeconds : 0,
+                busySeconds > 0 ? docs / busySeconds : 0, workers,
+                wallSeconds > 0 ? 100 * busySeconds / (wallSeconds * workers) : 0, loadNanos / 1e9);
+    }
+
+    public Long getDocumentCount() {
+        return documents.get();
+    }
+
+    /**
+     * @return the number of documents which could not be built or added since the last call of resetStatistics().
+     */
+    public Long getFailureCount() {
+        return failures;
+    }
+
+    /**
+     * @return the jobs of the failed documents which were submitted without an IndexBatch, marked as failed.
+     */
+    public List<IndexJob> getFailedJobs() {
+        return failedJobs;
+    }
+
+    public void resetStatistics() {
+        documents.set(0);
+        failures = 0;
+        workerNanos.set(0);
+        loadNanos = 0;
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Stop the worker threads and wait until they have closed their EntityManagers.
+     * Objects which are still in the pipeline are not indexed.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                log.warn(String.format("The IndexWorkers of %s did not stop within %d seconds.",
+                        lucene.getRepository(), SHUTDOWN_TIMEOUT));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static class Result {
+        final IndexJob job;
+        final String uniqueId;
+        final Exception error;
+        final Boolean changed;
+        /**
+         * The writer generation before the document was staged (see IndexBatch.changed).
+         */
+        Long writerGeneration = 0L;
+
+        Result(IndexJob job, String uniqueId, Exception error, Boolean changed) {
+            this.job = job;
+            this.uniqueId = uniqueId;
+            this.error = error;
+            this.changed = changed;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package server.index;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import server.Folder;
+import server.dao.DAOFactory;
+import server.dao.FolderDAO;
+import server.dao.IndexJobDAO;
+import server.dao.ObjectSystemDataDAO;
+import server.data.ObjectSystemData;
+import server.exceptions.CinnamonException;
+import utils.HibernateSession;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Builds a complete new index for a repository and swaps it in for the live index, as an alternative
+ * to FolderDAO.prepareReIndex(), which creates one IndexJob per object.
+ * <p>All ObjectSystemData and Folder objects are read page by page (ordered by id) and indexed by an
+ * IndexPipeline into a dedicated IndexWriter on a new index folder. This writer uses a large RAM buffer
+ * (lucene.properties: rebuildRamBufferSize, in MB) and commits only once, at the end.
+ * Searches and the IndexServer keep using the live index in the meantime.</p>
+ * <p>When the new index is complete, LuceneBridge.swapIndex replaces the live index with it. Every object
+ * which was changed in the live index while the rebuild was running may be outdated in the new index, so
+ * an IndexJob is created for each of these objects and the IndexServer replays the changes.</p>
+ * <p>Objects whose document could not be built are logged and queued as IndexJobs, too. If there are more
+ * than rebuildMaxFailures of them, the new index is discarded and the live index stays in use.</p>
+ * <p>Usage: new IndexRebuild(lucene, hibernateSession).run(), preferably in a thread of its own
+ * (see IndexServer.startRebuild()).</p>
+ */
+public class IndexRebuild implements Runnable {
+
+    transient Logger log = LoggerFactory.getLogger(this.getClass());
+    static DAOFactory daoFactory = DAOFactory.instance(DAOFactory.HIBERNATE);
+
+    final LuceneBridge lucene;
+    final HibernateSession hibernateSession;
+    final Integer workers;
+    final Integer pageSize;
+    final Double ramBufferSize;
+    /**
+     * If more documents fail, the rebuilt index is discarded instead of swapped in.
+     */
+    final Integer maxFailures;
+
+    /**
+     * Objects changed in the live index during the rebuild, by uniqueId.
+     */
+    final ConcurrentMap<String, IndexJob> changes = new ConcurrentHashMap<String, IndexJob>();
+
+    /**
+     * Number of objects submitted to the pipeline; the failed ones are subtracted at the end.
+     */
+    Long documents = 0L;
+
+    /**
+     * @param lucene           the bridge whose index will be replaced.
+     * @param hibernateSession used to create the EntityManagers of the rebuild thread and its workers.
+     */
+    public IndexRebuild(LuceneBridge lucene, HibernateSession hibernateSession) {
+        this.lucene = lucene;
+        this.hibernateSession = hibernateSession;
+        workers = Integer.parseInt(LuceneBridge.luceneProperties.getProperty("rebuildWorkers",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        pageSize = Integer.parseInt(LuceneBridge.luceneProperties.getProperty("rebuildPageSize", "500"));
+        ramBufferSize = Double.parseDouble(LuceneBridge.luceneProperties.getProperty("rebuildRamBufferSize", "256"));
+        maxFailures = Integer.parseInt(LuceneBridge.luceneProperties.getProperty("rebuildMaxFailures", "100"));
+    }
+
+    /**
+     * Record that an object was changed in the live index. Called by the LuceneBridge while this rebuild is running.
+     *
+     * @param indexable the changed (or removed) object
+     */
+    void changed(Indexable indexable) {
+        IndexJob job = new IndexJob();
+        job.setIndexableClass(indexable.getClass());
+        job.setIndexableId(indexable.myId());
+        changes.put(indexable.uniqueId(), job);
+    }
+
+    @Override
+    public void run() {
+        if (!lucene.beginRebuild(this)) {
+            log.warn("A rebuild of the index for " + lucene.getRepository() + " is already running.");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        File folder = lucene.createRebuildFolder();
+        log.info("Rebuilding the index for " + lucene.getRepository() + " in " + folder.getAbsolutePath());
+        EntityManager em = hibernateSession.getEntityManager();
+        HibernateSession.setLocalEntityManager(em);
+        Directory dir = null;
+        Boolean swapped = false;
+        try {
+            dir = lucene.createDirectory(folder);
+            IndexWriter writer = lucene.createRebuildWriter(dir, ramBufferSize);
+            IndexPipeline pipeline = new IndexPipeline(lucene, workers, 4 * workers, hibernateSession, writer);
+            List<IndexJob> failed;
+            try {
+                indexOSDs(em, pipeline);
+                indexFolders(em, pipeline);
+                pipeline.finish(null);
+                log.info(pipeline.getStatistics());
+                failed = new ArrayList<IndexJob>(pipeline.getFailedJobs());
+                if (failed.size() > maxFailures) {
+                    log.error(String.format("Rebuilding the index for %s failed for %d documents (rebuildMaxFailures: %d). "
+                            + "The rebuilt index is discarded, the live index stays in use.",
+                            lucene.getRepository(), failed.size(), maxFailures));
+                    return;
+                }
+                writer.commit();
+            } finally {
+                // waits for the workers, which close their EntityManagers.
+                pipeline.shutdown();
+                writer.close();
+            }
+            documents -= failed.size();
+            Collection<IndexJob> replay = lucene.swapIndex(this, folder, dir);
+            swapped = true;
+            if (!failed.isEmpty()) {
+                log.warn(String.format("%d documents of %s could not be indexed by the rebuild; they are queued for re-indexing.",
+                        failed.size(), lucene.getRepository()));
+            }
+            log.info(String.format("Rebuilt the index for %s with %d documents (%d failed) in %d s; replaying %d changes.",
+                    lucene.getRepository(), documents, failed.size(), (System.currentTimeMillis() - start) / 1000, replay.size()));
+            for (IndexJob job : failed) {
+                // the IndexServer tries them again and marks them as failed if they fail once more.
+                job.setFailed(false);
+            }
+            List<IndexJob> jobs = new ArrayList<IndexJob>(replay);
+            jobs.addAll(failed);
+            replay(em, jobs);
+        } catch (IOException e) {
+            log.error("Rebuilding the index for " + lucene.getRepository() + " failed:", e);
+            throw new CinnamonException("error.lucene.IO", e);
+        } finally {
+            if (!swapped) {
+                lucene.abortRebuild(this);
+                LuceneBridge.deleteFolder(folder);
+            }
+            if (em.isOpen()) {
+                em.close();
+            }
+        }
+    }
+
+    void indexOSDs(EntityManager em, IndexPipeline pipeline) {
+        ObjectSystemDataDAO oDao = daoFactory.getObjectSystemDataDAO(em);
+        Long lastId = 0L;
+        List<ObjectSystemData> osds;
+        while (!(osds = oDao.findAfterId(lastId, pageSize)).isEmpty()) {
+            for (ObjectSystemData osd : osds) {
+                IndexJob job = new IndexJob(osd);
+                try {
+                    pipeline.update(osd, job, null);
+                } catch (Exception e) {
+                    // for example, a missing content file: one object must not abort the rebuild.
+                    pipeline.failed(osd.uniqueId(), job, e);
+                }
+                lastId = osd.getId();
+            }
+            documents += osds.size();
+            // the documents are built from detached IndexData, so the page may be discarded.
+            em.clear();
+        }
+    }
+
+    void indexFolders(EntityManager em, IndexPipeline pipeline) {
+        FolderDAO fDao = daoFactory.getFolderDAO(em);
+        Long lastId = 0L;
+        List<Folder> folders;
+        while (!(folders = fDao.findAfterId(lastId, pageSize)).isEmpty()) {
+            for (Folder folder : folders) {
+                IndexJob job = new IndexJob(folder);
+                try {
+                    pipeline.update(folder, job, null);
+                } catch (Exception e) {
+                    // for example, a missing content file: one object must not abort the rebuild.
+                    pipeline.failed(folder.uniqueId(), job, e);
+                }
+                lastId = folder.getId();
+            }
+            documents += folders.size();
+            em.clear();
+        }
+    }
+
+    /**
+     * Create an IndexJob for each object which was changed during the rebuild or could not be indexed by it,
+     * so the IndexServer applies the changes to the new index.
+     */
+    void replay(EntityManager em, Collection<IndexJob> jobs) {
+        if (jobs.isEmpty()) {
+            return;
+        }
+        IndexJobDAO jobDao = daoFactory.getIndexJobDAO(em);
+        EntityTransaction et = em.getTransaction();
+        et.begin();
+        try {
+            for (IndexJob job : jobs) {
+                jobDao.makePersistent(job);
+            }
+            et.commit();
+        } catch (RuntimeException e) {
+            log.error("Failed to queue the changes made during the rebuild. Please re-index: " + changes.keySet(), e);
+            throw e;
+        } finally {
+            if (et.isActive()) {
+                et.rollback();
+            }
+        }
+    }
+}
@@ -18,8 +18,12 @@ import utils.HibernateSession;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
@@ -42,7 +46,12 @@ public class IndexServer implements Runnable {
     Long runCounter = 0L;
     Integer itemsPerRun = 50;
     Integer logModulus = 1;
+    Integer indexWorkers = Runtime.getRuntime().availableProcessors();
+    Integer indexQueueCapacity = 4 * indexWorkers;
+    IndexPipeline pipeline;
     Repository repository;
+    Long indexItemReloadInterval = 60000L;
+    Long lastIndexItemReload = System.currentTimeMillis();
 
     public IndexServer(LuceneBridge lucene, Repository repository) {
         /*
@@ -69,6 +78,28 @@ public class IndexServer implements Runnable {
             this.logModulus = Integer.parseInt((String) luceneProperties.get("logModulus"));
         }
 
+        if (!luceneProperties.containsKey("indexWorkers")) {
+            log.info("No indexWorkers-Property found. Using default of " + indexWorkers + " (# of processors).");
+            luceneProperties.setProperty("indexWorkers", String.valueOf(indexWorkers));
+        } else {
+            this.indexWorkers = Integer.parseInt((String) luceneProperties.get("indexWorkers"));
+            this.indexQueueCapacity = 4 * indexWorkers;
+        }
+
+        if (!luceneProperties.containsKey("indexQueueCapacity")) {
+            log.info("No indexQueueCapacity-Property found. Using default of " + indexQueueCapacity + " (4 x indexWorkers).");
+            luceneProperties.setProperty("indexQueueCapacity", String.valueOf(indexQueueCapacity));
+        } else {
+            this.indexQueueCapacity = Integer.parseInt((String) luceneProperties.get("indexQueueCapacity"));
+        }
+
+        if (!luceneProperties.containsKey("indexItemReloadInterval")) {
+            log.info("No indexItemReloadInterval-Property found. Using default of 60000 ms.");
+            luceneProperties.setProperty("indexItemReloadInterval", "60000");
+        } else {
+            this.indexItemReloadInterval = Long.parseLong((String) luceneProperties.get("indexItemReloadInterval"));
+        }
+
         this.lucene = lucene;
         this.repository = repository;
     }
@@ -85,6 +116,8 @@ public class IndexServer implements Runnable {
      * Run every $sleep seconds and at most index $itemsPerRun folders
      * and objects. (If itemsPerRun is set to 10, it will index 10 folders
      * and 10 objects whose index has been invalidated).
+     * All changes of a run are committed to the Lucene index in batches (see IndexBatch),
+     * and the IndexJobs are only deleted after their batch was committed.
      */
     public void run() {
         // initialize LocalMessage:
@@ -103,6 +136,9 @@ public class IndexServer implements Runnable {
         } catch (Exception e) {
             log.warn("", e);
         }
+        if (indexWorkers > 0) {
+            pipeline = new IndexPipeline(lucene, indexWorkers, indexQueueCapacity, hibernateSession);
+        }
 
         while (true) {
             runCounter++;
@@ -123,17 +159,39 @@ public class IndexServer implements Runnable {
             } catch (Exception e) {
                 log.debug("Sleep of IndexServer was interrupted.");
             }
+            reloadIndexItems();
             localDebug(String.format("re-index run starting for %s with %d x2 items.",
                     lucene.getRepository(), itemsPerRun));
             EntityTransaction et = null;
             try {
                 et = em.getTransaction();
                 et.begin();
-                indexOSDs(itemsPerRun);
-                indexFolders(itemsPerRun);
+                lucene.startIndexRun();
+                IndexBatch batch = lucene.createBatch(daoFactory.getIndexJobDAO(em));
+                indexOSDs(itemsPerRun, batch);
+                indexFolders(itemsPerRun, batch);
+                if (pipeline != null) {
+                    pipeline.finish(batch);
+                }
+                batch.commit();
                 et.commit();
+                updateMetrics();
+                if (batch.getUnchangedCount() > 0) {
+                    localDebug(batch.getUnchangedCount() + " objects were already up to date and not re-indexed.");
+                }
             } catch (Throwable e) {
                 log.debug("Exception during indexing: ", e);
+                if (pipeline != null) {
+                    /*
+                     * the results of documents still in flight belong to this run:
+                     * their IndexJobs are detached by em.clear() and must not reach the next run's batch.
+                     */
+                    try {
+                        pipeline.discard();
+                    } catch (Exception de) {
+                        log.error("Failed to discard the documents of the failed run; " + de.getMessage());
+                    }
+                }
                 try {
                     /*
                      *  try to rollback any changes to items,
@@ -147,40 +205,48 @@ public class IndexServer implements Runnable {
                 }
             }
             finally {
+                lucene.finishIndexRun();
                 em.clear();
             }
+            if (pipeline != null && pipeline.getDocumentCount() > 0) {
+                localDebug(pipeline.getStatistics());
+                pipeline.resetStatistics();
+            }
             localDebug("re-index run for " + lucene.getRepository() + " finished.");
         }
     }
 
-    void indexOSDs(Integer items) {
+    void indexOSDs(Integer items, IndexBatch batch) {
         ObjectSystemDataDAO oDao = daoFactory.getObjectSystemDataDAO(em);
-        IndexJobDAO jobDao = daoFactory.getIndexJobDAO(em);
         List<IndexJob> jobs = oDao.findIndexTargets(items);
         localDebug("# of osds to reindex: " + jobs.size());
         Set<Long> seen = new HashSet<>(jobs.size());        
+        Map<Long, ChangeScope> scopes = mergeScopes(jobs);
         for (IndexJob job : jobs) {
             Long id = job.indexableId;
             if(seen.contains(id)){
-                jobDao.delete(job);
+                batch.done(job);
                 continue;
             }
             ObjectSystemData osd = oDao.get(id);
             if(osd == null){
                 localDebug("did not find osd #"+id);
-                jobDao.delete(job);
+                batch.done(job);
                 seen.add(id);
                 continue;
             }
             try {
                 localDebug("indexer working on OSD: " + osd.getId());
-                lucene.updateObjectInIndex(osd);
-                jobDao.delete(job);
+                // persist the merged scope, as the duplicates are deleted even if this job is kept.
+                job.setChangeScope(scopes.get(id));
+                update(osd, job, job.getChangeScope(), batch);
             } catch (Exception e) {
                 log.debug("indexing of object " + osd.getId() + "failed with:", e);
+                lucene.getMetrics().documentFailed();
                 job.failed = true;
             }
             seen.add(id);
+            batch.maybeCommit();
         }
         /* This is the most expensive way to do it.
            * On the other hand, it can handle broken objects and defective index_items
@@ -188,34 +254,147 @@ public class IndexServer implements Runnable {
            */
     }
     
-    void indexFolders(Integer items) {
+    void indexFolders(Integer items, IndexBatch batch) {
         FolderDAO fDao = daoFactory.getFolderDAO(em);
-        IndexJobDAO jDao = daoFactory.getIndexJobDAO(em);
         List<IndexJob> jobs = fDao.findIndexTargets(items);
         localDebug("# of folders to reindex: " + jobs.size());
         Set<Long> seen = new HashSet<>(jobs.size());
+        Map<Long, ChangeScope> scopes = mergeScopes(jobs);
         for (IndexJob job : jobs) {
             Long id = job.indexableId;
             if(seen.contains(id)){
-                jDao.delete(job);
+                batch.done(job);
                 continue;
             }
             Folder folder = fDao.get(id);
             if(folder == null){
                 localDebug("Did not find folder #"+job.getIndexableId());
-                jDao.delete(job);
+                batch.done(job);
                 seen.add(id);
                 continue;
             }
             try {
                 localDebug("indexer working on folder: " + folder.getId());
-                lucene.updateObjectInIndex(folder);
-                jDao.delete(job);
+                // persist the merged scope, as the duplicates are deleted even if this job is kept.
+                job.setChangeScope(scopes.get(id));
+                update(folder, job, job.getChangeScope(), batch);
             } catch (Exception e) {
                 log.debug("indexing of object " + folder.getId() + "failed with:", e);
+                lucene.getMetrics().documentFailed();
                 job.failed = true;
             }
             seen.add(id);
+            batch.maybeCommit();
+        }
+    }
+
+    /**
+     * Only the first job of an object is processed, the others are just marked as done,
+     * so the first one must cover the changes of all of them. The merged scope is stored in the
+     * processed job: if that job is kept (for a retry, after a failure or a lost commit), the next run
+     * still indexes every part which one of the deleted duplicates had changed.
+     *
+     * @param jobs the IndexJobs of one class
+     * @return the merged ChangeScope of the jobs, by indexable id.
+     */
+    static Map<Long, ChangeScope> mergeScopes(List<IndexJob> jobs) {
+        Map<Long, ChangeScope> scopes = new HashMap<>(jobs.size());
+        for (IndexJob job : jobs) {
+            ChangeScope scope = scopes.get(job.indexableId);
+            scopes.put(job.indexableId, scope == null ? job.getChangeScope() : scope.merge(job.getChangeScope()));
+        }
+        return scopes;
+    }
+
+    /**
+     * Refresh the IndexJob counts of the IndexMetrics. A failure must not affect indexing.
+     */
+    void updateMetrics() {
+        try {
+            lucene.getMetrics().updateJobs(daoFactory.getIndexJobDAO(em));
+        } catch (Exception e) {
+            log.debug("Failed to count the IndexJobs for the index metrics:", e);
+        }
+    }
+
+    /**
+     * Rebuild the whole index of this repository in a background thread (see IndexRebuild) and swap it in
+     * when it is complete. This IndexServer keeps processing IndexJobs on the live index in the meantime;
+     * changes made during the rebuild are replayed on the new index afterwards.
+     * This is much faster than FolderDAO.prepareReIndex(), which creates one IndexJob per object.
+     *
+     * @return the thread which runs the rebuild.
+     */
+    public Thread startRebuild() {
+        Thread thread = new Thread(new IndexRebuild(lucene, repository.createHibernateSession()),
+                "IndexRebuild-" + lucene.getRepository());
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Reload the IndexItems if indexItemReloadInterval (lucene.properties, in milliseconds; 0 disables it)
+     * has passed since the last reload. Changed IndexItems are used for every document which is created
+     * afterwards, and the objects they may have indexed are queued for re-indexing (see startReindex).
+     */
+    void reloadIndexItems() {
+        if (indexItemReloadInterval <= 0 || System.currentTimeMillis() - lastIndexItemReload < indexItemReloadInterval) {
+            return;
+        }
+        lastIndexItemReload = System.currentTimeMillis();
+        try {
+            List<IndexItem> changes = lucene.updateIndexItems(daoFactory.getIndexItemDAO(em).list());
+            if (!changes.isEmpty()) {
+                log.info("The IndexItems of " + lucene.getRepository() + " were changed: " + IndexItemReindex.describe(changes));
+                startReindex(changes);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to reload the IndexItems of " + lucene.getRepository() + ":", e);
+        }
+    }
+
+    /**
+     * Queue the objects which the given IndexItems may have indexed for re-indexing, in a background
+     * thread (see IndexItemReindex).
+     *
+     * @param items the IndexItems whose fields changed.
+     * @return the thread which queues the objects.
+     */
+    public Thread startReindex(Collection<IndexItem> items) {
+        Thread thread = new Thread(new IndexItemReindex(lucene, repository.createHibernateSession(), items),
+                "IndexItemReindex-" + lucene.getRepository());
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Re-index the objects which the IndexItems of one IndexGroup may match, for example after
+     * the implementation of one of their indexers was changed. Unlike startRebuild, objects which
+     * none of the group's IndexItems apply to are left alone.
+     *
+     * @param group an IndexGroup
+     * @return the thread which queues the objects.
+     */
+    public Thread reindexIndexGroup(IndexGroup group) {
+        List<IndexItem> items = new ArrayList<>();
+        for (IndexItem item : lucene.getIndexItems().getItems()) {
+            if (group.equals(item.getIndexGroup())) {
+                items.add(item);
+            }
+        }
+        return startReindex(items);
+    }
+
+    /**
+     * Hand an object to the IndexPipeline - or, if indexWorkers is 0, index it on this thread.
+     */
+    void update(Indexable indexable, IndexJob job, ChangeScope scope, IndexBatch batch) {
+        if (pipeline != null) {
+            pipeline.update(indexable, job, scope, batch);
+        } else {
+            batch.update(indexable, job, scope);
         }
     }
 
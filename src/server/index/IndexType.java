@@ -63,6 +63,12 @@ public class IndexType implements Serializable {
     @Enumerated(EnumType.STRING)
     DataType dataType;
 
+    /**
+     * The shared Indexer instance of this type, created on first use.
+     */
+    @Transient
+    transient volatile Indexer indexer;
+
     public IndexType() {
 
     }
@@ -96,17 +102,31 @@ public class IndexType implements Serializable {
         type.addElement("vaProviderClass").addText(vaProviderClass.getName());
     }
 
+    /**
+     * Fetch the Indexer of this type. Indexers must be stateless and thread safe, as
+     * a single instance is shared by all documents and threads which use this IndexType.
+     * An Indexer which needs state per indexing run should implement IndexerLifecycle.
+     *
+     * @return the shared Indexer instance.
+     */
     public Indexer getIndexer() {
-        Indexer indexer;
+        Indexer result = indexer;
+        if (result == null) {
+            result = createIndexer();
+            indexer = result;
+        }
+        return result;
+    }
+
+    Indexer createIndexer() {
         try {
-            indexer = indexerClass.newInstance();
+            return indexerClass.newInstance();
         }
         catch (InstantiationException e) {
             throw new CinnamonException("error.instantiating.class", e, indexerClass.getName());
         } catch (IllegalAccessException e) {
             throw new CinnamonException("error.accessing.class", e, indexerClass.getName());
         }
-        return indexer;
     }
 
 
@@ -122,6 +142,32 @@ public class IndexType implements Serializable {
         getIndexer().indexObject(metadata, doc, fieldname, searchString, multipleResults);
     }
 
+    public void indexContent(ContentContainer content, Document doc, String fieldname, CompiledXPath searchXPath, Boolean multipleResults) {
+        index(content, doc, fieldname, searchXPath, multipleResults);
+    }
+
+    public void indexSysMeta(ContentContainer sysMeta, Document doc, String fieldname, CompiledXPath searchXPath, Boolean multipleResults) {
+        index(sysMeta, doc, fieldname, searchXPath, multipleResults);
+    }
+
+    public void indexMetadata(ContentContainer metadata, Document doc, String fieldname, CompiledXPath searchXPath, Boolean multipleResults) {
+        index(metadata, doc, fieldname, searchXPath, multipleResults);
+    }
+
+    /**
+     * Hand the pre-compiled XPath to the indexer if it is an XPathIndexer, otherwise fall back
+     * to the XPath's expression string.
+     */
+    void index(ContentContainer data, Document doc, String fieldname, CompiledXPath searchXPath, Boolean multipleResults) {
+        Indexer indexer = getIndexer();
+        if (indexer instanceof XPathIndexer) {
+            ((XPathIndexer) indexer).indexObject(data, doc, fieldname, searchXPath, multipleResults);
+        }
+        else {
+            indexer.indexObject(data, doc, fieldname, searchXPath.getExpression(), multipleResults);
+        }
+    }
+
 
     public void setName(String name) {
         this.name = name;
@@ -129,6 +175,7 @@ public class IndexType implements Serializable {
 
     public void setIndexerClass(String className) throws ClassNotFoundException {
         this.indexerClass = (Class<? extends Indexer>) Class.forName(className);
+        indexer = null;
     }
 
     public void setVaProviderClass(String className) throws ClassNotFoundException {
@@ -137,6 +184,7 @@ public class IndexType implements Serializable {
 
     public void setIndexerClass(Class<? extends Indexer> indexerClass) {
         this.indexerClass = indexerClass;
+        indexer = null;
     }
 
     public void setVaProviderClass(Class<? extends ValueAssistanceProvider> vaProviderClass) {
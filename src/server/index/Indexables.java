@@ -0,0 +1,77 @@
+package server.index;
+
+import org.dom4j.Document;
+import utils.ParamParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * Calls the methods of ExtendedIndexable, or derives their result from the methods of Indexable
+ * if an Indexable does not implement ExtendedIndexable.
+ */
+public final class Indexables {
+
+    private Indexables() {
+    }
+
+    /**
+     * @param indexable  the object
+     * @param repository the repository where the object is located.
+     * @return the content as a stream (see ExtendedIndexable.getContentAsStream), which the caller must close.
+     */
+    public static InputStream getContentAsStream(Indexable indexable, String repository) {
+        if (indexable instanceof ExtendedIndexable) {
+            return ((ExtendedIndexable) indexable).getContentAsStream(repository);
+        }
+        return new ByteArrayInputStream(indexable.getContentAsBytes(repository));
+    }
+
+    /**
+     * @param indexable the object
+     * @return the system metadata as a new Document (see ExtendedIndexable.getSystemMetadataAsDocument).
+     */
+    public static Document getSystemMetadataAsDocument(Indexable indexable) {
+        if (indexable instanceof ExtendedIndexable) {
+            return ((ExtendedIndexable) indexable).getSystemMetadataAsDocument();
+        }
+        return ParamParser.parseXmlToDocument(indexable.getSystemMetadata());
+    }
+
+    /**
+     * @param indexable the object
+     * @return true if the text of the object's binary content should be extracted. Always false for an
+     * Indexable which does not implement ExtendedIndexable.
+     */
+    public static Boolean hasExtractableContent(Indexable indexable) {
+        return indexable instanceof ExtendedIndexable && ((ExtendedIndexable) indexable).hasExtractableContent();
+    }
+
+    /**
+     * Schedule the object to be updated by the background index thread. An Indexable which does not
+     * implement ExtendedIndexable is updated completely.
+     *
+     * @param indexable the object
+     * @param scope     the part of the object which was changed.
+     */
+    public static void updateIndex(Indexable indexable, ChangeScope scope) {
+        if (indexable instanceof ExtendedIndexable) {
+            ((ExtendedIndexable) indexable).updateIndex(scope);
+        } else {
+            indexable.updateIndex();
+        }
+    }
+
+    /**
+     * @param indexable      the object
+     * @param systemMetadata the object's system metadata
+     * @return the name of the object's Java class (see ExtendedIndexable.javaClassName), or the javaClass
+     * attribute of the system metadata.
+     */
+    public static String javaClassName(Indexable indexable, Document systemMetadata) {
+        if (indexable instanceof ExtendedIndexable) {
+            return ((ExtendedIndexable) indexable).javaClassName();
+        }
+        return systemMetadata.valueOf("/sysMeta/@javaClass");
+    }
+}
@@ -0,0 +1,17 @@
+package server.index;
+
+/**
+ * Indexers are shared by all documents and threads (see IndexType.getIndexer()), so they
+ * should not keep any state. An Indexer which needs state for the duration of an indexing run
+ * (for example, a cache which must not outlive the run) implements this interface:
+ * the LuceneBridge calls startIndexRun() before and finishIndexRun() after each run of the IndexServer.
+ * <p>The methods are called from the IndexServer thread, while indexObject may be called by
+ * multiple worker threads in between.</p>
+ */
+public interface IndexerLifecycle {
+
+    void startIndexRun();
+
+    void finishIndexRun();
+
+}
@@ -0,0 +1,80 @@
+package server.index;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations with exponential buckets: bucket i counts the durations
+ * below 2^i microseconds, so percentiles are accurate to a factor of two, which is enough to
+ * tell a 5 ms IndexItem from a 500 ms one. Used by IndexMetrics.
+ */
+public class LatencyHistogram {
+
+    static final int BUCKETS = 40;
+
+    final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong totalNanos = new AtomicLong();
+    final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param nanos a duration in nanoseconds, as measured with System.nanoTime().
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        long micros = nanos / 1000;
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        buckets.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max;
+        while ((max = maxNanos.get()) < nanos && !maxNanos.compareAndSet(max, nanos)) {
+            // another thread recorded a new maximum, try again.
+        }
+    }
+
+    /**
+     * @return the current values. Concurrent updates may be partially included.
+     */
+    public LatencySnapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        long n = count.get();
+        return new LatencySnapshot(n, n > 0 ? totalNanos.get() / 1e6 / n : 0, totalNanos.get() / 1e6,
+                maxNanos.get() / 1e6, percentile(counts, total, 0.5), percentile(counts, total, 0.95),
+                percentile(counts, total, 0.99));
+    }
+
+    /**
+     * @return the upper bound of the bucket which contains the given percentile, in milliseconds.
+     */
+    static double percentile(long[] counts, long total, double fraction) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return (1L << i) / 1000.0;
+            }
+        }
+        return (1L << (counts.length - 1)) / 1000.0;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+}
@@ -0,0 +1,65 @@
+package server.index;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The values of a LatencyHistogram at one point in time. All durations are in milliseconds;
+ * percentiles are upper bounds (see LatencyHistogram).
+ * JMX clients see a LatencySnapshot as CompositeData (see IndexMetricsMXBean).
+ */
+public class LatencySnapshot {
+
+    final long count;
+    final double meanMillis;
+    final double totalMillis;
+    final double maxMillis;
+    final double p50Millis;
+    final double p95Millis;
+    final double p99Millis;
+
+    @ConstructorProperties({"count", "meanMillis", "totalMillis", "maxMillis", "p50Millis", "p95Millis", "p99Millis"})
+    public LatencySnapshot(long count, double meanMillis, double totalMillis, double maxMillis,
+                           double p50Millis, double p95Millis, double p99Millis) {
+        this.count = count;
+        this.meanMillis = meanMillis;
+        this.totalMillis = totalMillis;
+        this.maxMillis = maxMillis;
+        this.p50Millis = p50Millis;
+        this.p95Millis = p95Millis;
+        this.p99Millis = p99Millis;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMeanMillis() {
+        return meanMillis;
+    }
+
+    public double getTotalMillis() {
+        return totalMillis;
+    }
+
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+
+    public double getP50Millis() {
+        return p50Millis;
+    }
+
+    public double getP95Millis() {
+        return p95Millis;
+    }
+
+    public double getP99Millis() {
+        return p99Millis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.2fms p50<%.2fms p95<%.2fms p99<%.2fms max=%.2fms",
+                count, meanMillis, p50Millis, p95Millis, p99Millis, maxMillis);
+    }
+}
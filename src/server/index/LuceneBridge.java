@@ -7,6 +7,9 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Field.Index;
 import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.document.MapFieldSelector;
 import org.apache.lucene.index.*;
 import org.apache.lucene.index.IndexWriter.MaxFieldLength;
 import org.apache.lucene.queryParser.MultiFieldQueryParser;
@@ -14,25 +17,40 @@ import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.LockObtainFailedException;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.store.SimpleFSDirectory;
 import org.apache.lucene.util.Version;
 import org.apache.lucene.xmlparser.CoreParser;
 import org.apache.lucene.xmlparser.ParserException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import server.Folder;
+import server.User;
 import server.dao.DAOFactory;
 import server.dao.IndexItemDAO;
+import server.dao.IndexJobDAO;
 import server.exceptions.CinnamonException;
 import server.global.ConfThreadLocal;
+import server.global.Constants;
+import server.index.indexer.DefaultIndexer;
+import server.index.queryBuilder.NumericRangeQueryBuilder;
 import server.index.queryBuilder.RegexQueryBuilder;
 import server.index.queryBuilder.WildcardQueryBuilder;
-import utils.ParamParser;
+import utils.HibernateSession;
 
 import javax.persistence.EntityManager;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * LuceneBridge provides the following functionality:<br>
@@ -43,12 +61,22 @@ import java.util.concurrent.locks.ReentrantLock;
  * and thereby purge them from the index.</li>
  * </ul>
  * <p>In less fanciful prose: you can use this class to add items to the index, search for
- * them and remove them from the index. To update an item, you have to remove it from
- * the index and add it again (this is the recommended Lucene way).</p>
- * <p>Note: At the moment this class uses a rather expensive approach as it will open the
- * index for reading and writing each time an object is changed or searched. That's quite a
- * lot I/O. The index server will reduce this probably by re-using the IndexReader/IndexSearcher
- * objects.</p>
+ * them and remove them from the index. An item is updated by replacing its document
+ * atomically with IndexWriter.updateDocument, keyed by its uniqueId.</p>
+ * <p>The IndexWriter is thread safe, so any number of threads may add, update and remove documents
+ * at the same time. They share the read lock of writerLock, which only protects the writer reference:
+ * the write lock is taken to close and re-create the IndexWriter after an OutOfMemoryError or a
+ * corrupt index.</p>
+ * <p>Each document carries a {@link Fingerprint}. When an object is re-indexed with the same fingerprint,
+ * its document is left alone; when only its metadata or system metadata fields changed, the content-derived
+ * fields are restored from the stored {@link ContentFields} instead of parsing the content again.</p>
+ * <p>The IndexItems are held in an {@link IndexItemSnapshot}, which is replaced atomically when they are
+ * reloaded, so they can be changed without a restart.</p>
+ * <p>Searches do not open the index themselves: all queries share one IndexSearcher which is
+ * managed by a {@link SearcherProvider} and refreshed from the live IndexWriter after the index
+ * has been changed. Searching does not require the bridge's lock. The hits of repeated queries are
+ * taken from the {@link ResultCache} until the searcher is refreshed; the user's permissions are checked
+ * on each search.</p>
  */
 public class LuceneBridge {
 
@@ -61,32 +89,203 @@ public class LuceneBridge {
     Analyzer analyzer;//new CinnamonStandardAnalyzer(Version.LUCENE_CURRENT);
     String repository;
     IndexItemDAO iiDao;
-    List<IndexItem> iiList;// = iiDao.list();
+    /**
+     * The current IndexItems. Replaced as a whole by updateIndexItems, read once per document.
+     */
+    final AtomicReference<IndexItemSnapshot> indexItems = new AtomicReference<IndexItemSnapshot>(
+            new IndexItemSnapshot(Collections.<IndexItem>emptyList(), Collections.<String>emptyList(),
+                    Collections.<String>emptyList()));
 
-    IndexWriter indexWriter;
+    volatile IndexWriter indexWriter;
+    /**
+     * Incremented by recreateWriter. The changes which were staged but not committed by the replaced
+     * writer are lost, so an IndexJob may only be deleted if its change was committed by a writer
+     * of the generation it was staged to (see IndexBatch.commit).
+     */
+    volatile long writerGeneration = 0;
+    SearcherProvider searcherProvider;
 
-    final ReentrantLock lock = new ReentrantLock();
+    final ReentrantReadWriteLock writerLock = new ReentrantReadWriteLock();
     Long lockTimeout;
 
+    static final FieldSelector FINGERPRINT_FIELDS = new MapFieldSelector(Fingerprint.FIELD, ContentFields.FIELD);
+    Boolean fingerprints = true;
+    Boolean storeContentFields = true;
+    /**
+     * Extracts the text of binary content, or null if content extraction is disabled.
+     */
+    ContentExtractor contentExtractor;
+    /**
+     * How often an object whose content was skipped temporarily is indexed again before its IndexJob
+     * is deleted anyway (see retryLater).
+     */
+    Integer extractionRetries = 3;
+    /**
+     * Number of retries by uniqueId of the objects whose content was skipped temporarily.
+     */
+    final ConcurrentMap<String, Integer> retries = new ConcurrentHashMap<String, Integer>();
+    final IndexMetrics metrics = new IndexMetrics(this);
+    /**
+     * uniqueIds of documents which were changed after the shared searcher was opened, mapped to the
+     * changeSequence at the end of the change (Long.MAX_VALUE while the change is in progress).
+     * The searcher's fingerprints of these objects are outdated.
+     */
+    final ConcurrentMap<String, Long> recentChanges = new ConcurrentHashMap<String, Long>();
+    final AtomicLong changeSequence = new AtomicLong();
+    final AtomicReference<IndexRebuild> rebuild = new AtomicReference<IndexRebuild>();
+    final AtomicReference<IndexItemReindex> reindex = new AtomicReference<IndexItemReindex>();
+
+    Long maxContentSize = 0L;
+    Integer maxContentDepth = 0;
+    Boolean streamContent = true;
+    Integer maxSearchHits = 0;
+    Boolean securityFilter = true;
+    final SecurityFilterCache securityFilters = new SecurityFilterCache();
+    /**
+     * The result of folderAclsIndexed: {searcher generation, 1 if the folder ACLs are indexed, else 0}.
+     */
+    volatile long[] folderAclCheck = {-1, 0};
+    CoreParser coreParser;
+    QueryCache queryCache;
+    ResultCache resultCache;
+    /**
+     * The fields searchWithFacets counts the hits by.
+     */
+    String[] facetFields = {Constants.FIELD_OBJECT_TYPE, Constants.FIELD_FORMAT, Constants.FIELD_OWNER,
+            Constants.FIELD_LIFECYCLE_STATE, Constants.FIELD_PARENT_ID};
+    Integer maxFacetValues = 100;
+
     public LuceneBridge() {
     }
 
     public LuceneBridge(String repository, EntityManager em) {
         this.repository = repository;
-        indexFolder = new File(luceneProperties.getProperty("indexDir"), repository);
+        indexFolder = findIndexFolder();
         try {
-            indexDir = new SimpleFSDirectory(indexFolder);
+            indexDir = createDirectory(indexFolder);
         } catch (IOException e) {
             throw new CinnamonException("error.lucene.IO", e);
         }
         Analyzer standardAnalyzer = new StandardAnalyzer(Version.LUCENE_34);
         analyzer = new LimitTokenCountAnalyzer(standardAnalyzer, Integer.MAX_VALUE);
+        coreParser = createCoreParser();
+        queryCache = new QueryCache(Integer.parseInt(luceneProperties.getProperty("queryCacheSize", "100")));
+        resultCache = new ResultCache(Integer.parseInt(luceneProperties.getProperty("resultCacheSize", "100")),
+                Long.parseLong(luceneProperties.getProperty("resultCacheMaxBytes", "16777216")),
+                Integer.parseInt(luceneProperties.getProperty("resultCacheMaxHits", "10000")));
+        if (luceneProperties.containsKey("facetFields")) {
+            facetFields = luceneProperties.getProperty("facetFields").trim().split("\\s*,\\s*");
+            for (String field : facetFields) {
+                if (!CinnamonIndexInitializer.FACET_FIELDS.contains(field)) {
+                    throw new CinnamonException("error.lucene.invalid_facet_field", field);
+                }
+            }
+        }
+        maxFacetValues = Integer.parseInt(luceneProperties.getProperty("maxFacetValues", "100"));
 
         indexWriter = createWriter(indexDir);
+        Long refreshInterval = Long.parseLong(luceneProperties.getProperty("searcherRefreshInterval", "1000"));
+        Long maxStaleness = Long.parseLong(luceneProperties.getProperty("searcherMaxStaleness", "5000"));
+        searcherProvider = new SearcherProvider(this, refreshInterval, maxStaleness);
+
+        maxContentSize = Long.parseLong(luceneProperties.getProperty("maxContentSize", "104857600"));
+        maxContentDepth = Integer.parseInt(luceneProperties.getProperty("maxContentDepth", "500"));
+        streamContent = Boolean.parseBoolean(luceneProperties.getProperty("streamContent", "true"));
+        maxSearchHits = Integer.parseInt(luceneProperties.getProperty("maxSearchHits", "0"));
+        securityFilter = Boolean.parseBoolean(luceneProperties.getProperty("securityFilter", "true"));
+        fingerprints = Boolean.parseBoolean(luceneProperties.getProperty("fingerprints", "true"));
+        storeContentFields = Boolean.parseBoolean(luceneProperties.getProperty("storeContentFields", "true"));
+        contentExtractor = createContentExtractor();
+        extractionRetries = Integer.parseInt(luceneProperties.getProperty("extractionRetries", "3"));
 
         this.iiDao = daoFactory.getIndexItemDAO(em);
-        this.iiList = iiDao.list();
-        log.debug("# of IndexItems found: " + iiList.size());
+        setIndexItemList(iiDao.list());
+        log.debug("# of IndexItems found: " + indexItems.get().getItems().size());
+        metrics.register(repository);
+    }
+
+    /**
+     * Open the Lucene Directory of this repository. The implementation is configured in lucene.properties
+     * by directoryType.$repository or, for all repositories, by directoryType:
+     * <ul>
+     * <li>simple: SimpleFSDirectory (default; one file pointer per file, reads are serialized)</li>
+     * <li>nio: NIOFSDirectory (positional reads without locking; not recommended on Windows)</li>
+     * <li>mmap: MMapDirectory (memory mapped files; recommended on 64 bit systems)</li>
+     * <li>ram: RAMDirectory (on the heap, not persistent; for small test repositories only)</li>
+     * </ul>
+     *
+     * @param folder the folder which contains the index files
+     * @return the Directory of the index.
+     * @throws IOException if the Directory cannot be opened.
+     */
+    Directory createDirectory(File folder) throws IOException {
+        String type = luceneProperties.getProperty("directoryType." + repository,
+                luceneProperties.getProperty("directoryType", "simple")).trim().toLowerCase();
+        log.info("Using Lucene directory type '" + type + "' for repository " + repository);
+        if (type.equals("mmap")) {
+            MMapDirectory directory = new MMapDirectory(folder);
+            directory.setUseUnmap(MMapDirectory.UNMAP_SUPPORTED);
+            return directory;
+        } else if (type.equals("nio")) {
+            return new NIOFSDirectory(folder);
+        } else if (type.equals("ram")) {
+            return new RAMDirectory();
+        } else if (type.equals("simple")) {
+            return new SimpleFSDirectory(folder);
+        }
+        throw new CinnamonException("error.lucene.unknown_directory_type", type);
+    }
+
+    /**
+     * Create the ContentExtractor for binary content, if lucene.properties enables it (extractContent)
+     * and Apache Tika is on the classpath.
+     *
+     * @return the ContentExtractor, or null.
+     */
+    ContentExtractor createContentExtractor() {
+        if (!Boolean.parseBoolean(luceneProperties.getProperty("extractContent", "true"))) {
+            return null;
+        }
+        try {
+            // checked before ContentExtractor is loaded, as Tika is an optional dependency.
+            Class.forName("org.apache.tika.parser.AutoDetectParser");
+        } catch (ClassNotFoundException e) {
+            log.info("Apache Tika was not found, the text of binary content will not be indexed.");
+            return null;
+        }
+        Integer workers = Integer.parseInt(luceneProperties.getProperty("extractionWorkers", "2"));
+        Integer queueSize = Integer.parseInt(luceneProperties.getProperty("extractionQueueSize", String.valueOf(4 * workers)));
+        Long timeout = Long.parseLong(luceneProperties.getProperty("extractionTimeout", "60000"));
+        Long maxSize = Long.parseLong(luceneProperties.getProperty("extractionMaxSize", "104857600"));
+        Integer maxChars = Integer.parseInt(luceneProperties.getProperty("extractionMaxChars", "10000000"));
+        File cacheFolder = null;
+        if (Boolean.parseBoolean(luceneProperties.getProperty("extractionCache", "true"))) {
+            cacheFolder = new File(luceneProperties.getProperty("indexDir"), repository + ".extracted");
+        }
+        return new ContentExtractor(workers, queueSize, timeout, maxSize, maxChars, cacheFolder);
+    }
+
+    /**
+     * The index of a repository is stored in the folder $indexDir/$repository - unless it has been
+     * replaced by an IndexRebuild, in which case the file $indexDir/$repository.current contains
+     * the name of the current index folder.
+     *
+     * @return the folder of the current index.
+     */
+    File findIndexFolder() {
+        File root = new File(luceneProperties.getProperty("indexDir"));
+        File pointer = new File(root, repository + ".current");
+        if (pointer.exists()) {
+            try {
+                String name = new String(Files.readAllBytes(pointer.toPath()), "UTF-8").trim();
+                if (name.length() > 0) {
+                    return new File(root, name);
+                }
+            } catch (IOException e) {
+                throw new CinnamonException("error.lucene.IO", e, pointer.getAbsolutePath());
+            }
+        }
+        return new File(root, repository);
     }
 
     IndexWriter createWriter(Directory dir) {
@@ -126,365 +325,1522 @@ public class LuceneBridge {
     }
 
     /**
-     * Tries to acquire a lock on this LuceneBridge object. Will throw a CinnamonException if the following happens:
+     * Acquire the shared lock on the IndexWriter and return the current writer. Will throw a CinnamonException
+     * if the following happens:
      * <ul>
-     * <li>waiting longer than lockTimeout: error.timeout_waiting_for_lucene_lock</li>
+     * <li>waiting longer than lockTimeout (only possible while the writer is being re-created):
+     * error.timeout_waiting_for_lucene_lock</li>
      * <li>thread is interrupted while trying to acquire lock: error.interrupted_while_waiting_for_lucene_lock</li>
      * </ul>
-     * You must release the lock in a finally block after acquiring it.
+     * Other threads holding the shared lock do not block this call.
+     * You must call releaseWriter() in a finally block after acquiring the writer.
+     *
+     * @return the IndexWriter, which stays open until releaseWriter() is called.
      */
-    void acquireLock() {
+    IndexWriter acquireWriter() {
         try {
-            log.debug("Trying to get lock on LuceneBridge.");
-            if (!lock.tryLock(lockTimeout, TimeUnit.MILLISECONDS)) {
+            if (!writerLock.readLock().tryLock(lockTimeout, TimeUnit.MILLISECONDS)) {
                 throw new CinnamonException("error.timeout_waiting_for_lucene_lock");
             }
-            log.debug("Lock acquired.");
         } catch (InterruptedException e) {
             throw new CinnamonException("error.interrupted_while_waiting_for_lucene_lock");
         }
+        return indexWriter;
     }
 
     /**
-     * If this thread holds the lock on the LuceneBridge, release it.
+     * Release the shared lock acquired by acquireWriter().
      */
-    void releaseLock() {
-        if (lock.isHeldByCurrentThread()) {
-            lock.unlock();
-            log.debug("Unlocked LuceneBridge.");
-        }
-        else {
-            log.warn("Warning: tried to release lock which this thread does not hold.");
-        }
+    void releaseWriter() {
+        writerLock.readLock().unlock();
     }
 
-    public void addObjectToIndex(Indexable indexable){
-        addObjectToIndex(indexable, true);
-    }
-    
-    public void addObjectToIndex(Indexable indexableObj, Boolean removeFirst) {
+    /**
+     * Add or replace the document of an Indexable and commit the change.
+     *
+     * @param indexableObj the object to index. If it no longer exists in the database, nothing happens.
+     */
+    public void addObjectToIndex(Indexable indexableObj) {
         try {
-            try {
-                Indexable indexable = indexableObj.reload();
-                if(indexable == null){
-                    log.debug("Indexable Object "+indexableObj.uniqueId()+" no longer exists in the database. nop.");
-                    return;
-                }
-                // always try to remove an object, as other code may have already called this method
-                if(removeFirst){
-                    removeObjectFromIndex(indexable);
-                }
-                Document doc = new Document();
-                log.debug("store standard fields");
-                storeStandardFields(indexable, doc);
-                log.debug("finished store standard fields");
-
-                ContentContainer content;
-                if(indexable.hasXmlContent()){
-                        content = new ContentContainer(indexable, repository);
-                }
-                else{
-                    content = new ContentContainer("<empty />".getBytes());
-                }
-//                String content = indexable.getContent(repository);
-                log.debug("finished: getContent");
-                ContentContainer metadata = new ContentContainer(indexable.getMetadata().getBytes());
-//                String metadata = indexable.getMetadata();
-                log.debug("store systemMetadata");
-//                String systemMetadata = indexable.getSystemMetadata();
-                ContentContainer systemMetadata = new ContentContainer(indexable.getSystemMetadata().getBytes());
-                log.debug("got sysMetadata, start indexObject loop");
-
-                for (IndexItem item : iiList) {
-                    /*
-                     * At the moment, the OSDs and Folders do not cache
-                     * their responses to getSystemMetadata or getContent.
-                     * In a repository with many IndexItems, this would cause
-                     * quite some strain on the server's resources.
-                     */
-                    try {
-//							log.debug("indexObject for field '"+item.fieldname+"' with content: "+content);
-                        item.indexObject(content, metadata, systemMetadata, doc);
-                    } catch (Exception e) {
-                        log.debug("*** failed *** to execute IndexItem " + item.getId(), e);
-                    }
-                }
-
-                acquireLock();
-                log.debug("create new IndexWriter");
-//                Boolean create = !IndexReader.indexExists(indexDir);
-//                writer = new IndexWriter(indexDir, analyzer, create, MaxFieldLength.UNLIMITED);
-                log.debug("before addDocument");
-                indexWriter.addDocument(doc);
-                log.debug("added Document");
-                indexWriter.commit();
-            } catch (OutOfMemoryError e) {
-                log.warn("OOM-error during indexing:", e);
-                // according to Lucene docs, we should close the writer after OOM-Problems.
-                indexWriter.close();
-                indexWriter = createWriter(indexDir);
-
-            } finally {
-                unlockIfNecessary();
-
+            Indexable indexable = indexableObj.reload();
+            if(indexable == null){
+                log.debug("Indexable Object "+indexableObj.uniqueId()+" no longer exists in the database. nop.");
+                return;
             }
-        } catch (IOException e) {
-            log.debug("IOException during indexing.", e);
-            throw new CinnamonException("error.lucene.IO", e);
+            recordChange(indexable);
+            Long generation = getWriterGeneration();
+            stageDocument(indexable.uniqueId(), createDocument(indexable));
+            commitStaged(generation, "error.add.to.index");
+        } catch (CinnamonException e) {
+            throw e;
         } catch (Exception e) {
             log.debug("addObjectToIndex failed:", e);
             throw new CinnamonException("error.add.to.index", e);
-        } finally {
-            /*
-             * Unlock after commit.
-             */
-            releaseLock();
         }
         log.debug("finished addObjectToIndex");
     }
 
-    void unlockIfNecessary() throws IOException {
-        if (IndexWriter.isLocked(indexDir)) {
-            // we failed to commit or close the IndexWriter.
-            try {
-                indexWriter.close();
-                log.debug("Unlocking indexDir.");
-            } catch (CorruptIndexException e) {
-                log.error("Lucene Index has been corrupted!", e);
-                throw new CinnamonException("error.lucene.IO", e, indexDir.toString());
-            } catch (IOException e) {
-                throw new CinnamonException("error.lucene.IO", e, indexDir.toString());
-            } finally {
-                IndexWriter.unlock(indexDir);
-                indexWriter = createWriter(indexDir);
+    /**
+     * Add or replace the document of an Indexable and commit the change.
+     *
+     * @param indexableObj the object to index. If it no longer exists in the database, nothing happens.
+     * @param removeFirst  ignored: an existing document of the object is always replaced in one atomic
+     *                     updateDocument call, so there are never two documents with the same uniqueId.
+     * @deprecated removeFirst has no effect; use addObjectToIndex(Indexable).
+     */
+    @Deprecated
+    public void addObjectToIndex(Indexable indexableObj, Boolean removeFirst) {
+        addObjectToIndex(indexableObj);
+    }
+
+    /**
+     * Create the Lucene document for an Indexable by running all IndexItems on its
+     * content, metadata and system metadata.
+     *
+     * @param indexable the object to index
+     * @return a Document which contains the standard fields and the fields of all matching IndexItems.
+     */
+    Document createDocument(Indexable indexable) {
+        long start = System.nanoTime();
+        IndexData data = loadIndexData(indexable, false);
+        metrics.load.record(System.nanoTime() - start);
+        return createDocument(data);
+    }
+
+    /**
+     * Fetch everything from an Indexable which is needed to create its Lucene document.
+     * This must happen in the thread which owns the Indexable's EntityManager, as
+     * the metadata and system metadata may require lazy loading.
+     *
+     * @param indexable      the object to index
+     * @param preloadContent if true, open the content stream right now. Otherwise, it is opened on first access.
+     * @return the IndexData of the object.
+     */
+    IndexData loadIndexData(Indexable indexable, Boolean preloadContent) {
+        return loadIndexData(indexable, preloadContent, ChangeScope.ALL);
+    }
+
+    /**
+     * Fetch everything from an Indexable which is needed to create its Lucene document. If the content is
+     * out of the scope of the change and the indexed document has reusable content fields, the indexed document
+     * is looked up right away and the content stream is not opened at all (unless an IndexItem which is not
+     * content-only needs the content).
+     *
+     * @param indexable      the object to index
+     * @param preloadContent if true, open the content stream right now (if it is needed).
+     * @param scope          the part of the object which was changed.
+     * @return the IndexData of the object.
+     */
+    IndexData loadIndexData(Indexable indexable, Boolean preloadContent, ChangeScope scope) {
+        Document previous = null;
+        if (!scope.includesContent()) {
+            previous = findIndexedDocument(indexable.uniqueId());
+            if (previous != null && !hasReusableContent(previous)) {
+                previous = null;
             }
         }
+        ContentContainer content;
+        if(indexable.hasXmlContent()){
+                content = new ContentContainer(indexable, repository, maxContentSize, maxContentDepth);
+        }
+        else if(contentExtractor != null && Indexables.hasExtractableContent(indexable)){
+            content = new ContentContainer(indexable, repository, contentExtractor);
+        }
+        else{
+            content = new ContentContainer("<empty />".getBytes());
+        }
+        if(preloadContent && (previous == null || needsContent(indexItems.get().getItems()))){
+            content.openStream();
+        }
+        log.debug("finished: getContent");
+        ContentContainer metadata = new ContentContainer(indexable.getMetadata().getBytes());
+//        String metadata = indexable.getMetadata();
+        log.debug("store systemMetadata");
+        // the system metadata is built once and handed to the IndexItems as a Document, without a round trip to XML.
+        org.dom4j.Document sysMeta = Indexables.getSystemMetadataAsDocument(indexable);
+        ContentContainer systemMetadata = new ContentContainer(sysMeta);
+        IndexData data = new IndexData(indexable.uniqueId(), Indexables.javaClassName(indexable, sysMeta),
+                String.valueOf(indexable.myId()), content, metadata, systemMetadata);
+        data.setScope(scope);
+        data.setPrevious(previous);
+        return data;
     }
 
     /**
-     * Search for all documents matching the given params, which must be an
-     * Lucene XML-Query-Parser document.
-     *
-     * @param params input for XML-Query-Parser
-     * @return a ResultCollector, which contains a collection of all documents found.
+     * @param previous the fingerprint and content fields of an indexed document (see findIndexedDocument).
+     * @return true if the document was created by the current content-only IndexItems and its content fields were stored,
+     * so they can be reused without reading the content.
      */
-    public ResultCollector search(String params) {
-        log.debug("starting search");
-        ResultCollector results = new ResultCollector();
-        try {
-            InputStream bais = new ByteArrayInputStream(params.getBytes("UTF-8"));
-            CoreParser coreParser = new CoreParser("content", analyzer);
-            coreParser.addQueryBuilder("WildcardQuery", new WildcardQueryBuilder());
-            coreParser.addQueryBuilder("RegexQuery", new RegexQueryBuilder());
-            Query query = coreParser.parse(bais);
+    Boolean hasReusableContent(Document previous) {
+        Fingerprint fingerprint = Fingerprint.parse(previous.get(Fingerprint.FIELD));
+        return fingerprint != null && fingerprint.hasItems(indexItems.get().getContentDigest())
+                && (fingerprint.content.isEmpty() || previous.getBinaryValue(ContentFields.FIELD) != null);
+    }
 
-            acquireLock();
+    /**
+     * @param previous            the indexed document, or null.
+     * @param previousFingerprint its fingerprint, or null.
+     * @param itemsDigest         the items digest of the current IndexItems
+     * @param scope               the ChangeScope of the IndexData
+     * @return true if the stored content fields of the previous document can be reused if the content is unchanged.
+     * Otherwise, the content items must run whatever the content digest is.
+     */
+    Boolean mayReuseContent(Document previous, Fingerprint previousFingerprint, String itemsDigest, ChangeScope scope) {
+        return scope != ChangeScope.CONTENT && previousFingerprint != null && previousFingerprint.hasItems(itemsDigest)
+                && previous.getBinaryValue(ContentFields.FIELD) != null;
+    }
 
-            IndexSearcher searcher = new IndexSearcher(indexDir, true);
-            results.setSearcher(searcher);
-            searcher.search(query, results);
-            searcher.close();
-        } catch (IOException e) {
-            throw new CinnamonException("error.lucene.IO", e);
-        } catch (ParserException e) {
-            throw new CinnamonException("error.parsing.lucene.query", e, params);
-        } finally {
-            releaseLock();
+    /**
+     * @param items the IndexItems of this repository
+     * @return true if an IndexItem which is not content-only reads the content, either for its
+     * fields or for its condition. Such items always need the content, whatever the ChangeScope.
+     */
+    Boolean needsContent(List<IndexItem> items) {
+        for (IndexItem item : items) {
+            if (isContentOnly(item)) {
+                continue;
+            }
+            if (item.getForContent()) {
+                return true;
+            }
+            try {
+                if (!item.fetchCompiledSearchCondition().isAlwaysTrue()) {
+                    return true;
+                }
+            } catch (Exception e) {
+                // an invalid condition is never true and does not read the content.
+            }
         }
-        log.debug("finished search; results: " + results.getDocuments().size());
-        return results;
+        return false;
     }
 
+    /**
+     * @param data the IndexData of an object
+     * @return the indexed document which loadIndexData looked up, or the result of findIndexedDocument.
+     */
+    Document findIndexedDocument(IndexData data) {
+        Document previous = data.getPrevious();
+        return previous != null ? previous : findIndexedDocument(data.getUniqueId());
+    }
 
     /**
-     * Search for documents matching the given input. Returns the top maxResults items.
+     * Create the Lucene document from the IndexData of an object. This method does not touch
+     * the database itself and may be called from multiple threads at once (but the IndexItems'
+     * indexers may need an EntityManager for the current thread).
      *
-     * @param queryString text query params
-     * @return a ResultCollector, which contains a collection of all documents found.
+     * @param data the content, metadata and system metadata of the object to index.
+     * @return a Document which contains the standard fields and the fields of all matching IndexItems.
      */
-    public SearchResult searchMultipleFields(String queryString, Integer page, Integer pageSize, String[] fields) {
-        log.debug("starting search");
-        SearchResult searchResult = null;
-        try {
+    Document createDocument(IndexData data) {
+        return createDocument(data, null);
+    }
 
-//            MultiFieldQueryParser queryParser = new MultiFieldQueryParser(Version.LUCENE_31,fields, analyzer);
-            BooleanClause.Occur[] flags = new BooleanClause.Occur[fields.length];
-            for(int x = 0; x < flags.length; x++){
-                flags[x] = BooleanClause.Occur.SHOULD;
-            }
-            Query query = MultiFieldQueryParser.parse(Version.LUCENE_34,queryString ,fields, flags,analyzer );
+    /**
+     * Create the Lucene document from the IndexData of an object, unless the currently indexed
+     * document is still up to date. First, all IndexItems which do not depend on the content alone
+     * are run. Then the fingerprint is compared with the previous document's:
+     * <ul>
+     * <li>same fingerprint: null is returned, the previous document is still valid.</li>
+     * <li>same IndexItems and content: the stored content fields of the previous document are reused.</li>
+     * <li>otherwise: the content IndexItems are run.</li>
+     * </ul>
+     *
+     * @param data     the content, metadata and system metadata of the object to index.
+     * @param previous the fingerprint and content fields of the indexed document (see findIndexedDocument), or null.
+     * @return the new Document, or null if it would have the same fingerprint as the previous one.
+     */
+    Document createDocument(IndexData data, Document previous) {
+        Document doc = new Document();
+        log.debug("store standard fields");
+        storeStandardFields(data, doc);
+        log.debug("finished store standard fields");
 
-            acquireLock();
+        ContentContainer content = data.getContent();
+        ContentContainer metadata = data.getMetadata();
+        ContentContainer systemMetadata = data.getSystemMetadata();
+        log.debug("got sysMetadata, start indexObject loop");
 
-            IndexSearcher searcher = new IndexSearcher(indexDir, true);
-            Integer startingResult = page*pageSize;
-            Integer endResult = startingResult + pageSize-1;
-            TopDocs hits = searcher.search(query, endResult+1);
-            searchResult = new SearchResult(hits, searcher, startingResult, pageSize);
+        IndexItemSnapshot snapshot = indexItems.get();
+        List<IndexItem> items = snapshot.getItems();
+        String digest = snapshot.getContentDigest();
+        Set<String> paths = streamContent ? findStreamablePaths(items) : null;
+        Boolean streamed = false;
+        List<IndexItem> contentItems = new ArrayList<IndexItem>();
+        long contentNanos = 0;
+        long xpathNanos = 0;
+        for (IndexItem item : items) {
+            if (isContentOnly(item)) {
+                contentItems.add(item);
+                continue;
+            }
+            if (item.getForContent() && !streamed) {
+                long start = System.nanoTime();
+                streamed = streamSelect(content, paths);
+                contentNanos += System.nanoTime() - start;
+            }
+            xpathNanos += indexItem(item, content, metadata, systemMetadata, doc);
+        }
 
-            searcher.close();
-            log.debug("finished search; totalResults: "+searchResult.totalResults);
-        } catch (IOException e) {
-            throw new CinnamonException("error.lucene.IO", e);
-        } catch (ParseException e) {
-            throw new CinnamonException("error.parsing.lucene.query", e, queryString);
-        } finally {
-            releaseLock();
+        Fingerprint fingerprint = null;
+        Fingerprint previousFingerprint = null;
+        if (fingerprints) {
+            if (previous != null) {
+                previousFingerprint = Fingerprint.parse(previous.get(Fingerprint.FIELD));
+            }
+            long start = System.nanoTime();
+            String contentDigest;
+            if (contentItems.isEmpty()) {
+                contentDigest = "";
+            } else if (!data.getScope().includesContent() && previousFingerprint != null
+                    && previousFingerprint.hasItems(digest)) {
+                // the content was not changed: do not read it just to compute its digest.
+                contentDigest = previousFingerprint.content;
+            } else {
+                if (!streamed && !mayReuseContent(previous, previousFingerprint, digest, data.getScope())) {
+                    // the content items will run: parse the content now, which computes its digest on the way.
+                    streamed = streamSelect(content, paths);
+                }
+                // otherwise, only the digest is read: if it is unchanged, the content need not be parsed.
+                contentDigest = content.digest();
+            }
+            contentNanos += System.nanoTime() - start;
+            fingerprint = new Fingerprint(digest, contentDigest, Fingerprint.digestFields(doc.getFields()));
+            if (previous != null) {
+                if (fingerprint.equals(previousFingerprint)) {
+                    log.debug("fingerprint of " + data.getUniqueId() + " is unchanged.");
+                    metrics.content.record(contentNanos);
+                    metrics.xpath.record(xpathNanos);
+                    metrics.documentUnchanged();
+                    return null;
+                }
+            }
         }
 
-        return searchResult;
+        List<Fieldable> contentFields = null;
+        if (fingerprint != null && fingerprint.hasSameContent(previousFingerprint)) {
+            contentFields = ContentFields.decode(previous.getBinaryValue(ContentFields.FIELD));
+            if (contentFields != null) {
+                log.debug("content of " + data.getUniqueId() + " is unchanged, reusing its fields.");
+            }
+        }
+        if (contentFields == null) {
+            if (!streamed && !contentItems.isEmpty()) {
+                long start = System.nanoTime();
+                streamSelect(content, paths);
+                contentNanos += System.nanoTime() - start;
+            }
+            Document contentDoc = new Document();
+            for (IndexItem item : contentItems) {
+                xpathNanos += indexItem(item, content, metadata, systemMetadata, contentDoc);
+            }
+            if (content.isSkipped()) {
+                // allows administrators to search for documents whose content was not indexed.
+                contentDoc.add(new Field("contentSkipped", content.getSkipReason(), Store.YES, Index.NOT_ANALYZED));
+            }
+            contentFields = contentDoc.getFields();
+        }
+        for (Fieldable field : contentFields) {
+            doc.add(field);
+        }
+        if (fingerprint != null && content.isSkippedTemporarily()) {
+            // without a fingerprint, the document is rebuilt when the object is indexed the next time.
+            log.debug("content of " + data.getUniqueId() + " was skipped temporarily, omitting the fingerprint.");
+        } else if (fingerprint != null) {
+            byte[] stored = storeContentFields ? ContentFields.encode(contentFields) : null;
+            if (stored != null) {
+                doc.add(new Field(ContentFields.FIELD, stored));
+            }
+            doc.add(new Field(Fingerprint.FIELD, fingerprint.toString(), Store.YES, Index.NO));
+        }
+        metrics.content.record(contentNanos);
+        metrics.xpath.record(xpathNanos);
+        return doc;
     }
 
     /**
-     * Remove an Indexable object from the index.
+     * Run one IndexItem and record its time in the IndexMetrics.
      *
-     * @param indexable the Indexable object which will be removed from the index.
+     * @return the time the IndexItem took, in nanoseconds.
      */
-    public void removeObjectFromIndex(Indexable indexable) {
+    long indexItem(IndexItem item, ContentContainer content, ContentContainer metadata,
+                   ContentContainer systemMetadata, Document doc) {
+        /*
+         * At the moment, the OSDs and Folders do not cache
+         * their responses to getSystemMetadata or getContent.
+         * In a repository with many IndexItems, this would cause
+         * quite some strain on the server's resources.
+         */
+        long start = System.nanoTime();
         try {
-            log.debug("check if index exists");
-            if (!IndexReader.indexExists(indexDir)) {
-                log.debug("Index does not exist.");
-                // nothing to do.
-                return;
-            }
-            if (indexable == null) {
-                log.debug("indexable is NULL");
-                return;
-            }
-            log.debug("creating reader");
-            String id = indexable.uniqueId();
-            log.debug("removing document with id " + id);
-            log.debug("delete document");
-            acquireLock();
-            deleteDocument(new Term("uniqueId", id), 5);
-        } catch (FileNotFoundException f) {
-            log.warn("File not found - if the index does not yet exist, " +
-                    "removeObjectFromIndex is expected to fail", f);
-        } catch (IOException e) {
-            throw new CinnamonException("error.lucene.IO", e);
-        } finally {
-            releaseLock();
+            item.indexObject(content, metadata, systemMetadata, doc);
+        } catch (Exception e) {
+            log.debug("*** failed *** to execute IndexItem " + item.getId(), e);
         }
+        long nanos = System.nanoTime() - start;
+        metrics.recordIndexItem(item, nanos);
+        return nanos;
     }
 
     /**
-     * Delete the documents found by the given Term from this Bridge's index.
+     * Read the content: evaluate the streamable paths in a single pass, or build the DOM if an IndexItem
+     * needs one (it is parsed here rather than by the first IndexItem, so IndexMetrics counts it as content time).
      *
-     * @param term    the search term
-     * @param retries how often to retry deleting the document. Probably useful only
-     *                if other programs / servlets are also interacting with the index.
-     * @throws IOException if anything IO-related goes wrong.
+     * @return true, so the content will be considered parsed, even if there was nothing to stream.
      */
-    void deleteDocument(Term term, Integer retries) throws IOException {
+    Boolean streamSelect(ContentContainer content, Set<String> paths) {
+        if (paths == null) {
+            content.asDocument();
+        } else if (!paths.isEmpty()) {
+            content.streamSelect(paths);
+        }
+        return true;
+    }
+
+    /**
+     * @param item an IndexItem
+     * @return true if the item's fields depend on nothing but the content, so they can be
+     * reused as long as the content does not change.
+     */
+    Boolean isContentOnly(IndexItem item) {
+        if (!item.getForContent() || item.getForMetadata() || item.getForSysMeta()) {
+            return false;
+        }
         try {
-            indexWriter.deleteDocuments(term);
+            return item.fetchCompiledSearchCondition().isAlwaysTrue();
         } catch (Exception e) {
-            log.debug("", e);
-            log.debug("retry-delete document");
-            if (retries != null && retries > 0) {
-                deleteDocument(term, --retries);
+            return false;
+        }
+    }
+
+    /**
+     * Load the fingerprint and the stored content fields of an object's document from the shared searcher.
+     *
+     * @param uniqueId the uniqueId of the object
+     * @return a Document with the fields "fingerprint" and "contentFields", or null if the object is not
+     * indexed, fingerprints are disabled or the object was changed after the searcher was opened.
+     */
+    Document findIndexedDocument(String uniqueId) {
+        if (!fingerprints || recentChanges.containsKey(uniqueId)) {
+            return null;
+        }
+        IndexSearcher searcher = searcherProvider.acquire();
+        try {
+            TermDocs termDocs = searcher.getIndexReader().termDocs(new Term("uniqueId", uniqueId));
+            try {
+                if (termDocs.next()) {
+                    return searcher.doc(termDocs.doc(), FINGERPRINT_FIELDS);
+                }
+                return null;
+            } finally {
+                termDocs.close();
             }
-            indexWriter.commit();
-        } catch (OutOfMemoryError e) {
-            log.warn("OOM-error during indexing:", e);
-            // according to Lucene docs, we should close the writer after OOM-Problems.
-            indexWriter.close();
-            indexWriter = createWriter(indexDir);
+        } catch (IOException e) {
+            log.debug("Failed to load the fingerprint of " + uniqueId, e);
+            return null;
         } finally {
-            unlockIfNecessary();
+            searcherProvider.release(searcher);
         }
     }
 
-
     /**
-     * Remove an old Indexable from the index and add it anew, so
-     * all fields are updated. The hibernateId and class of the indexable
-     * must never be changed (otherwise Lucene will not be able to find
-     * the Indexable in its index and you will be plagued by ghost objects
-     * until the next complete re-index run).
-     *
-     * @param indexable the object to update
+     * @return the sequence number of the last finished index change.
      */
-    public void updateObjectInIndex(Indexable indexable) {
-        log.debug("remove object from index");
-        removeObjectFromIndex(indexable);
-        log.debug("add object to index.");
-        addObjectToIndex(indexable);
+    Long getChangeSequence() {
+        return changeSequence.get();
     }
 
     /**
-     * Fetch the information that every indexed object needs:
-     * a unique id and its class. The fields every object has are:
-     * <ul>
-     * <li>hibernateId: this object's database id</li>
-     * <li>javaClass: the Java class of this object.</li>
-     * <li>uniqueId: the unique combination of javaClass and hibernateId.</li>
-     * </ul>
+     * Called by the SearcherProvider after it has opened a reader which contains all changes up to the given
+     * sequence number: the fingerprints of these objects can be read from the shared searcher again.
      *
-     * @param indexable the indexable whose standard fields will be stored
-     * @param doc       the doc to store the fields in.
+     * @param sequence the result of getChangeSequence() before the reader was opened.
      */
-    void storeStandardFields(Indexable indexable, Document doc) {
-//        log.debug("start. sSF");
-//		log.debug("storeStandardFields: "+indexable.getSystemMetadata());
-        org.dom4j.Document sysMeta = ParamParser.parseXmlToDocument(indexable.getSystemMetadata(),
-                "error.invalid.system_metadata");
-        String hibernateId = sysMeta.valueOf("/sysMeta/@hibernateId");
-        String className = sysMeta.valueOf("/sysMeta/@javaClass");
-        String uniqueId = sysMeta.valueOf("/sysMeta/@id");
-        log.debug("indexing of: " + uniqueId);
-//		log.debug(String.format("adding fields: %s, %s, %s",hibernateId, className, uniqueId));
-        doc.add(new Field("hibernateId", hibernateId, Store.YES, Index.NOT_ANALYZED));
-//        log.debug("stored hibernateId");
-        doc.add(new Field("javaClass", className, Store.YES, Index.NOT_ANALYZED));
-//        log.debug("stored javaClass");
-        doc.add(new Field("uniqueId", uniqueId, Store.YES, Index.NOT_ANALYZED));
-//        log.debug("stored uniqueId");
+    void changesVisible(Long sequence) {
+        for (Map.Entry<String, Long> entry : recentChanges.entrySet()) {
+            if (entry.getValue() <= sequence) {
+                recentChanges.remove(entry.getKey(), entry.getValue());
+            }
+        }
     }
 
     /**
-     * Remove all documents belonging to a given Java class from the
-     * index. <em>Warning</em>: this will remove <i>ALL</remove> documents
-     * and is intended only for clearing an index for testing purposes.
-     * This method is used by server.extension.Initializer.
+     * Check if the content can be indexed in a single streaming pass: this is the case if no IndexItem
+     * needs the content's DOM for its condition and all content IndexItems use a DefaultIndexer
+     * with a streamable XPath (see ContentContainer.isStreamable).
      *
-     * @param clazz Class of the documents you wish to remove.
+     * @param items the IndexItems of this repository
+     * @return the search strings of all content IndexItems, or null if the content must be parsed into a DOM.
      */
-    public void removeClassFromIndex(Class<? extends Indexable> clazz) throws IOException {
-        try {
-            // create index if needed:
-            if (!IndexReader.indexExists(indexDir)) {
-                return;
-                // nothing to do - index is empty.
+    Set<String> findStreamablePaths(List<IndexItem> items) {
+        Set<String> paths = new HashSet<String>();
+        for (IndexItem item : items) {
+            try {
+                if (!item.fetchCompiledSearchCondition().isAlwaysTrue()) {
+                    return null;
+                }
+            } catch (Exception e) {
+                // an invalid condition is never true and does not need the content.
+                continue;
             }
-            indexWriter.deleteDocuments(new Term("javaClass", clazz.getName()));
-            indexWriter.commit();
-        } catch (IOException e) {
-            log.warn("IOException occurred during removeClassFromIndex", e);
-            throw new CinnamonException("error.lucene.IO", e);
-        } catch (OutOfMemoryError e) {
-            indexWriter.close();
-            indexWriter = createWriter(indexDir);
-        } finally {
-            unlockIfNecessary();
+            if (!item.getForContent()) {
+                continue;
+            }
+            if (!ContentContainer.isStreamable(item.getSearchString())
+                    || !(item.getIndexType().getIndexer() instanceof DefaultIndexer)) {
+                return null;
+            }
+            paths.add(item.getSearchString());
         }
+        return paths;
     }
 
-    String getRepository() {
-        return repository;
+    /**
+     * Create a new IndexBatch which collects index changes and commits them together.
+     * The batch is configured by the lucene.properties maxBatchSize and maxCommitLatency.
+     *
+     * @param jobDao DAO used to delete the IndexJobs of the batch after a successful commit. May be null.
+     * @return a new IndexBatch for this bridge.
+     */
+    public IndexBatch createBatch(IndexJobDAO jobDao) {
+        Integer maxBatchSize = Integer.parseInt(luceneProperties.getProperty("maxBatchSize", "500"));
+        Long maxCommitLatency = Long.parseLong(luceneProperties.getProperty("maxCommitLatency", "2000"));
+        return new IndexBatch(this, jobDao, maxBatchSize, maxCommitLatency);
     }
 
     /**
-     * Lucene caches the available index items for performance reasons.
-     * If you need to update the IndexItem cache without a server restart,
-     * call setIndexItemList(indexItemDao.list()).
-     * Note: you should do this only in a synchronized context or during testing,
-     * when no Lucene indexing is ongoing.
+     * Replace the document of an Indexable in the IndexWriter's buffer <em>without</em> committing the change.
+     * The change becomes durable with the next call to commit().
      *
-     * @param items the List of IndexItem objects which will be used from now on.
+     * @param indexableObj the object to update. If it no longer exists in the database, its
+     *                     document is removed from the index.
+     * @return false if the indexed document was up to date (see Fingerprint) and nothing was changed.
      */
-    public void setIndexItemList(List<IndexItem> items) {
-        iiList = items;
+    Boolean stageUpdate(Indexable indexableObj) {
+        return stageUpdate(indexableObj, ChangeScope.ALL);
+    }
+
+    /**
+     * Replace the document of an Indexable in the IndexWriter's buffer <em>without</em> committing the change.
+     *
+     * @param indexableObj the object to update. If it no longer exists in the database, its
+     *                     document is removed from the index.
+     * @param scope        the part of the object which was changed.
+     * @return false if the indexed document was up to date (see Fingerprint) and nothing was changed.
+     */
+    Boolean stageUpdate(Indexable indexableObj, ChangeScope scope) {
+        return stageUpdate(indexableObj, scope, null);
+    }
+
+    /**
+     * Replace the document of an Indexable in the IndexWriter's buffer <em>without</em> committing the change.
+     *
+     * @param indexableObj the object to update. If it no longer exists in the database, its
+     *                     document is removed from the index.
+     * @param scope        the part of the object which was changed.
+     * @param job          the IndexJob which requested the update, or null. If the content was skipped
+     *                     temporarily, the job is marked for a retry (see retryLater).
+     * @return false if the indexed document was up to date (see Fingerprint) and nothing was changed.
+     */
+    Boolean stageUpdate(Indexable indexableObj, ChangeScope scope, IndexJob job) {
+        long start = System.nanoTime();
+        Indexable indexable = indexableObj.reload();
+        if (indexable == null) {
+            log.debug("Indexable Object " + indexableObj.uniqueId() + " no longer exists in the database.");
+            stageRemove(indexableObj);
+            return true;
+        }
+        recordChange(indexable);
+        String uniqueId = indexable.uniqueId();
+        IndexData data = loadIndexData(indexable, false, scope);
+        metrics.load.record(System.nanoTime() - start);
+        Document doc = createDocument(data, findIndexedDocument(data));
+        if (doc == null) {
+            return false;
+        }
+        stageDocument(uniqueId, doc);
+        if (job != null) {
+            job.retry = retryLater(data);
+        }
+        return true;
+    }
+
+    /**
+     * Check whether an object must be indexed again because its content was skipped for a temporary reason
+     * (an extraction timeout, a full extraction queue or an OutOfMemoryError, see ContentContainer.isSkippedTemporarily).
+     * Its document has been indexed without the content fields; the IndexJob is kept, so the next run of the
+     * IndexServer tries again. After extractionRetries attempts, the object keeps the document without content.
+     *
+     * @param data the IndexData of a document which has been staged
+     * @return true if the IndexJob of the object must be kept.
+     */
+    Boolean retryLater(IndexData data) {
+        String uniqueId = data.getUniqueId();
+        if (!data.getContent().isSkippedTemporarily()) {
+            retries.remove(uniqueId);
+            return false;
+        }
+        Integer attempts = retries.get(uniqueId);
+        attempts = attempts == null ? 1 : attempts + 1;
+        if (attempts > extractionRetries) {
+            retries.remove(uniqueId);
+            log.warn(String.format("The content of %s was skipped (%s) %d times; it stays indexed without content.",
+                    uniqueId, data.getContent().getSkipReason(), attempts));
+            return false;
+        }
+        retries.put(uniqueId, attempts);
+        log.debug("content of " + uniqueId + " was skipped temporarily, keeping its IndexJob (attempt " + attempts + ").");
+        return true;
+    }
+
+    /**
+     * Replace the document with the given uniqueId in the IndexWriter's buffer without committing the change.
+     * May be called by multiple threads at once.
+     *
+     * @param uniqueId the uniqueId of the indexed object
+     * @param doc      the new Lucene document of the object
+     */
+    void stageDocument(String uniqueId, Document doc) {
+        IndexWriter writer = acquireWriter();
+        Boolean failed = false;
+        recentChanges.put(uniqueId, Long.MAX_VALUE);
+        long start = System.nanoTime();
+        try {
+            writer.updateDocument(new Term("uniqueId", uniqueId), doc);
+            searcherProvider.indexChanged();
+            metrics.addDocument.record(System.nanoTime() - start);
+            metrics.documentIndexed();
+        } catch (OutOfMemoryError e) {
+            log.warn("OOM-error during indexing:", e);
+            failed = true;
+        } catch (CorruptIndexException e) {
+            log.error("Lucene Index has been corrupted!", e);
+            failed = true;
+        } catch (IOException e) {
+            log.debug("IOException during indexing.", e);
+            throw new CinnamonException("error.lucene.IO", e);
+        } finally {
+            releaseWriter();
+            recentChanges.put(uniqueId, changeSequence.incrementAndGet());
+        }
+        if (failed) {
+            recreateWriter(writer);
+            throw new CinnamonException("error.add.to.index");
+        }
+    }
+
+    /**
+     * Remove the document of an Indexable from the IndexWriter's buffer <em>without</em> committing the change.
+     *
+     * @param indexable the object to remove from the index.
+     */
+    void stageRemove(Indexable indexable) {
+        recordChange(indexable);
+        String uniqueId = indexable.uniqueId();
+        recentChanges.put(uniqueId, Long.MAX_VALUE);
+        try {
+            deleteDocuments(new Term("uniqueId", uniqueId), "error.remove.from.index");
+        } finally {
+            recentChanges.put(uniqueId, changeSequence.incrementAndGet());
+        }
+    }
+
+    /**
+     * Delete all documents matching the term from the IndexWriter's buffer without committing the change.
+     *
+     * @param term     the term which identifies the documents
+     * @param errorKey the message key of the exception if the writer had to be re-created.
+     */
+    void deleteDocuments(Term term, String errorKey) {
+        IndexWriter writer = acquireWriter();
+        Boolean failed = false;
+        try {
+            writer.deleteDocuments(term);
+            searcherProvider.indexChanged();
+        } catch (OutOfMemoryError e) {
+            log.warn("OOM-error during indexing:", e);
+            failed = true;
+        } catch (CorruptIndexException e) {
+            log.error("Lucene Index has been corrupted!", e);
+            failed = true;
+        } catch (IOException e) {
+            throw new CinnamonException("error.lucene.IO", e);
+        } finally {
+            releaseWriter();
+        }
+        if (failed) {
+            recreateWriter(writer);
+            throw new CinnamonException(errorKey);
+        }
+    }
+
+    /**
+     * Commit all changes buffered by the IndexWriter, which makes them durable.
+     * Changes staged by other threads at the same time may be included in this commit.
+     */
+    public void commit() {
+        commitWriter();
+    }
+
+    /**
+     * Commit the changes staged since getWriterGeneration() returned the given generation.
+     * If the IndexWriter was re-created in the meantime, for example after another thread ran out of memory,
+     * the changes were discarded with the old writer.
+     *
+     * @param generation the writer generation before the changes were staged
+     * @param errorKey   the message key of the exception if the changes were lost.
+     */
+    void commitStaged(Long generation, String errorKey) {
+        if (commitWriter() > generation) {
+            throw new CinnamonException(errorKey);
+        }
+    }
+
+    /**
+     * Commit all changes buffered by the IndexWriter, see commit().
+     *
+     * @return the generation of the committed writer. Changes which were staged to an older
+     * generation have been discarded and are not part of the commit.
+     */
+    Long commitWriter() {
+        IndexWriter writer = acquireWriter();
+        Long generation = writerGeneration;
+        Boolean failed = false;
+        long start = System.nanoTime();
+        try {
+            writer.commit();
+            searcherProvider.indexChanged();
+            metrics.commit.record(System.nanoTime() - start);
+        } catch (OutOfMemoryError e) {
+            log.warn("OOM-error during commit:", e);
+            failed = true;
+        } catch (CorruptIndexException e) {
+            log.error("Lucene Index has been corrupted!", e);
+            failed = true;
+        } catch (IOException e) {
+            log.debug("IOException during commit.", e);
+            throw new CinnamonException("error.lucene.IO", e);
+        } finally {
+            releaseWriter();
+        }
+        if (failed) {
+            recreateWriter(writer);
+            throw new CinnamonException("error.lucene.commit");
+        }
+        return generation;
+    }
+
+    /**
+     * @return the current writer generation. Read it <em>before</em> staging a change: the change then belongs
+     * to this generation or a newer one, and commitWriter tells whether it may have been lost.
+     */
+    Long getWriterGeneration() {
+        return writerGeneration;
+    }
+
+    /**
+     * According to the Lucene docs, the IndexWriter should be closed after an OOM-error.
+     * Waits for exclusive access to the writer, so all operations which still use the failed
+     * writer finish first. If another thread has already replaced the failed writer, nothing happens.
+     * All changes which were not committed by the failed writer are lost - including those staged by
+     * other threads - so the writerGeneration is incremented.
+     * Must not be called while holding the shared lock (a read lock cannot be upgraded).
+     *
+     * @param failed the writer which threw the error.
+     */
+    void recreateWriter(IndexWriter failed) {
+        try {
+            if (!writerLock.writeLock().tryLock(lockTimeout, TimeUnit.MILLISECONDS)) {
+                throw new CinnamonException("error.timeout_waiting_for_lucene_lock");
+            }
+        } catch (InterruptedException e) {
+            throw new CinnamonException("error.interrupted_while_waiting_for_lucene_lock");
+        }
+        try {
+            if (indexWriter != failed) {
+                log.debug("IndexWriter has already been re-created.");
+                return;
+            }
+            try {
+                failed.close();
+            } catch (IOException e) {
+                log.warn("Failed to close IndexWriter:", e);
+            } finally {
+                indexWriter = createWriter(indexDir);
+                writerGeneration++;
+                searcherProvider.indexChanged();
+            }
+        } finally {
+            writerLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Register a rebuild of this bridge's index. While it runs, all changes to the live index are recorded
+     * so they can be replayed on the new index.
+     *
+     * @param indexRebuild the new rebuild
+     * @return false if another rebuild is already running.
+     */
+    Boolean beginRebuild(IndexRebuild indexRebuild) {
+        return rebuild.compareAndSet(null, indexRebuild);
+    }
+
+    /**
+     * Unregister a rebuild which failed. The live index stays in use.
+     */
+    void abortRebuild(IndexRebuild indexRebuild) {
+        rebuild.compareAndSet(indexRebuild, null);
+    }
+
+    /**
+     * Register an IndexItemReindex, unless another one is running: then the new one's IndexItems are
+     * handed to it, so overlapping reindexes do not scan the repository and queue the same objects twice.
+     *
+     * @param indexItemReindex the new reindex
+     * @return false if the IndexItems were handed to the running reindex, so the new one must not run.
+     */
+    Boolean beginReindex(IndexItemReindex indexItemReindex) {
+        while (true) {
+            IndexItemReindex current = reindex.get();
+            if (current == null) {
+                if (reindex.compareAndSet(null, indexItemReindex)) {
+                    return true;
+                }
+            } else if (current.add(indexItemReindex.items)) {
+                return false;
+            } else {
+                // the running reindex has finished, but has not unregistered yet.
+                reindex.compareAndSet(current, null);
+            }
+        }
+    }
+
+    /**
+     * Unregister an IndexItemReindex which has finished.
+     */
+    void endReindex(IndexItemReindex indexItemReindex) {
+        reindex.compareAndSet(indexItemReindex, null);
+    }
+
+    /**
+     * Tell a running rebuild that an object is about to be changed in the live index.
+     */
+    void recordChange(Indexable indexable) {
+        IndexRebuild current = rebuild.get();
+        if (current != null) {
+            current.changed(indexable);
+        }
+    }
+
+    /**
+     * @return a new, empty folder for a rebuilt index next to the current one.
+     */
+    File createRebuildFolder() {
+        File folder = new File(indexFolder.getParentFile(), repository + "." + System.currentTimeMillis());
+        if (!folder.mkdirs()) {
+            throw new CinnamonException("error.lucene.IO", folder.getAbsolutePath());
+        }
+        return folder;
+    }
+
+    /**
+     * Create an IndexWriter for an IndexRebuild: it always creates a new index and flushes its
+     * documents only when the RAM buffer is full.
+     *
+     * @param dir           the Directory of the new index
+     * @param ramBufferSize the size of the RAM buffer in MB
+     * @return a new IndexWriter
+     * @throws IOException if the writer cannot be created.
+     */
+    IndexWriter createRebuildWriter(Directory dir, Double ramBufferSize) throws IOException {
+        IndexWriterConfig writerConfig = new IndexWriterConfig(Version.LUCENE_34, analyzer);
+        writerConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        writerConfig.setRAMBufferSizeMB(ramBufferSize);
+        writerConfig.setMaxBufferedDocs(IndexWriterConfig.DISABLE_AUTO_FLUSH);
+        return new IndexWriter(dir, writerConfig);
+    }
+
+    /**
+     * Replace the live index with a rebuilt one. Waits for all running index operations, then closes
+     * the live IndexWriter, opens a new one on the rebuilt index and makes the new index the current
+     * one (see findIndexFolder). The old index folder is deleted, if possible.
+     * If the swap fails, the old index stays the live index, so the caller may delete the rebuilt folder.
+     *
+     * @param indexRebuild the finished rebuild
+     * @param folder       the folder of the rebuilt index
+     * @param dir          the Directory of the rebuilt index; its writer must be closed.
+     * @return the IndexJobs for all objects which were changed during the rebuild.
+     */
+    Collection<IndexJob> swapIndex(IndexRebuild indexRebuild, File folder, Directory dir) {
+        File oldFolder;
+        Directory oldDir;
+        Collection<IndexJob> replay;
+        writerLock.writeLock().lock();
+        try {
+            // if the pointer cannot be written, the live index is still unchanged.
+            writeIndexPointer(folder);
+            try {
+                indexWriter.close();
+            } catch (IOException e) {
+                log.warn("Failed to close the IndexWriter of the old index:", e);
+            }
+            oldFolder = indexFolder;
+            oldDir = indexDir;
+            indexFolder = folder;
+            indexDir = dir;
+            try {
+                indexWriter = createWriter(dir);
+            } catch (RuntimeException e) {
+                // go back to the old index, so the caller may delete the rebuilt folder.
+                indexFolder = oldFolder;
+                indexDir = oldDir;
+                indexWriter = createWriter(oldDir);
+                writeIndexPointer(oldFolder);
+                throw e;
+            }
+            rebuild.compareAndSet(indexRebuild, null);
+            replay = indexRebuild.changes.values();
+            // the shared searcher still shows the old index: do not compare fingerprints until it is refreshed.
+            Long sequence = changeSequence.incrementAndGet();
+            for (String uniqueId : indexRebuild.changes.keySet()) {
+                recentChanges.put(uniqueId, sequence);
+            }
+            searcherProvider.indexChanged();
+        } finally {
+            writerLock.writeLock().unlock();
+        }
+        try {
+            searcherProvider.maybeRefresh();
+        } catch (IOException e) {
+            log.warn("Failed to refresh the IndexSearcher after the index swap:", e);
+        }
+        if (oldDir != dir) {
+            try {
+                oldDir.close();
+            } catch (IOException e) {
+                log.warn("Failed to close the Directory of the old index:", e);
+            }
+        }
+        if (!oldFolder.equals(folder) && !deleteFolder(oldFolder)) {
+            log.warn("Could not delete the old index folder " + oldFolder.getAbsolutePath()
+                    + " (it may still be in use). Please delete it manually.");
+        }
+        return replay;
+    }
+
+    void writeIndexPointer(File folder) {
+        File pointer = new File(folder.getParentFile(), repository + ".current");
+        File tmp = new File(folder.getParentFile(), repository + ".current.tmp");
+        try {
+            Files.write(tmp.toPath(), folder.getName().getBytes("UTF-8"));
+            Files.move(tmp.toPath(), pointer.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new CinnamonException("error.lucene.IO", e, pointer.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Delete a folder and all its files.
+     *
+     * @return true if the folder no longer exists.
+     */
+    static Boolean deleteFolder(File folder) {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteFolder(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        return folder.delete() || !folder.exists();
+    }
+
+    /**
+     * Search for all documents matching the given params, which must be an
+     * Lucene XML-Query-Parser document.
+     *
+     * @param params input for XML-Query-Parser
+     * @return a ResultCollector, which contains a collection of all documents found.
+     */
+    public ResultCollector search(String params) {
+        return search(params, null);
+    }
+
+    /**
+     * Search for all documents matching the given params which the user may browse.
+     *
+     * @param params input for XML-Query-Parser
+     * @param user   the user whose permissions restrict the result (see SecurityFilterCache).
+     *               If null, the result is not restricted.
+     * @return a ResultCollector, which contains a collection of all documents found.
+     */
+    public ResultCollector search(String params, User user) {
+        log.debug("starting search");
+        ResultCollector results = new ResultCollector(maxSearchHits);
+        IndexSearcher searcher = null;
+        try {
+            Query query = parseXmlQuery(params);
+            Filter filter = findSecurityFilter(user);
+            searcher = searcherProvider.acquire();
+            results.setSearcher(searcher);
+            ResultCache.Hits hits = findHits(searcher, "xml:" + QueryCache.normalize(params), query, false);
+            if (hits == null) {
+                searcher.search(query, filter, results);
+            } else {
+                int[] docs = hits.getDocs();
+                boolean[] visible = ResultCache.findVisible(searcher, filter, docs);
+                for (int i = 0; i < docs.length; i++) {
+                    if (visible[i]) {
+                        results.addHit(docs[i]);
+                    }
+                }
+            }
+            // load the hits' ID fields while the searcher is still open.
+            results.loadDocuments();
+        } catch (IOException e) {
+            throw new CinnamonException("error.lucene.IO", e);
+        } catch (ParserException e) {
+            throw new CinnamonException("error.parsing.lucene.query", e, params);
+        } finally {
+            searcherProvider.release(searcher);
+        }
+        log.debug("finished search; results: " + results.getDocuments().size());
+        return results;
+    }
+
+    /**
+     * Count the hits of an XML query which the user may browse by the values of the facet fields
+     * (lucene.properties: facetFields, see FacetCollector), without loading any document.
+     *
+     * @param params input for XML-Query-Parser
+     * @param user   the user whose permissions restrict the counts. May be null.
+     * @return the counts by field and value, the most frequent values first.
+     */
+    public Map<String, Map<String, Integer>> countFacets(String params, User user) {
+        IndexSearcher searcher = null;
+        try {
+            Query query = parseXmlQuery(params);
+            Filter filter = findSecurityFilter(user);
+            searcher = searcherProvider.acquire();
+            FacetCollector facets = new FacetCollector(facetFields, maxFacetValues);
+            ResultCache.Hits hits = findHits(searcher, "xml:" + QueryCache.normalize(params), query, false);
+            if (hits == null) {
+                searcher.search(query, filter, facets);
+            } else {
+                facets.collect(searcher, hits.getDocs(), ResultCache.findVisible(searcher, filter, hits.getDocs()));
+            }
+            return facets.getFacets();
+        } catch (IOException e) {
+            throw new CinnamonException("error.lucene.IO", e);
+        } catch (ParserException e) {
+            throw new CinnamonException("error.parsing.lucene.query", e, params);
+        } finally {
+            searcherProvider.release(searcher);
+        }
+    }
+
+    /**
+     * Create the parser for XML queries. The CoreParser creates a new QueryParser for each
+     * user query, so one instance may be shared by all threads.
+     *
+     * @return a CoreParser with Cinnamon's additional query builders.
+     */
+    CoreParser createCoreParser() {
+        CoreParser parser = new CoreParser("content", analyzer);
+        parser.addQueryBuilder("WildcardQuery", new WildcardQueryBuilder());
+        parser.addQueryBuilder("RegexQuery", new RegexQueryBuilder());
+        parser.addQueryBuilder("NumericRangeQuery", new NumericRangeQueryBuilder());
+        return parser;
+    }
+
+    /**
+     * Parse an XML query, or fetch it from the QueryCache if the same query was parsed before.
+     *
+     * @param params input for XML-Query-Parser
+     * @return the parsed query. It may be shared with other threads and must not be modified.
+     */
+    Query parseXmlQuery(String params) throws ParserException, UnsupportedEncodingException {
+        String key = QueryCache.normalize(params);
+        Query query = queryCache.get(key);
+        if (query == null) {
+            query = coreParser.parse(new ByteArrayInputStream(key.getBytes("UTF-8")));
+            queryCache.put(key, query);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(queryCache.getStatistics());
+        }
+        return query;
+    }
+
+    /**
+     * @return the cache of parsed XML queries, which reports how often queries are repeated.
+     */
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Fetch the hits of a query for all users from the ResultCache, or search for them and cache them.
+     * The caller must trim the hits to those the user may browse (see ResultCache.findVisible).
+     *
+     * @param searcher the searcher which will use the hits
+     * @param key      the normalized query, including everything else which affects its hits.
+     * @param query    the parsed query
+     * @param scored   true if the hits must be ordered by relevance, false for index order.
+     * @return the hits, or null if the caller has to search itself: the cache is disabled, the searcher
+     * has already been replaced or the query has more than resultCacheMaxHits hits.
+     */
+    ResultCache.Hits findHits(IndexSearcher searcher, String key, Query query, Boolean scored) throws IOException {
+        if (!resultCache.isEnabled()) {
+            return null;
+        }
+        Long generation = searcherProvider.getGeneration(searcher);
+        if (generation < 0) {
+            return null;
+        }
+        ResultCache.Hits hits = resultCache.get(key, generation);
+        if (hits == null) {
+            HitListCollector collector = new HitListCollector(resultCache.getMaxHits(), scored);
+            searcher.search(query, null, collector);
+            hits = collector.toHits(generation);
+            resultCache.put(key, hits);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(resultCache.getStatistics());
+        }
+        return hits.isComplete() ? hits : null;
+    }
+
+    /**
+     * @return the cache of search results before the permission check.
+     */
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * @return the ResultCache key of a text query. The page is not part of it, as the
+     * cached hits contain all pages.
+     */
+    static String textQueryKey(String queryString, String[] fields) {
+        return "text:" + Arrays.toString(fields) + ":" + queryString;
+    }
+
+
+    /**
+     * Search for documents matching the given input. Returns the top maxResults items.
+     *
+     * @param queryString text query params
+     * @return a ResultCollector, which contains a collection of all documents found.
+     */
+    public SearchResult searchMultipleFields(String queryString, Integer page, Integer pageSize, String[] fields) {
+        return searchMultipleFields(queryString, page, pageSize, fields, null);
+    }
+
+    /**
+     * Search for documents matching the given input which the user may browse. As the permissions are
+     * checked by the search itself, every page is complete and totalResults only counts visible documents.
+     *
+     * @param queryString text query params
+     * @param user        the user whose permissions restrict the result (see SecurityFilterCache).
+     *                    If null, the result is not restricted.
+     * @return a SearchResult with the requested page.
+     */
+    public SearchResult searchMultipleFields(String queryString, Integer page, Integer pageSize, String[] fields,
+                                             User user) {
+        return searchMultipleFields(queryString, page, pageSize, fields, user, null);
+    }
+
+    /**
+     * Search like searchMultipleFields and count all visible hits by the values of the facet fields
+     * (lucene.properties: facetFields, see FacetCollector). The counts are returned with the page
+     * (see SearchResult.getFacets), so the client needs neither all hits nor the objects to show them.
+     *
+     * @param queryString text query params
+     * @param user        the user whose permissions restrict the result and the counts. May be null.
+     * @return a SearchResult with the requested page and the facet counts.
+     */
+    public SearchResult searchWithFacets(String queryString, Integer page, Integer pageSize, String[] fields, User user) {
+        return searchMultipleFields(queryString, page, pageSize, fields, user, facetFields);
+    }
+
+    SearchResult searchMultipleFields(String queryString, Integer page, Integer pageSize, String[] fields,
+                                      User user, String[] facetFields) {
+        log.debug("starting search");
+        SearchResult searchResult = null;
+        IndexSearcher searcher = null;
+        try {
+            Query query = parseMultiFieldQuery(queryString, fields);
+            Filter filter = findSecurityFilter(user);
+            searcher = searcherProvider.acquire();
+            Integer startingResult = page*pageSize;
+            Integer endResult = startingResult + pageSize-1;
+            ResultCache.Hits cached = findHits(searcher, textQueryKey(queryString, fields), query, true);
+            FacetCollector facets = facetFields == null ? null : new FacetCollector(facetFields, maxFacetValues);
+            TopDocs hits;
+            if (cached == null && facets == null) {
+                hits = searcher.search(query, filter, endResult+1);
+            } else if (cached == null) {
+                // one pass for the page and the counts.
+                TopScoreDocCollector topDocs = TopScoreDocCollector.create(endResult + 1, true);
+                searcher.search(query, filter, MultiCollector.wrap(topDocs, facets));
+                hits = topDocs.topDocs();
+            } else {
+                boolean[] visible = ResultCache.findVisible(searcher, filter, cached.getDocs());
+                hits = cached.topDocs(visible, null, endResult + 1);
+                if (facets != null) {
+                    facets.collect(searcher, cached.getDocs(), visible);
+                }
+            }
+            searchResult = new SearchResult(hits, searcher, startingResult, pageSize);
+            if (facets != null) {
+                searchResult.setFacets(facets.getFacets());
+            }
+            log.debug("finished search; totalResults: "+searchResult.totalResults);
+        } catch (IOException e) {
+            throw new CinnamonException("error.lucene.IO", e);
+        } catch (ParseException e) {
+            throw new CinnamonException("error.parsing.lucene.query", e, queryString);
+        } finally {
+            searcherProvider.release(searcher);
+        }
+
+        return searchResult;
+    }
+
+    /**
+     * Search for documents matching the given input and return the page after the given cursor.
+     * In contrast to searchMultipleFields, which collects all hits up to the requested page, the memory used
+     * does not depend on how deep the client pages into the result. The SearchResult contains the cursor
+     * of the next page, or null if this is the last page.
+     * <p>A cursor is only valid until the shared searcher is refreshed (at most every searcherRefreshInterval ms,
+     * if the index was changed). Afterwards, its document number may point to another hit, so the cursor is
+     * rejected with error.search_cursor_expired and the client has to start again with the first page
+     * (see SearchCursor).</p>
+     *
+     * @param queryString text query params
+     * @param cursor      the cursor returned with the previous page, or null for the first page.
+     * @param pageSize    number of hits per page
+     * @param fields      the fields to search
+     * @param user        the user whose permissions restrict the result (see SecurityFilterCache). May be null.
+     * @return a SearchResult with the requested page.
+     */
+    public SearchResult searchAfter(String queryString, String cursor, Integer pageSize, String[] fields, User user) {
+        log.debug("starting searchAfter");
+        SearchResult searchResult;
+        IndexSearcher searcher = null;
+        try {
+            Query query = parseMultiFieldQuery(queryString, fields);
+            Filter filter = findSecurityFilter(user);
+            searcher = searcherProvider.acquire();
+            Long generation = searcherProvider.getGeneration(searcher);
+            ScoreDoc after = cursor == null ? null : SearchCursor.decode(cursor, generation);
+            ResultCache.Hits cached = findHits(searcher, textQueryKey(queryString, fields), query, true);
+            TopDocs hits;
+            if (cached == null) {
+                hits = searcher.searchAfter(after, query, filter, pageSize);
+            } else {
+                hits = cached.topDocs(ResultCache.findVisible(searcher, filter, cached.getDocs()), after, pageSize);
+            }
+            searchResult = new SearchResult(hits, searcher, 0, pageSize);
+            ScoreDoc[] scoreDocs = hits.scoreDocs;
+            if (scoreDocs.length == pageSize && scoreDocs.length > 0) {
+                searchResult.setCursor(SearchCursor.encode(generation, scoreDocs[scoreDocs.length - 1]));
+            }
+            log.debug("finished searchAfter; totalResults: " + searchResult.totalResults);
+        } catch (IOException e) {
+            throw new CinnamonException("error.lucene.IO", e);
+        } catch (ParseException e) {
+            throw new CinnamonException("error.parsing.lucene.query", e, queryString);
+        } finally {
+            searcherProvider.release(searcher);
+        }
+        return searchResult;
+    }
+
+    Query parseMultiFieldQuery(String queryString, String[] fields) throws ParseException {
+//        MultiFieldQueryParser queryParser = new MultiFieldQueryParser(Version.LUCENE_31,fields, analyzer);
+        BooleanClause.Occur[] flags = new BooleanClause.Occur[fields.length];
+        for(int x = 0; x < flags.length; x++){
+            flags[x] = BooleanClause.Occur.SHOULD;
+        }
+        return MultiFieldQueryParser.parse(Version.LUCENE_34,queryString ,fields, flags,analyzer );
+    }
+
+    /**
+     * @param user the user who searches. May be null.
+     * @return a Filter which accepts only documents the user may browse, or null if no filtering is needed
+     * (no user, a superuser, or securityFilter=false in lucene.properties).
+     */
+    Filter findSecurityFilter(User user) {
+        if (user == null || !securityFilter) {
+            return null;
+        }
+        return securityFilters.getFilter(user, HibernateSession.getLocalEntityManager(), folderAclsIndexed());
+    }
+
+    /**
+     * Check whether every indexed folder has an ACL field (see CinnamonIndexInitializer.INDEX_FOLDER_ACL).
+     * Adding the IndexItem is not enough: the folders which were indexed before need a re-index. Until then,
+     * folders must not be filtered by ACL, as those without the field would not be found.
+     * The result is cached until the shared searcher is refreshed.
+     *
+     * @return true if no indexed folder lacks the ACL field.
+     */
+    Boolean folderAclsIndexed() {
+        IndexSearcher searcher = searcherProvider.acquire();
+        try {
+            Long generation = searcherProvider.getGeneration(searcher);
+            long[] check = folderAclCheck;
+            if (generation >= 0 && check[0] == generation) {
+                return check[1] == 1;
+            }
+            BooleanQuery withoutAcl = new BooleanQuery();
+            withoutAcl.add(new TermQuery(new Term("javaClass", Folder.class.getName())), BooleanClause.Occur.MUST);
+            withoutAcl.add(new TermRangeQuery(Constants.FIELD_ACL, null, null, true, true), BooleanClause.Occur.MUST_NOT);
+            TotalHitCountCollector counter = new TotalHitCountCollector();
+            searcher.search(withoutAcl, counter);
+            Boolean indexed = counter.getTotalHits() == 0;
+            if (!indexed) {
+                log.debug(counter.getTotalHits() + " indexed folders have no ACL field; folders are not filtered by ACL.");
+            }
+            folderAclCheck = new long[]{generation, indexed ? 1 : 0};
+            return indexed;
+        } catch (IOException e) {
+            throw new CinnamonException("error.lucene.IO", e);
+        } finally {
+            searcherProvider.release(searcher);
+        }
+    }
+
+    /**
+     * Remove an Indexable object from the index.
+     *
+     * @param indexable the Indexable object which will be removed from the index.
+     */
+    public void removeObjectFromIndex(Indexable indexable) {
+        try {
+            log.debug("check if index exists");
+            if (!IndexReader.indexExists(indexDir)) {
+                log.debug("Index does not exist.");
+                // nothing to do.
+                return;
+            }
+        } catch (IOException e) {
+            throw new CinnamonException("error.lucene.IO", e);
+        }
+        if (indexable == null) {
+            log.debug("indexable is NULL");
+            return;
+        }
+        log.debug("removing document with id " + indexable.uniqueId());
+        Long generation = getWriterGeneration();
+        stageRemove(indexable);
+        commitStaged(generation, "error.remove.from.index");
+    }
+
+    /**
+     * Replace the document of an Indexable with a new one, so all fields are updated.
+     * The old document is found by the uniqueId, so the hibernateId and class of the indexable
+     * must never be changed (otherwise Lucene will not be able to find
+     * the Indexable in its index and you will be plagued by ghost objects
+     * until the next complete re-index run). If the object no longer exists
+     * in the database, its document is removed.
+     *
+     * @param indexable the object to update
+     */
+    public void updateObjectInIndex(Indexable indexable) {
+        updateObjectInIndex(indexable, ChangeScope.ALL);
+    }
+
+    /**
+     * Update the document of an object of which only a part was changed (see ChangeScope).
+     *
+     * @param indexable the object to update
+     * @param scope     the part of the object which was changed, for example LocalRepository.getChangeScope(indexable).
+     */
+    public void updateObjectInIndex(Indexable indexable, ChangeScope scope) {
+        Long generation = getWriterGeneration();
+        stageUpdate(indexable, scope);
+        commitStaged(generation, "error.add.to.index");
+    }
+
+    /**
+     * Fetch the information that every indexed object needs:
+     * a unique id and its class. The fields every object has are:
+     * <ul>
+     * <li>hibernateId: this object's database id</li>
+     * <li>javaClass: the Java class of this object.</li>
+     * <li>uniqueId: the unique combination of javaClass and hibernateId.</li>
+     * </ul>
+     *
+     * @param data the IndexData of the indexable whose standard fields will be stored
+     * @param doc  the doc to store the fields in.
+     */
+    void storeStandardFields(IndexData data, Document doc) {
+        log.debug("indexing of: " + data.getUniqueId());
+        doc.add(new Field("hibernateId", data.getHibernateId(), Store.YES, Index.NOT_ANALYZED));
+        doc.add(new Field("javaClass", data.getJavaClass(), Store.YES, Index.NOT_ANALYZED));
+        doc.add(new Field("uniqueId", data.getUniqueId(), Store.YES, Index.NOT_ANALYZED));
+    }
+
+    /**
+     * Remove all documents belonging to a given Java class from the
+     * index. <em>Warning</em>: this will remove <i>ALL</remove> documents
+     * and is intended only for clearing an index for testing purposes.
+     * This method is used by server.extension.Initializer.
+     *
+     * @param clazz Class of the documents you wish to remove.
+     */
+    public void removeClassFromIndex(Class<? extends Indexable> clazz) throws IOException {
+        if (!IndexReader.indexExists(indexDir)) {
+            return;
+            // nothing to do - index is empty.
+        }
+        deleteDocuments(new Term("javaClass", clazz.getName()), "error.remove.from.index");
+        commit();
+    }
+
+    String getRepository() {
+        return repository;
+    }
+
+    IndexWriter getIndexWriter() {
+        return indexWriter;
+    }
+
+    SearcherProvider getSearcherProvider() {
+        return searcherProvider;
+    }
+
+    /**
+     * @return the indexing metrics of this repository, which are also available via JMX.
+     */
+    public IndexMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Stop the background refresh of the shared IndexSearcher and close the IndexWriter.
+     * The bridge must not be used afterwards.
+     */
+    public void close() {
+        metrics.unregister();
+        searcherProvider.close();
+        if (contentExtractor != null) {
+            contentExtractor.shutdown();
+        }
+        writerLock.writeLock().lock();
+        try {
+            indexWriter.close();
+        } catch (IOException e) {
+            throw new CinnamonException("error.lucene.IO", e);
+        } finally {
+            writerLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Lucene caches the available index items for performance reasons.
+     * If you need to update the IndexItem cache without a server restart,
+     * call setIndexItemList(indexItemDao.list()). This is safe while indexing is ongoing:
+     * documents which are being created keep using the previous IndexItems.
+     * The IndexServer reloads the IndexItems periodically (see IndexServer.reloadIndexItems).
+     *
+     * @param items the List of IndexItem objects which will be used from now on.
+     */
+    public void setIndexItemList(List<IndexItem> items) {
+        updateIndexItems(items);
+    }
+
+    /**
+     * Replace the IndexItems with a new snapshot, unless they are unchanged.
+     * The IndexItem objects must not be changed afterwards.
+     *
+     * @param items the List of IndexItem objects which will be used from now on.
+     * @return the added, changed and removed IndexItems (see IndexItemSnapshot.findChanges);
+     * empty if the IndexItems are unchanged.
+     */
+    public List<IndexItem> updateIndexItems(List<IndexItem> items) {
+        List<String> descriptions = new ArrayList<String>(items.size());
+        List<String> contentDescriptions = new ArrayList<String>();
+        for (IndexItem item : items) {
+            String description = describe(item);
+            descriptions.add(description);
+            if (isContentOnly(item)) {
+                contentDescriptions.add(description);
+            }
+        }
+        IndexItemSnapshot snapshot = new IndexItemSnapshot(items, descriptions, contentDescriptions);
+        IndexItemSnapshot previous = indexItems.get();
+        if (previous.getDigest().equals(snapshot.getDigest())) {
+            // keep the IndexItems whose XPaths are already compiled.
+            return Collections.emptyList();
+        }
+        previous = indexItems.getAndSet(snapshot);
+        return previous.findChanges(snapshot);
+    }
+
+    /**
+     * @return the current IndexItems.
+     */
+    public IndexItemSnapshot getIndexItems() {
+        return indexItems.get();
+    }
+
+    /**
+     * @return everything which affects the fields an IndexItem creates, for the digests of the IndexItemSnapshot.
+     */
+    String describe(IndexItem item) {
+        String description = item.getId() + "|" + item.getFieldname() + "|" + item.getSearchString() + "|" + item.getSearchCondition()
+                + "|" + item.getIndexType().getName() + "|" + item.getIndexType().getIndexerClass().getName()
+                + "|" + item.getMultipleResults() + "|" + item.getForContent() + "|" + item.getForMetadata()
+                + "|" + item.getForSysMeta();
+        if (isContentOnly(item) && NumericFields.isNumeric(item.getIndexType().getDataType())) {
+            /*
+             * Content fields stored before NumericFields existed lack the numeric fields, so they
+             * must not be reused. Other items need no marker: their new numeric fields change the
+             * fields digest, and only these items are re-run.
+             */
+            description += "|" + NumericFields.SUFFIX;
+        }
+        return description;
+    }
+
+    /**
+     * Tell all indexers which implement IndexerLifecycle that an indexing run starts.
+     */
+    public void startIndexRun() {
+        for (IndexerLifecycle indexer : findLifecycleIndexers()) {
+            indexer.startIndexRun();
+        }
+    }
+
+    /**
+     * Tell all indexers which implement IndexerLifecycle that the current indexing run has finished.
+     */
+    public void finishIndexRun() {
+        for (IndexerLifecycle indexer : findLifecycleIndexers()) {
+            try {
+                indexer.finishIndexRun();
+            } catch (Exception e) {
+                log.warn("finishIndexRun failed for " + indexer.getClass().getName(), e);
+            }
+        }
+    }
+
+    Set<IndexerLifecycle> findLifecycleIndexers() {
+        Set<IndexerLifecycle> indexers = new HashSet<IndexerLifecycle>();
+        for (IndexItem item : indexItems.get().getItems()) {
+            Indexer indexer = item.getIndexType().getIndexer();
+            if (indexer instanceof IndexerLifecycle) {
+                indexers.add((IndexerLifecycle) indexer);
+            }
+        }
+        return indexers;
     }
 }
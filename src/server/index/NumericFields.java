@@ -0,0 +1,93 @@
+package server.index;
+
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.util.NumericUtils;
+
+/**
+ * Trie-encoded companion fields for the numeric indexers (integer, decimal, date, time and date/time).
+ * <p>These indexers still store their values as zero-padded strings under the IndexItem's field name,
+ * because existing queries and the AclFilter match these terms exactly. In addition, each value is
+ * indexed as a NumericField under fieldName(name), which a NumericRangeQuery can search without
+ * enumerating all terms in the range (see queryBuilder.NumericRangeQueryBuilder).</p>
+ * <p>Integer, date and time values are indexed as long, decimal values as double.</p>
+ */
+public class NumericFields {
+
+    public static final String SUFFIX = "_numeric";
+
+    /**
+     * The precision step of all numeric fields. NumericRangeQueries must use the same value.
+     */
+    public static final int PRECISION_STEP = NumericUtils.PRECISION_STEP_DEFAULT;
+
+    static final int PADDED_LENGTH = 20;
+
+    private NumericFields() {
+    }
+
+    /**
+     * @param name the field name of an IndexItem
+     * @return the name of the numeric companion field.
+     */
+    public static String fieldName(String name) {
+        return name + SUFFIX;
+    }
+
+    /**
+     * @param name  the field name of an IndexItem
+     * @param value the value to index
+     * @return an indexed, not stored NumericField named fieldName(name).
+     */
+    public static NumericField createField(String name, long value) {
+        return new NumericField(fieldName(name), PRECISION_STEP, Store.NO, true).setLongValue(value);
+    }
+
+    /**
+     * @param name  the field name of an IndexItem
+     * @param value the value to index
+     * @return an indexed, not stored NumericField named fieldName(name).
+     */
+    public static NumericField createField(String name, double value) {
+        return new NumericField(fieldName(name), PRECISION_STEP, Store.NO, true).setDoubleValue(value);
+    }
+
+    /**
+     * @param dataType the DataType of an IndexType
+     * @return true if the indexers of this type create numeric fields.
+     */
+    public static Boolean isNumeric(IndexType.DataType dataType) {
+        switch (dataType) {
+            case INTEGER:
+            case DECIMAL:
+            case DATE_TIME:
+            case TIME:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Format a number as a string of 20 digits, which sorts like the number itself
+     * (for values &gt;= 0). Unlike a shared DecimalFormat, this is thread safe and needs no lock.
+     *
+     * @param n the number to format
+     * @return the zero-padded number, with a leading "-" if it is negative.
+     */
+    public static String pad(long n) {
+        String digits = Long.toString(n);
+        Boolean negative = n < 0;
+        if (negative) {
+            digits = digits.substring(1);
+        }
+        StringBuilder result = new StringBuilder(PADDED_LENGTH + 1);
+        if (negative) {
+            result.append('-');
+        }
+        for (int i = digits.length(); i < PADDED_LENGTH; i++) {
+            result.append('0');
+        }
+        return result.append(digits).toString();
+    }
+}
@@ -0,0 +1,105 @@
+package server.index;
+
+import org.apache.lucene.search.Query;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * A least-recently-used cache of parsed Lucene queries, keyed by the normalized XML of the query.
+ * Clients often send the same saved searches again and again, and parsing the XML is the most
+ * expensive part of a small search.
+ * <p>Cached Query objects are shared between threads, so they must not be modified by the caller.</p>
+ */
+public class QueryCache {
+
+    static final Pattern WHITESPACE_BETWEEN_TAGS = Pattern.compile(">\\s+<");
+
+    final Integer maxEntries;
+    final Map<String, Query> queries;
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxEntries the maximum number of cached queries; 0 disables the cache.
+     */
+    public QueryCache(final Integer maxEntries) {
+        this.maxEntries = maxEntries;
+        queries = new LinkedHashMap<String, Query>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Query> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param xml an XML query
+     * @return the key of the query: the XML without leading, trailing and inter-element whitespace.
+     */
+    public static String normalize(String xml) {
+        return WHITESPACE_BETWEEN_TAGS.matcher(xml.trim()).replaceAll("><");
+    }
+
+    /**
+     * @param key a normalized XML query
+     * @return the cached Query, or null.
+     */
+    public Query get(String key) {
+        if (maxEntries <= 0) {
+            misses.incrementAndGet();
+            return null;
+        }
+        Query query;
+        synchronized (queries) {
+            query = queries.get(key);
+        }
+        if (query == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return query;
+    }
+
+    public void put(String key, Query query) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        synchronized (queries) {
+            queries.put(key, query);
+        }
+    }
+
+    public Long getHits() {
+        return hits.get();
+    }
+
+    public Long getMisses() {
+        return misses.get();
+    }
+
+    public Integer size() {
+        synchronized (queries) {
+            return queries.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (queries) {
+            queries.clear();
+        }
+    }
+
+    /**
+     * @return a summary of the cache's hits and misses.
+     */
+    public String getStatistics() {
+        long h = hits.get();
+        long m = misses.get();
+        return String.format("QueryCache: %d entries (max %d), %d hits, %d misses (%.1f%% hit rate)",
+                size(), maxEntries, h, m, h + m > 0 ? 100.0 * h / (h + m) : 0);
+    }
+}
@@ -0,0 +1,315 @@
+package server.index;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A least-recently-used cache of search results, keyed by the normalized query (and the fields of a
+ * text query). Dashboards send the same searches again and again between two index changes.
+ * <p>An entry holds the hits of a query <em>before</em> the permissions were checked, so it may be
+ * shared by all users: findVisible trims the hits to those the user may browse on every search.
+ * As the hits are Lucene document numbers, an entry is only valid for the searcher it was created with.
+ * Each entry records the generation of its searcher (see SearcherProvider.getGeneration), and the first
+ * entry of a newer generation clears the cache.</p>
+ * <p>The cache is bounded by the number of entries and by their approximate size on the heap.
+ * Queries with more than maxHits hits are not cached; their entry only records this, so they are
+ * searched directly afterwards.</p>
+ */
+public class ResultCache {
+
+    /**
+     * Estimated heap size of an entry without its hits, in bytes.
+     */
+    static final int ENTRY_OVERHEAD = 96;
+
+    final Integer maxEntries;
+    final Long maxBytes;
+    final Integer maxHits;
+    final LinkedHashMap<String, Hits> entries = new LinkedHashMap<String, Hits>(16, 0.75f, true);
+    // guarded by entries:
+    long bytes = 0;
+    long generation = -1;
+
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+    final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxEntries the maximum number of cached queries; 0 disables the cache.
+     * @param maxBytes   the maximum estimated heap size of all entries.
+     * @param maxHits    queries with more hits are not cached.
+     */
+    public ResultCache(Integer maxEntries, Long maxBytes, Integer maxHits) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.maxHits = maxHits;
+    }
+
+    public Boolean isEnabled() {
+        return maxEntries > 0 && maxBytes > 0;
+    }
+
+    public Integer getMaxHits() {
+        return maxHits;
+    }
+
+    /**
+     * @param key        the key of the query (see LuceneBridge.findHits)
+     * @param generation the generation of the searcher which will use the hits.
+     * @return the cached hits, or null if the query is not cached for this generation.
+     */
+    public Hits get(String key, Long generation) {
+        Hits cached;
+        synchronized (entries) {
+            cached = entries.get(key);
+        }
+        if (cached == null || cached.generation != generation) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return cached;
+    }
+
+    public void put(String key, Hits value) {
+        long size = sizeOf(key, value);
+        if (!isEnabled() || size > maxBytes) {
+            return;
+        }
+        synchronized (entries) {
+            if (value.generation < generation) {
+                // created by a searcher which has already been replaced.
+                return;
+            }
+            if (value.generation > generation) {
+                entries.clear();
+                bytes = 0;
+                generation = value.generation;
+            }
+            Hits previous = entries.put(key, value);
+            if (previous != null) {
+                bytes -= sizeOf(key, previous);
+            }
+            bytes += size;
+            Iterator<Map.Entry<String, Hits>> eldest = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+                Map.Entry<String, Hits> entry = eldest.next();
+                eldest.remove();
+                bytes -= sizeOf(entry.getKey(), entry.getValue());
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    static long sizeOf(String key, Hits value) {
+        return ENTRY_OVERHEAD + 2L * key.length() + value.bytes();
+    }
+
+    /**
+     * Check which hits a user may browse.
+     *
+     * @param searcher the searcher which found the hits
+     * @param filter   the user's security filter (see LuceneBridge.findSecurityFilter), or null.
+     * @param docs     document numbers of the searcher, in any order
+     * @return for each document, true if the filter accepts it.
+     * @throws IOException if the filter cannot be applied to the searcher's index.
+     */
+    public static boolean[] findVisible(IndexSearcher searcher, Filter filter, int[] docs) throws IOException {
+        boolean[] visible = new boolean[docs.length];
+        if (filter == null) {
+            Arrays.fill(visible, true);
+            return visible;
+        }
+        // the filter is applied per segment, so walk the documents in index order.
+        long[] sorted = new long[docs.length];
+        for (int i = 0; i < docs.length; i++) {
+            sorted[i] = ((long) docs[i] << 32) | i;
+        }
+        Arrays.sort(sorted);
+        IndexReader[] segments = searcher.getSubReaders();
+        int[] starts = docStarts(segments);
+        int segment = -1;
+        DocIdSetIterator accepted = null;
+        int current = -1;
+        for (long entry : sorted) {
+            int doc = (int) (entry >>> 32);
+            while (segment + 1 < segments.length && doc >= starts[segment + 1]) {
+                segment++;
+                DocIdSet set = filter.getDocIdSet(segments[segment]);
+                accepted = set == null ? null : set.iterator();
+                current = -1;
+            }
+            if (accepted == null) {
+                continue;
+            }
+            int local = doc - starts[segment];
+            if (current < local) {
+                current = accepted.advance(local);
+            }
+            visible[(int) entry] = current == local;
+        }
+        return visible;
+    }
+
+    /**
+     * @param segments the sub readers of a searcher (see IndexSearcher.getSubReaders)
+     * @return the number of the first document of each segment in the searcher's index.
+     */
+    static int[] docStarts(IndexReader[] segments) {
+        int[] starts = new int[segments.length];
+        int maxDoc = 0;
+        for (int i = 0; i < segments.length; i++) {
+            starts[i] = maxDoc;
+            maxDoc += segments[i].maxDoc();
+        }
+        return starts;
+    }
+
+    public Long getHits() {
+        return hits.get();
+    }
+
+    public Long getMisses() {
+        return misses.get();
+    }
+
+    public Long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the share of lookups which were answered from the cache (0 to 1).
+     */
+    public Double getHitRate() {
+        long h = hits.get();
+        long m = misses.get();
+        return h + m > 0 ? (double) h / (h + m) : 0;
+    }
+
+    public Integer size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the estimated heap size of all entries in bytes.
+     */
+    public Long getBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    /**
+     * @return a summary of the cache's size, hits and misses.
+     */
+    public String getStatistics() {
+        return String.format("ResultCache: %d entries (max %d), %d bytes (max %d), %d hits, %d misses (%.1f%% hit rate)",
+                size(), maxEntries, getBytes(), maxBytes, hits.get(), misses.get(), 100 * getHitRate());
+    }
+
+    /**
+     * The hits of a query for all users, in the order of the result: by relevance (descending score, then
+     * ascending document number, like TopScoreDocCollector) for a scored query, otherwise by document number.
+     */
+    public static class Hits {
+
+        final long generation;
+        /**
+         * Document numbers of the hits, or null if the query had more than maxHits hits.
+         */
+        final int[] docs;
+        /**
+         * Scores of the hits, or null for an unscored query.
+         */
+        final float[] scores;
+
+        Hits(long generation, int[] docs, float[] scores) {
+            this.generation = generation;
+            this.docs = docs;
+            this.scores = scores;
+        }
+
+        /**
+         * @return an entry which records that a query has too many hits to be cached.
+         */
+        static Hits tooMany(long generation) {
+            return new Hits(generation, null, null);
+        }
+
+        /**
+         * @return false if the hits were not recorded because there were too many of them.
+         */
+        public Boolean isComplete() {
+            return docs != null;
+        }
+
+        public int[] getDocs() {
+            return docs;
+        }
+
+        long bytes() {
+            return 4L * (docs == null ? 0 : docs.length) + 4L * (scores == null ? 0 : scores.length);
+        }
+
+        /**
+         * Create the TopDocs a filtered search would have returned.
+         *
+         * @param visible the hits the user may browse (see findVisible)
+         * @param after   return only hits after this one (see IndexSearcher.searchAfter), or null.
+         * @param numHits the maximum number of ScoreDocs.
+         * @return TopDocs whose totalHits counts all visible hits.
+         */
+        public TopDocs topDocs(boolean[] visible, ScoreDoc after, Integer numHits) {
+            List<ScoreDoc> scoreDocs = new ArrayList<ScoreDoc>(Math.min(numHits, docs.length));
+            int total = 0;
+            float maxScore = Float.NaN;
+            for (int i = 0; i < docs.length; i++) {
+                if (!visible[i]) {
+                    continue;
+                }
+                total++;
+                if (Float.isNaN(maxScore)) {
+                    // sorted by score: the first visible hit has the highest one.
+                    maxScore = scores[i];
+                }
+                if (scoreDocs.size() < numHits && (after == null || isAfter(i, after))) {
+                    scoreDocs.add(new ScoreDoc(docs[i], scores[i]));
+                }
+            }
+            return new TopDocs(total, scoreDocs.toArray(new ScoreDoc[scoreDocs.size()]), maxScore);
+        }
+
+        Boolean isAfter(int i, ScoreDoc after) {
+            return scores[i] < after.score || (scores[i] == after.score && docs[i] > after.doc);
+        }
+    }
+}
@@ -1,10 +1,13 @@
 package server.index;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.search.Collector;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Scorer;
+import org.apache.lucene.util.OpenBitSet;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
 import org.slf4j.Logger;
@@ -21,12 +24,28 @@ import javax.persistence.EntityManager;
 import java.io.IOException;
 import java.util.*;
 
+/**
+ * A Collector which gathers all hits of a search.
+ * <p>During the search, only the document numbers are recorded in a bitset. The stored fields are loaded
+ * afterwards by loadDocuments(), and only the fields javaClass and hibernateId (see ID_FIELDS), which are all
+ * that is needed to fetch the objects from the database. If maxHits is set, at most maxHits documents are loaded;
+ * getTotalHits() still counts all hits.</p>
+ * <p>The documents must be loaded while the searcher is still open, so LuceneBridge.search calls loadDocuments()
+ * before it releases the searcher.</p>
+ */
 public class ResultCollector extends Collector{
 
 	transient Logger log = LoggerFactory.getLogger(this.getClass());
+
+	/**
+	 * The stored fields which identify an indexed object.
+	 */
+	public static final FieldSelector ID_FIELDS = new MapFieldSelector("javaClass", "hibernateId");
 	
-	LinkedHashSet<Integer> hits = new LinkedHashSet<Integer>();
-	Set<Document> documents = new HashSet<Document>();
+	OpenBitSet hits = new OpenBitSet();
+	Integer totalHits = 0;
+	Integer maxHits = 0;
+	List<Document> documents;
 	IndexSearcher searcher;
 	IndexReader reader;
 	Integer docBase;
@@ -39,24 +58,71 @@ public class ResultCollector extends Collector{
 	public ResultCollector(){
 		
 	}
+
+	/**
+	 * @param maxHits the maximum number of documents to load after the search; 0 means unlimited.
+	 */
+	public ResultCollector(Integer maxHits){
+		this.maxHits = maxHits;
+	}
 	
 	@Override
 	public void collect(int doc) {
-//		log.debug("collect document: "+doc);
-		hits.add(doc);
-		try{			
-			Document d = searcher.doc(doc+docBase);
-//			log.debug("about to add Document: "+d);			
-			documents.add(d);
+		addHit(doc + docBase);
+	}
+
+	/**
+	 * Record a hit which was found without this collector, for example in the ResultCache.
+	 * @param doc the document number in the searcher's index.
+	 */
+	void addHit(int doc) {
+		hits.set(doc);
+		totalHits++;
+	}
+
+	/**
+	 * Load the ID fields of the collected hits, in index order. If maxHits is set, only the
+	 * first maxHits documents are loaded.
+	 */
+	public void loadDocuments(){
+		documents = new ArrayList<Document>();
+		int limit = maxHits > 0 ? maxHits : Integer.MAX_VALUE;
+		for(int doc = hits.nextSetBit(0); doc >= 0 && documents.size() < limit; doc = hits.nextSetBit(doc + 1)){
+			try{
+				documents.add(searcher.doc(doc, ID_FIELDS));
+			}
+			catch (IOException e) {
+				log.warn("ResultCollector.loadDocuments encountered an IOException:",e);
+			}
 		}
-		catch (IOException e) {
-			log.warn("ResultCollector.collect encountered an IOException:",e);
+		if(documents.size() < totalHits){
+			log.debug(String.format("loaded %d of %d hits (maxHits: %d)", documents.size(), totalHits, maxHits));
 		}
 	}
 	
+	/**
+	 * @return the documents found by the search (see loadDocuments()).
+	 */
 	public Collection<Document> getDocuments(){
+		if(documents == null){
+			loadDocuments();
+		}
 		return documents;
 	}
+
+	/**
+	 * @return the number of hits, including those which were not loaded because of maxHits.
+	 */
+	public Integer getTotalHits(){
+		return totalHits;
+	}
+
+	/**
+	 * @return true if not all hits were loaded because of maxHits.
+	 */
+	public Boolean isTruncated(){
+		return maxHits > 0 && totalHits > maxHits;
+	}
 	
 	public void setSearcher(IndexSearcher searcher){
 		this.searcher = searcher;
@@ -74,6 +140,9 @@ public class ResultCollector extends Collector{
 		org.dom4j.Document resultDoc = DocumentHelper.createDocument();
 		Element root = resultDoc.addElement("searchResults");
 		root.addAttribute("total-results", String.valueOf(getDocuments().size()));
+		if(isTruncated()){
+			root.addAttribute("truncated", "true");
+		}
 		
 		for(Document doc : getDocuments()){
 			Element item = root.addElement("item");
@@ -116,19 +185,37 @@ public class ResultCollector extends Collector{
 	 * @return Set of XmlConvertable objects.
 	 */
 	public Set<XmlConvertable> filterResults(ResultValidator val, Class<? extends Indexable> filterClass){
-		Set<Document> filteredDocs = new HashSet<Document>();
-		Set<XmlConvertable> resultStore = new HashSet<XmlConvertable>();
-		for(Document doc : documents){
-            XmlConvertable convertable = val.validateAccessPermissions(doc, filterClass);
-            if(convertable != null){
-                resultStore.add( convertable );
-				filteredDocs.add(doc);
-			}
-		}
+		Map<Document, XmlConvertable> accessible = validate(val, getDocuments(), filterClass);
+		List<Document> filteredDocs = new ArrayList<Document>(accessible.keySet());
+		Set<XmlConvertable> resultStore = new HashSet<XmlConvertable>(accessible.values());
 		documents = filteredDocs;
 		return resultStore;
 	}
 
+	/**
+	 * Validate a batch of search results, in bulk if the validator is a BatchResultValidator,
+	 * otherwise one document at a time.
+	 * @param val the ResultValidator
+	 * @param docs the Documents to check
+	 * @param filterClass see ResultValidator.validateAccessPermissions(Document, Class). May be null.
+	 * @return a map from each accessible document to the XmlConvertable instance it references,
+	 * in the iteration order of docs.
+	 */
+	static Map<Document, XmlConvertable> validate(ResultValidator val, Collection<Document> docs,
+												  Class<? extends Indexable> filterClass){
+		if(val instanceof BatchResultValidator){
+			return ((BatchResultValidator) val).validateAccessPermissions(docs, filterClass);
+		}
+		Map<Document, XmlConvertable> results = new LinkedHashMap<Document, XmlConvertable>();
+		for(Document doc : docs){
+			XmlConvertable convertable = val.validateAccessPermissions(doc, filterClass);
+			if(convertable != null){
+				results.put(doc, convertable);
+			}
+		}
+		return results;
+	}
+
 
 
 	@Override
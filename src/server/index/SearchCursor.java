@@ -0,0 +1,53 @@
+package server.index;
+
+import org.apache.lucene.search.ScoreDoc;
+import server.exceptions.CinnamonException;
+
+/**
+ * Encodes the position of the last hit of a result page (its score and document number) as an
+ * opaque String, so the client can ask for the next page with LuceneBridge.searchAfter.
+ * <p>Document numbers are only valid for the searcher generation which produced them (see
+ * SearcherProvider.getGeneration): after the searcher has been refreshed, segments may have been merged,
+ * so the next page could skip or repeat hits. The cursor therefore contains the generation, and a cursor
+ * of an older generation is rejected with error.search_cursor_expired. The client then has to start again
+ * with the first page.</p>
+ */
+public class SearchCursor {
+
+    private SearchCursor() {
+    }
+
+    /**
+     * @param generation the generation of the searcher which found the hit
+     * @param scoreDoc   the last hit of a page
+     * @return the cursor for the page after this hit
+     */
+    public static String encode(Long generation, ScoreDoc scoreDoc) {
+        return Long.toHexString(generation) + "-" + Integer.toHexString(Float.floatToIntBits(scoreDoc.score))
+                + "-" + Integer.toHexString(scoreDoc.doc);
+    }
+
+    /**
+     * @param cursor     a cursor created by encode(generation, scoreDoc)
+     * @param generation the generation of the current searcher
+     * @return the hit after which the next page starts
+     * @throws CinnamonException if the cursor is invalid (error.invalid.search_cursor), or if it was created
+     *                           by a searcher of another generation (error.search_cursor_expired).
+     */
+    public static ScoreDoc decode(String cursor, Long generation) {
+        try {
+            String[] parts = cursor.split("-");
+            if (parts.length != 3) {
+                throw new CinnamonException("error.invalid.search_cursor", cursor);
+            }
+            if (Long.parseLong(parts[0], 16) != generation) {
+                throw new CinnamonException("error.search_cursor_expired", cursor);
+            }
+            float score = Float.intBitsToFloat((int) Long.parseLong(parts[1], 16));
+            int doc = (int) Long.parseLong(parts[2], 16);
+            return new ScoreDoc(doc, score);
+        } catch (NumberFormatException e) {
+            throw new CinnamonException("error.invalid.search_cursor", e, cursor);
+        }
+    }
+}
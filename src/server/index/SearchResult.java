@@ -24,6 +24,8 @@ public class SearchResult {
     Integer totalResults;
     Integer startingResults;
     Integer pageSize;
+    String cursor;
+    Map<String, Map<String, Integer>> facets;
 
     Map<Document, Float> docScoreMap = new HashMap<Document, Float>();
     Map<XmlConvertable, Float> xmlScoreMap = new HashMap<XmlConvertable, Float>();
@@ -69,6 +71,30 @@ public class SearchResult {
         this.totalResults = totalResults;
     }
 
+    /**
+     * @return the cursor of the next page (see LuceneBridge.searchAfter), or null if there
+     * is no next page or the result was created by offset paging.
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    /**
+     * @return the number of visible hits by facet field and value (see LuceneBridge.searchWithFacets),
+     * or null if no facets were requested.
+     */
+    public Map<String, Map<String, Integer>> getFacets() {
+        return facets;
+    }
+
+    public void setFacets(Map<String, Map<String, Integer>> facets) {
+        this.facets = facets;
+    }
+
     public Map<Document, Float> getDocScoreMap() {
         return docScoreMap;
     }
@@ -79,10 +105,12 @@ public class SearchResult {
 
     public SearchResult filterDocuments(ResultValidator validator) {
         Set<Document> filteredDocs = new HashSet<Document>();
+        // validate all documents of the page at once, so the validator can load them in bulk.
+        Map<Document, XmlConvertable> accessible = ResultCollector.validate(validator, docScoreMap.keySet(), null);
         for (Map.Entry<Document, Float> entry : docScoreMap.entrySet()) {
             Document doc = entry.getKey();
             Float score = entry.getValue();
-            XmlConvertable convertable = validator.validateAccessPermissions(doc, null);
+            XmlConvertable convertable = accessible.get(doc);
             if (convertable != null) {
                 xmlScoreMap.put(convertable, score);
                 filteredDocs.add(doc);
@@ -107,6 +135,9 @@ public class SearchResult {
         Element root = resultDoc.addElement("searchResults");
         root.addAttribute("total-results", String.valueOf(totalResults));
         root.addAttribute("relevant-results", String.valueOf(getRelevantResultsCount()));
+        if (cursor != null) {
+            root.addAttribute("cursor", cursor);
+        }
 
         for (Map.Entry<XmlConvertable, Float> entry : xmlScoreMap.entrySet()) {
             XmlConvertable xml = entry.getKey();
@@ -115,6 +146,17 @@ public class SearchResult {
             item.addElement("score").setText(String.valueOf(score));// TODO: turn score into score/maxScore %
             xml.toXmlElement(item);
         }
+        if (facets != null) {
+            Element facetList = root.addElement("facets");
+            for (Map.Entry<String, Map<String, Integer>> facet : facets.entrySet()) {
+                Element field = facetList.addElement("facet");
+                field.addAttribute("field", facet.getKey());
+                for (Map.Entry<String, Integer> value : facet.getValue().entrySet()) {
+                    field.addElement("value").addAttribute("count", String.valueOf(value.getValue()))
+                            .setText(value.getKey());
+                }
+            }
+        }
         return resultDoc;
     }
 }
@@ -0,0 +1,237 @@
+package server.index;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import server.exceptions.CinnamonException;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The SearcherProvider keeps a single reference counted IndexSearcher which is shared by all
+ * queries of a LuceneBridge. The underlying IndexReader is a near-real-time reader which is opened
+ * from the bridge's live IndexWriter and reopened in the background after the index was changed.
+ * <p>Usage:</p>
+ * <pre>
+ * IndexSearcher searcher = provider.acquire();
+ * try{
+ *     // search...
+ * }
+ * finally{
+ *     provider.release(searcher);
+ * }
+ * </pre>
+ * <p>Configuration (in lucene.properties):</p>
+ * <ul>
+ * <li>searcherRefreshInterval: milliseconds between two background checks for a new reader (default: 1000)</li>
+ * <li>searcherMaxStaleness: if the index was changed more than this many milliseconds ago and the
+ * background thread has not yet caught up, acquire() reopens the reader itself (default: 5000).</li>
+ * </ul>
+ */
+public class SearcherProvider {
+
+    transient Logger log = LoggerFactory.getLogger(this.getClass());
+
+    final LuceneBridge bridge;
+    final Long refreshInterval;
+    final Long maxStaleness;
+
+    /**
+     * The current searcher. Its reader holds one reference for the provider itself, which is released
+     * when the searcher is swapped out.
+     */
+    private IndexSearcher current;
+
+    /**
+     * Incremented whenever the current searcher is replaced (guarded by this).
+     */
+    private long generation = 0L;
+
+    /**
+     * Time (in milliseconds) of the first index change which is not yet visible to searchers,
+     * or 0 if the current searcher is up to date.
+     */
+    private volatile long staleSince = 0L;
+
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private ScheduledExecutorService refresher;
+
+    public SearcherProvider(LuceneBridge bridge, Long refreshInterval, Long maxStaleness) {
+        this.bridge = bridge;
+        this.refreshInterval = refreshInterval;
+        this.maxStaleness = maxStaleness;
+        try {
+            current = new IndexSearcher(IndexReader.open(bridge.getIndexWriter(), true));
+        } catch (IOException e) {
+            throw new CinnamonException("error.lucene.IO", e);
+        }
+        refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SearcherProvider-" + SearcherProvider.this.bridge.getRepository());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (staleSince > 0) {
+                        maybeRefresh();
+                    }
+                } catch (Exception e) {
+                    log.warn("Failed to refresh the IndexSearcher:", e);
+                }
+            }
+        }, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Fetch the current IndexSearcher. Every searcher acquired must be handed back via
+     * release(searcher) in a finally block.
+     * If the current searcher is older than maxStaleness, it is refreshed before it is returned.
+     *
+     * @return the shared IndexSearcher
+     */
+    public IndexSearcher acquire() {
+        long since = staleSince;
+        if (since > 0 && System.currentTimeMillis() - since > maxStaleness) {
+            try {
+                maybeRefresh();
+            } catch (IOException e) {
+                log.warn("Failed to refresh stale IndexSearcher, will use the old one:", e);
+            }
+        }
+        synchronized (this) {
+            if (current == null) {
+                throw new CinnamonException("error.lucene.searcher.closed");
+            }
+            current.getIndexReader().incRef();
+            return current;
+        }
+    }
+
+    /**
+     * Hand back a searcher which was obtained by acquire(). The searcher must not be used afterwards.
+     *
+     * @param searcher an IndexSearcher returned by acquire()
+     */
+    public void release(IndexSearcher searcher) {
+        if (searcher == null) {
+            return;
+        }
+        try {
+            searcher.getIndexReader().decRef();
+        } catch (IOException e) {
+            log.warn("Failed to release IndexSearcher:", e);
+        }
+    }
+
+    /**
+     * The generation identifies the state of the index a searcher shows: document numbers and
+     * search results of one generation stay valid as long as it is current (see ResultCache).
+     *
+     * @param searcher a searcher returned by acquire()
+     * @return the generation of the searcher, or -1 if it has already been replaced by a newer one.
+     */
+    public synchronized Long getGeneration(IndexSearcher searcher) {
+        return searcher == current ? generation : -1L;
+    }
+
+    /**
+     * Tell the provider that the IndexWriter has changed the index. The next background run
+     * (or the next acquire() after maxStaleness) will reopen the reader.
+     */
+    public void indexChanged() {
+        if (staleSince == 0) {
+            staleSince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return milliseconds since the first index change which searchers do not see yet, or 0 if they are up to date.
+     */
+    public Long getStaleness() {
+        long since = staleSince;
+        return since == 0 ? 0L : System.currentTimeMillis() - since;
+    }
+
+    /**
+     * Reopen the reader if the index has changed since the current searcher was opened.
+     * Only one thread refreshes at a time; concurrent callers return immediately and
+     * keep using the current searcher.
+     *
+     * @return true if a new searcher was installed.
+     * @throws IOException if the new reader could not be opened.
+     */
+    public Boolean maybeRefresh() throws IOException {
+        if (!refreshLock.tryLock()) {
+            return false;
+        }
+        try {
+            // reset first, so changes arriving during the reopen are not lost.
+            staleSince = 0L;
+            Long sequence = bridge.getChangeSequence();
+            IndexSearcher old;
+            synchronized (this) {
+                if (current == null) {
+                    return false;
+                }
+                old = current;
+                old.getIndexReader().incRef();
+            }
+            IndexReader newReader;
+            try {
+                newReader = IndexReader.openIfChanged(old.getIndexReader(), bridge.getIndexWriter(), true);
+            } finally {
+                old.getIndexReader().decRef();
+            }
+            if (newReader == null) {
+                bridge.changesVisible(sequence);
+                return false;
+            }
+            swapSearcher(new IndexSearcher(newReader));
+            bridge.changesVisible(sequence);
+            log.debug("Refreshed IndexSearcher for " + bridge.getRepository());
+            return true;
+        } catch (IOException e) {
+            indexChanged();
+            throw e;
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    void swapSearcher(IndexSearcher newSearcher) throws IOException {
+        IndexSearcher old;
+        synchronized (this) {
+            old = current;
+            current = newSearcher;
+            generation++;
+        }
+        if (old != null) {
+            old.getIndexReader().decRef();
+        }
+    }
+
+    /**
+     * Stop the background refresh and drop the provider's reference on the current reader.
+     * Searchers which are still in use stay valid until they are released.
+     */
+    public void close() {
+        refresher.shutdownNow();
+        try {
+            swapSearcher(null);
+        } catch (IOException e) {
+            log.warn("Failed to close IndexSearcher:", e);
+        }
+    }
+}
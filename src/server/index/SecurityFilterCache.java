@@ -0,0 +1,120 @@
+package server.index;
+
+import org.apache.lucene.search.CachingWrapperFilter;
+import org.apache.lucene.search.Filter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import server.Acl;
+import server.AclEntry;
+import server.Group;
+import server.Permission;
+import server.User;
+import server.dao.DAOFactory;
+import server.data.Validator;
+import server.global.Constants;
+import server.global.PermissionName;
+import server.index.indexer.IntegerXPathIndexer;
+
+import javax.persistence.EntityManager;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates and caches one AclFilter per user, so searches return only results the user may browse.
+ * <p>Building a filter evaluates every ACL of the repository for the user, so it is cached until the ACL
+ * generation changes. The generation is incremented by the entity listeners of Acl, AclEntry,
+ * AclEntryPermission, Group and GroupUser whenever one of them is changed. The cached filters are
+ * CachingWrapperFilters, so applying them to an unchanged index segment costs one bitset intersection.</p>
+ */
+public class SecurityFilterCache {
+
+    transient Logger log = LoggerFactory.getLogger(this.getClass());
+
+    static final AtomicLong aclGeneration = new AtomicLong();
+    static DAOFactory daoFactory = DAOFactory.instance(DAOFactory.HIBERNATE);
+
+    final ConcurrentMap<Long, CachedFilter> filters = new ConcurrentHashMap<Long, CachedFilter>();
+
+    /**
+     * Invalidate all cached filters. Called whenever permissions or group memberships change.
+     */
+    public static void aclChanged() {
+        aclGeneration.incrementAndGet();
+    }
+
+    /**
+     * @param user          the user who searches
+     * @param em            EntityManager used to load ACLs and permissions.
+     * @param filterFolders if false, all folders pass the filter (for indexes without folder ACLs).
+     * @return a Filter which accepts all documents the user may browse, or null if the user is a superuser.
+     */
+    public Filter getFilter(User user, EntityManager em, Boolean filterFolders) {
+        long generation = aclGeneration.get();
+        CachedFilter cached = filters.get(user.getId());
+        if (cached != null && cached.generation == generation && cached.filterFolders.equals(filterFolders)) {
+            return cached.filter;
+        }
+        Filter filter = createFilter(user, em, filterFolders);
+        filters.put(user.getId(), new CachedFilter(generation, filterFolders, filter));
+        return filter;
+    }
+
+    Filter createFilter(User user, EntityManager em, Boolean filterFolders) {
+        if (user.verifySuperuserStatus(em)) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        Validator validator = new Validator(user, em);
+        Permission browseObject = Permission.fetch(PermissionName.BROWSE_OBJECT);
+        Permission browseFolder = Permission.fetch(PermissionName.BROWSE_FOLDER);
+        AclFilter.Grants objectGrants = new AclFilter.Grants(Constants.FIELD_OWNER);
+        AclFilter.Grants folderGrants = new AclFilter.Grants(Constants.FIELD_FOLDER_OWNER);
+        for (Acl acl : daoFactory.getAclDAO(em).list()) {
+            String aclId = IntegerXPathIndexer.pad(acl.getId());
+            addGrant(objectGrants, aclId, validator.check_acl_entries(acl, browseObject, null),
+                    ownerAliasGrants(acl, browseObject));
+            if (filterFolders) {
+                addGrant(folderGrants, aclId, validator.check_acl_entries(acl, browseFolder, null),
+                        ownerAliasGrants(acl, browseFolder));
+            }
+        }
+        log.debug("created AclFilter for user " + user.getName() + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+        AclFilter filter = new AclFilter(Constants.FIELD_ACL, IntegerXPathIndexer.pad(user.getId()),
+                objectGrants, filterFolders ? folderGrants : null);
+        return new CachingWrapperFilter(filter);
+    }
+
+    void addGrant(AclFilter.Grants grants, String aclId, Boolean granted, Boolean grantedToOwner) {
+        if (granted) {
+            grants.addAcl(aclId);
+        } else if (grantedToOwner) {
+            grants.addOwnerAcl(aclId);
+        }
+    }
+
+    /**
+     * @return true if the ACL's owner alias entry grants the permission.
+     */
+    Boolean ownerAliasGrants(Acl acl, Permission permission) {
+        for (AclEntry ae : acl.getAclEntries()) {
+            if (ae.getGroup().getName().equals(Group.ALIAS_OWNER) && ae.findPermission(permission)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static class CachedFilter {
+        final long generation;
+        final Boolean filterFolders;
+        final Filter filter;
+
+        CachedFilter(long generation, Boolean filterFolders, Filter filter) {
+            this.generation = generation;
+            this.filterFolders = filterFolders;
+            this.filter = filter;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package server.index;
+
+import org.apache.lucene.document.Document;
+
+/**
+ * An Indexer which can use the pre-compiled XPath of an IndexItem instead of
+ * parsing the search string again for every document.
+ */
+public interface XPathIndexer extends Indexer {
+
+	void indexObject(ContentContainer xml, Document doc, String fieldname, CompiledXPath searchXPath, Boolean multipleResults);
+
+}
@@ -7,11 +7,12 @@ import org.apache.lucene.document.Field.Store;
 import org.dom4j.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import server.index.CompiledXPath;
 import server.index.ContentContainer;
-import server.index.Indexer;
+import server.index.NumericFields;
+import server.index.XPathIndexer;
 import utils.ParamParser;
 
-import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -21,7 +22,7 @@ import java.util.List;
  * <p>Example: name="index.count", searchString="//name" will find all name-elements.
  * and store the number.</p>
  */
-public class CountIndexer implements Indexer {
+public class CountIndexer implements XPathIndexer {
 
 	protected Index index;
 	protected Store store;
@@ -33,19 +34,24 @@ public class CountIndexer implements Indexer {
 
 	transient Logger log = LoggerFactory.getLogger(this.getClass());
 	
-	@SuppressWarnings("unchecked")
 	@Override
 	public void indexObject(ContentContainer data, Document doc, String fieldname,
 			String searchString, Boolean multipleResults) {
+		indexObject(data, doc, fieldname, new CompiledXPath(searchString), multipleResults);
+	}
+
+	@Override
+	public void indexObject(ContentContainer data, Document doc, String fieldname,
+			CompiledXPath searchXPath, Boolean multipleResults) {
 
 		org.dom4j.Document indexObject = data.asDocument();
 		List<Node> hits = new ArrayList<Node>();
 		
 		if(multipleResults){
-			hits = indexObject.selectNodes(searchString);
+			hits = searchXPath.selectNodes(indexObject);
 		}
 		else{
-			Node node = indexObject.selectSingleNode(searchString);
+			Node node = searchXPath.selectSingleNode(indexObject);
 			if(node != null){
 				hits.add(node);
 			}
@@ -55,11 +61,8 @@ public class CountIndexer implements Indexer {
 
 	}
 
-    private static final DecimalFormat formatter =
-	    new DecimalFormat("00000000000000000000");
-
 	public static String pad(Integer n) {
-	  return formatter.format(n);
+	  return NumericFields.pad(n);
 	}
 
 }
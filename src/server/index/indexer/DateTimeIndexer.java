@@ -1,52 +1,72 @@
 package server.index.indexer;
 
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
 import org.dom4j.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import server.index.NumericFields;
 
-import java.text.DecimalFormat;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Date;
 
 /**
  * <p>The DateTimeIndexer expects an XPath parameter as searchString and will store
  * the results of this search in the Lucene document.</p>
  * <p>Dates must be formatted as YYYY-MM-DDThh:mm:ss.</p> 
+ * <p>Each value is also indexed as a NumericField (milliseconds since 1970) for range queries.</p>
  */
 public class DateTimeIndexer extends DefaultIndexer{
 
 	transient Logger log = LoggerFactory.getLogger(this.getClass());
 	
+	/**
+	 * SimpleDateFormat is not thread safe, so each thread gets its own instance.
+	 */
+	static final ThreadLocal<SimpleDateFormat> dateFormat = new ThreadLocal<SimpleDateFormat>(){
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+		}
+	};
+	
 	public DateTimeIndexer(){
 	}
 	
 	/**
 	 * Convert a node containing a date formated as
 	 * "2009-10-01T16:10:30" into an indexable string,
-	 * which is the time in 
+	 * which is the time in milliseconds, padded to 20 digits.
 	 */
 	public String convertNodeToString(Node node){
-		String val = node.getStringValue();		
-		log.debug("Trying to index: "+val);
-		
-		String result = null;
-		try{
-			SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-			Date date = sdf.parse(val);
-			Long millis = date.getTime();
-			result = pad(millis);
-		}catch (Exception e) {
-			log.debug("failed to parse date:",e);
+		Long millis = parseMillis(node.getStringValue());
+		return millis == null ? null : pad(millis);
+	}
+
+	@Override
+	protected void addFields(Document doc, String fieldname, Node node){
+		Long millis = parseMillis(node.getStringValue());
+		if(millis != null){
+			doc.add(new Field(fieldname, pad(millis), store, index));
+			doc.add(NumericFields.createField(fieldname, millis));
 		}
-		log.debug("Result of date conversion: "+result);
-		return result;
 	}
 
-	private static final DecimalFormat formatter =		
-	    new DecimalFormat("00000000000000000000");
+	/**
+	 * @param val a date formatted as "2009-10-01T16:10:30"
+	 * @return the time in milliseconds, or null if val is not a valid date.
+	 */
+	public static Long parseMillis(String val){
+		try{
+			return dateFormat.get().parse(val).getTime();
+		}catch (ParseException e) {
+			LoggerFactory.getLogger(DateTimeIndexer.class).debug("failed to parse date: "+val);
+			return null;
+		}
+	}
 
 	public static String pad(Long n) {
-	  return formatter.format(n);
+	  return NumericFields.pad(n);
 	}
 	
 }
@@ -1,9 +1,12 @@
 package server.index.indexer;
 
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Field.Index;
 import org.dom4j.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import server.index.NumericFields;
 
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
@@ -18,22 +21,26 @@ import java.text.ParseException;
  * and search decimal values without having to worry about some people using "." or ",", whether that
  * corresponds correctly to <i>their and the server's</i> locale.</p>
  * <p>This class will not create proper index entries for decimal values with "." like 1.23.</p> 
+ * <p>Each value is also indexed as a double NumericField for range queries (see NumericFields).</p>
  */
 public class DecimalXPathIndexer extends DefaultIndexer{
 
 	transient Logger log = LoggerFactory.getLogger(this.getClass());
 
-	 /* 
-	  * length == 11,8
-	  */
-	private static final DecimalFormat formatter;
-
-	static{
-		formatter = new DecimalFormat("00000000000.00000000");
-		DecimalFormatSymbols dfs = formatter.getDecimalFormatSymbols();
-		dfs.setDecimalSeparator('.');
-		formatter.setDecimalFormatSymbols(dfs);
-	}
+	/*
+	 * length == 11,8
+	 * DecimalFormat is not thread safe, so each thread gets its own instance.
+	 */
+	static final ThreadLocal<DecimalFormat> formatter = new ThreadLocal<DecimalFormat>(){
+		@Override
+		protected DecimalFormat initialValue() {
+			DecimalFormat format = new DecimalFormat("00000000000.00000000");
+			DecimalFormatSymbols dfs = format.getDecimalFormatSymbols();
+			dfs.setDecimalSeparator('.');
+			format.setDecimalFormatSymbols(dfs);
+			return format;
+		}
+	};
 
 	public DecimalXPathIndexer(){
 		  index = Index.NOT_ANALYZED;
@@ -41,18 +48,33 @@ public class DecimalXPathIndexer extends DefaultIndexer{
 	
 	
 	public static String pad(Double n) {		
-	  return formatter.format(n);
+	  return formatter.get().format(n);
 	}
 	
 	String convertNodeToString(Node node){
+		Double myDouble = parse(node);
+		if(myDouble == null){
+			return null;
+		}
+		String result = pad(myDouble);
+		log.debug("result:"+result);
+		return result;
+	}
+
+	@Override
+	protected void addFields(Document doc, String fieldname, Node node){
+		Double myDouble = parse(node);
+		if(myDouble != null){
+			doc.add(new Field(fieldname, pad(myDouble), store, index));
+			doc.add(NumericFields.createField(fieldname, myDouble));
+		}
+	}
+
+	Double parse(Node node){
 		String number = node.getStringValue();
 		log.debug("input to decimal conversion: "+number);
 		try{			
-			Number n = formatter.parse(number);
-			Double myDouble = n.doubleValue();
-			String result = pad(myDouble);
-			log.debug("result:"+result);
-			return result;
+			return formatter.get().parse(number).doubleValue();
 		}
 		catch (NumberFormatException e) {
 			log.debug("decimal parsing failed.");
@@ -7,8 +7,9 @@ import org.apache.lucene.document.Field.Store;
 import org.dom4j.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import server.index.CompiledXPath;
 import server.index.ContentContainer;
-import server.index.Indexer;
+import server.index.XPathIndexer;
 import utils.ParamParser;
 
 import java.util.ArrayList;
@@ -19,8 +20,10 @@ import java.util.List;
  * the results of this search in the Lucene document.</p>
  * <p>Example: name="index.name", searchString="//name" will find all name-elements.
  * and store the <i>analyzed</i> results of node.getText()</p>
+ * <p>Indexers are shared between threads (see IndexType.getIndexer()), so subclasses
+ * must not change any fields after construction.</p>
  */
-public class DefaultIndexer implements Indexer {
+public class DefaultIndexer implements XPathIndexer {
 	
 	protected Index index;
 	protected Store store;
@@ -32,41 +35,79 @@ public class DefaultIndexer implements Indexer {
 
 	transient Logger log = LoggerFactory.getLogger(this.getClass());
 	
-	@SuppressWarnings("unchecked")
 	@Override
 	public void indexObject(ContentContainer data, Document doc, String fieldname,
 			String searchString, Boolean multipleResults) {
+		indexObject(data, doc, fieldname, new CompiledXPath(searchString), multipleResults);
+	}
+
+	@Override
+	public void indexObject(ContentContainer data, Document doc, String fieldname,
+			CompiledXPath searchXPath, Boolean multipleResults) {
 
 //		log.debug("trying to index the following data:\n"+data+"\n//end of data.");
+		List<Node> hits = findNodes(data, searchXPath, multipleResults);
+
+		for(Node node : hits){
+			addFields(doc, fieldname, node);
+		}
+	}
+
+	/**
+	 * Add the fields for one matching node to the document. Indexers which create more than
+	 * a single string field per node (like the numeric indexers) override this method.
+	 * @param doc the Lucene document
+	 * @param fieldname the field name of the IndexItem
+	 * @param node a node found by the IndexItem's XPath
+	 */
+	protected void addFields(Document doc, String fieldname, Node node){
+		String nodeValue = convertNodeToString(node);
+		if(nodeValue != null){
+			log.debug("fieldname: "+fieldname+" value: "+ nodeValue);
+			doc.add(new Field(fieldname, nodeValue, store, index));
+		}
+	}
+
+	/**
+	 * Evaluate the XPath on the data. If the expression was already evaluated while streaming
+	 * the content, the streamed nodes are used instead of parsing the whole document.
+	 * @param data the XML data to search
+	 * @param searchXPath the compiled search string of the IndexItem
+	 * @param multipleResults if false, only the first matching node is returned.
+	 * @return a (possibly empty) list of the matching nodes.
+	 */
+	protected List<Node> findNodes(ContentContainer data, CompiledXPath searchXPath, Boolean multipleResults){
+		List<Node> streamed = data.fetchStreamedNodes(searchXPath.getExpression());
+		if(streamed != null){
+			// already evaluated by ContentContainer.streamSelect
+			if(multipleResults || streamed.size() <= 1){
+				return streamed;
+			}
+			return streamed.subList(0, 1);
+		}
 		org.dom4j.Document indexObject = data.asDocument();
 		List<Node> hits = new ArrayList<Node>();
 		
 		if(multipleResults){
-			hits = indexObject.selectNodes(searchString);
+			hits = searchXPath.selectNodes(indexObject);
 		}
 		else{
-			Node node = indexObject.selectSingleNode(searchString);
+			Node node = searchXPath.selectSingleNode(indexObject);
 			if(node != null){
 				hits.add(node);
 			}
 		}
-
-		for(Node node : hits){
-			String nodeValue = convertNodeToString(node);
-			if(nodeValue != null){
-				log.debug("fieldname: "+fieldname+" value: "+ nodeValue);
-				doc.add(new Field(fieldname, nodeValue, store, index));
-			}
-		}
+		return hits;
 	}
 
 	String convertNodeToString(Node node){
 		return node.getText();
 	}
 	
-	@SuppressWarnings("unchecked")
+	static final CompiledXPath DESCENDANTS = new CompiledXPath("descendant::*");
+
 	StringBuilder descendIntoNodes(Node node){
-		List<Node> children = node.selectNodes("descendant::*");
+		List<Node> children = DESCENDANTS.selectNodes(node);
 		StringBuilder result = new StringBuilder();
 		appendNonEmptyText(node, result);
 		for(Node n : children){
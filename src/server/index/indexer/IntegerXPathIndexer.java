@@ -1,39 +1,51 @@
 package server.index.indexer;
 
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
 import org.dom4j.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-
-import java.text.DecimalFormat;
+import server.index.NumericFields;
 
 /**
  * <p>The IntegerXPathIndexer is based upon the DefaultIndexer and expects an XPath parameter as searchString.
  * It stores the results in the Lucene document under the given name as XPath-StringValue representations.</p>
  * If the string found cannot be converted into a valid Long, no result is saved.
+ * <p>Each value is also indexed as a NumericField for range queries (see NumericFields).</p>
  */
 public class IntegerXPathIndexer extends DefaultIndexer{
 
 	transient Logger log = LoggerFactory.getLogger(this.getClass());
 
-	 /* 
-	  * length == 20, enough for 1 ExaByte
-	  * Just in case you need to index the national debt database.  
-	  */
-	private static final DecimalFormat formatter =		
-	    new DecimalFormat("00000000000000000000");
-
 	public IntegerXPathIndexer(){
 	}
 	
+	/*
+	 * length == 20, enough for 1 ExaByte
+	 * Just in case you need to index the national debt database.
+	 */
 	public static String pad(Long n) {
-	  return formatter.format(n);
+	  return NumericFields.pad(n);
 	}
 	
 	protected String convertNodeToString(Node node){
-		String myLong = node.getStringValue();
+		Long myLong = parse(node);
+		return myLong == null ? null : pad(myLong);
+	}
+
+	@Override
+	protected void addFields(Document doc, String fieldname, Node node){
+		Long myLong = parse(node);
+		if(myLong != null){
+			doc.add(new Field(fieldname, pad(myLong), store, index));
+			doc.add(NumericFields.createField(fieldname, myLong));
+		}
+	}
+
+	Long parse(Node node){
 		try{
-			// NP-check on myLong not needed because dom4j returns at least "".
-			return pad(Long.parseLong(myLong));
+			// NP-check on the string value not needed because dom4j returns at least "".
+			return Long.parseLong(node.getStringValue());
 		}
 		catch (NumberFormatException e) {
 			return null;
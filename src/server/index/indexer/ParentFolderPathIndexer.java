@@ -7,9 +7,8 @@ import org.apache.lucene.document.Field.Store;
 import org.dom4j.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import server.Folder;
-import server.dao.DAOFactory;
-import server.dao.FolderDAO;
+import server.FolderPathCache;
+import server.index.CompiledXPath;
 import server.index.ContentContainer;
 import utils.HibernateSession;
 import utils.ParamParser;
@@ -26,38 +25,27 @@ import java.util.List;
 public class ParentFolderPathIndexer extends DefaultIndexer{
 
 	transient Logger log = LoggerFactory.getLogger(this.getClass());
-	static DAOFactory daoFactory = DAOFactory.instance(DAOFactory.HIBERNATE);
 	public ParentFolderPathIndexer() {
 		index = Index.NOT_ANALYZED;
 		store = Store.NO;
 	}
 	
-	@SuppressWarnings("unchecked")
 	public void indexObject(ContentContainer data, Document doc, String fieldname,
-			String searchString, Boolean multipleResults) {
+			CompiledXPath searchXPath, Boolean multipleResults) {
 
-		org.dom4j.Document indexObject = data.asDocument();
-		List<Node> hits = new ArrayList<Node>();
-		
-		if(multipleResults){
-			hits = indexObject.selectNodes(searchString);
-		}
-		else{
-			Node node = indexObject.selectSingleNode(searchString);
-			if(node != null){
-				hits.add(node);
-			}
-		}
+		List<Node> hits = findNodes(data, searchXPath, multipleResults);
 		
 		for(Node node : hits){
 			String nodeValue = convertNodeToString(node);
 			if(nodeValue != null){
 								
 				// fieldValue should be: osd.parent or folder.parent
-				EntityManager em = HibernateSession.getLocalEntityManager();								
-				FolderDAO folderDao = daoFactory.getFolderDAO(em);
-				Folder folder = folderDao.get(nodeValue);
-                String path = folder.fetchPath();
+				EntityManager em = HibernateSession.getLocalEntityManager();
+				String path = FolderPathCache.fetchPath(Long.parseLong(nodeValue.trim()), em);
+				if(path == null){
+					log.debug("parent folder "+nodeValue+" was not found.");
+					continue;
+				}
 				log.debug("fieldname: "+fieldname+" value: "+ path);
 				doc.add(new Field(fieldname, path.toLowerCase(), store, index));
 			}
@@ -1,13 +1,17 @@
 package server.index.indexer;
 
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
 import org.dom4j.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import server.index.NumericFields;
 
 /**
  * <p>The TimeXpathIndexer expects an XPath parameter as searchString and will store
  * the results of this search in the Lucene document.</p>
  * <p>Timestamps must be formatted as YYYY-MM-DDThh:mm:ss.</p> 
+ * <p>Each value is also indexed as a NumericField (the time of day (hhmmss) as a number) for range queries.</p>
  */
 public class TimeXPathIndexer extends DefaultIndexer{
 
@@ -40,4 +44,18 @@ public class TimeXPathIndexer extends DefaultIndexer{
 		return result; 
 	}
 
+	@Override
+	protected void addFields(Document doc, String fieldname, Node node){
+		String nodeValue = convertNodeToString(node);
+		if(nodeValue == null){
+			return;
+		}
+		doc.add(new Field(fieldname, nodeValue, store, index));
+		try{
+			doc.add(NumericFields.createField(fieldname, Long.parseLong(nodeValue)));
+		}catch (NumberFormatException e) {
+			log.debug("not a number, skipping the numeric field: "+nodeValue);
+		}
+	}
+
 }
@@ -0,0 +1,90 @@
+package server.index.queryBuilder;
+
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.xmlparser.DOMUtils;
+import org.apache.lucene.xmlparser.ParserException;
+import org.apache.lucene.xmlparser.QueryBuilder;
+import org.w3c.dom.Element;
+import server.index.NumericFields;
+import server.index.indexer.DateTimeIndexer;
+
+/**
+ * The NumericRangeQueryBuilder is an extension to Lucene-XML-Query-Parser.
+ * It searches the numeric fields of the integer, decimal, date and time indexers (see NumericFields)
+ * for a range of values. Unlike a RangeQuery on the zero-padded string values, it does not have to
+ * enumerate every term in the range.
+ * <p>Example:
+ * <pre>
+ * &lt;NumericRangeQuery fieldName="contentsize" lowerTerm="1024" upperTerm="4096" /&gt;
+ * &lt;NumericRangeQuery fieldName="created" type="dateTime" lowerTerm="2011-01-01T00:00:00" /&gt;
+ * </pre>
+ * fieldName is the field name of the IndexItem. Either bound may be omitted for an open range;
+ * includeLower and includeUpper default to true. The type must match the indexer:
+ * <ul>
+ * <li>long (default): integer, date (yyyyMMdd), time (hhmmss) and date/time indexers (milliseconds)</li>
+ * <li>double: decimal indexer</li>
+ * <li>dateTime: date/time indexer, with bounds formatted as YYYY-MM-DDThh:mm:ss</li>
+ * </ul>
+ * </p>
+ */
+public class NumericRangeQueryBuilder implements QueryBuilder {
+
+	@Override
+	public Query getQuery(Element e) throws ParserException {
+		String field = NumericFields.fieldName(DOMUtils.getAttributeWithInheritanceOrFail(e, "fieldName"));
+		String lowerTerm = DOMUtils.getAttribute(e, "lowerTerm", null);
+		String upperTerm = DOMUtils.getAttribute(e, "upperTerm", null);
+		boolean includeLower = DOMUtils.getAttribute(e, "includeLower", true);
+		boolean includeUpper = DOMUtils.getAttribute(e, "includeUpper", true);
+		String type = DOMUtils.getAttribute(e, "type", "long");
+
+		if (type.equalsIgnoreCase("double")) {
+			return NumericRangeQuery.newDoubleRange(field, NumericFields.PRECISION_STEP,
+					parseDouble(lowerTerm), parseDouble(upperTerm), includeLower, includeUpper);
+		}
+		if (type.equalsIgnoreCase("dateTime")) {
+			return NumericRangeQuery.newLongRange(field, NumericFields.PRECISION_STEP,
+					parseDateTime(lowerTerm), parseDateTime(upperTerm), includeLower, includeUpper);
+		}
+		if (type.equalsIgnoreCase("long")) {
+			return NumericRangeQuery.newLongRange(field, NumericFields.PRECISION_STEP,
+					parseLong(lowerTerm), parseLong(upperTerm), includeLower, includeUpper);
+		}
+		throw new ParserException("Unknown type of NumericRangeQuery: " + type);
+	}
+
+	Long parseLong(String value) throws ParserException {
+		if (value == null) {
+			return null;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException ex) {
+			throw new ParserException("Not a valid long value for NumericRangeQuery: " + value);
+		}
+	}
+
+	Double parseDouble(String value) throws ParserException {
+		if (value == null) {
+			return null;
+		}
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException ex) {
+			throw new ParserException("Not a valid double value for NumericRangeQuery: " + value);
+		}
+	}
+
+	Long parseDateTime(String value) throws ParserException {
+		if (value == null) {
+			return null;
+		}
+		Long millis = DateTimeIndexer.parseMillis(value.trim());
+		if (millis == null) {
+			throw new ParserException("Not a valid date for NumericRangeQuery: " + value);
+		}
+		return millis;
+	}
+
+}
@@ -0,0 +1,123 @@
+package server.index;
+
+import org.dom4j.Node;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ContentContainerTest {
+
+    static final String CONTENT = "<a id=\"1\">"
+            + "<b id=\"2\"><name>x</name><c><name lang=\"en\">y</name></c></b>"
+            + "<b><name lang=\"de\">z</name>tail</b>"
+            + "<name>w</name>"
+            + "<d><b id=\"3\"><name>nested</name></b></d>"
+            + "<n:name xmlns:n=\"urn:test\">prefixed</n:name>"
+            + "<e xmlns=\"urn:test\"><name>default namespace</name></e>"
+            + "</a>";
+
+    /**
+     * Each shape of STREAMABLE_PATH: any depth, absolute, and both with an attribute.
+     */
+    static final List<String> PATHS = Arrays.asList("//name", "//b", "/a", "/a/b", "/a/d/b/name", "/a/name",
+            "/b", "/a/c", "/a/@id", "/a/b/@id", "//name/@lang", "//b/@id", "//missing");
+
+    @Test
+    public void streamSelectFindsTheNodesOfTheXPath() {
+        ContentContainer streamed = new ContentContainer(CONTENT.getBytes());
+        streamed.streamSelect(PATHS);
+        ContentContainer parsed = new ContentContainer(CONTENT.getBytes());
+        for (String path : PATHS) {
+            assertSameNodes(path, new CompiledXPath(path).selectNodes(parsed.asDocument()),
+                    streamed.fetchStreamedNodes(path));
+        }
+        assertNull(streamed.fetchStreamedNodes("//other"));
+    }
+
+    @Test
+    public void streamSelectOnAParsedDocumentUsesTheDocument() {
+        ContentContainer content = new ContentContainer(CONTENT.getBytes());
+        List<Node> expected = new CompiledXPath("//name").selectNodes(content.asDocument());
+        content.streamSelect(Arrays.asList("//name"));
+        assertSameNodes("//name", expected, content.fetchStreamedNodes("//name"));
+    }
+
+    static void assertSameNodes(String path, List<Node> expected, List<Node> actual) {
+        assertEquals(path, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(path, expected.get(i).getNodeType(), actual.get(i).getNodeType());
+            assertEquals(path, expected.get(i).asXML(), actual.get(i).asXML());
+        }
+    }
+
+    @Test
+    public void onlySimplePathsAreStreamable() {
+        for (String path : PATHS) {
+            assertTrue(path, ContentContainer.isStreamable(path));
+        }
+        assertTrue(ContentContainer.isStreamable(" /a/b-c/d.e "));
+        for (String path : Arrays.asList(null, "", "a/b", "//n:name", "/a/b[1]", "//a//b", "/a/*", "//a/text()",
+                "count(//a)", "/a/@id/b", "//@id", "/a | /b")) {
+            assertFalse(String.valueOf(path), ContentContainer.isStreamable(path));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void streamSelectRejectsOtherPaths() {
+        new ContentContainer(CONTENT.getBytes()).streamSelect(Arrays.asList("//name", "/a/b[1]"));
+    }
+
+    @Test
+    public void invalidContentYieldsNoNodes() {
+        ContentContainer content = new ContentContainer("<a><name>x</name>".getBytes());
+        content.streamSelect(Arrays.asList("//name"));
+        assertTrue(content.fetchStreamedNodes("//name").isEmpty());
+        assertFalse(content.isSkipped());
+    }
+
+    @Test
+    public void contentWithinTheLimitsIsNotSkipped() {
+        TestObject object = new TestObject(1, CONTENT);
+        ContentContainer content = new ContentContainer(object, TestIndex.REPOSITORY,
+                (long) CONTENT.getBytes().length, 4);
+        content.streamSelect(Arrays.asList("//name"));
+        assertFalse(content.isSkipped());
+        assertEquals(5, content.fetchStreamedNodes("//name").size());
+    }
+
+    @Test
+    public void contentLargerThanMaxSizeIsSkipped() {
+        TestObject object = new TestObject(1, CONTENT);
+        ContentContainer content = new ContentContainer(object, TestIndex.REPOSITORY,
+                (long) CONTENT.getBytes().length - 1, 0);
+        content.streamSelect(Arrays.asList("//name"));
+        assertTrue(content.isSkipped());
+        assertFalse(content.isSkippedTemporarily());
+        assertEquals("maxSize", content.getSkipReason());
+        assertTrue(content.fetchStreamedNodes("//name").isEmpty());
+
+        ContentContainer parsed = new ContentContainer(object, TestIndex.REPOSITORY, 10L, 0);
+        assertEquals("empty", parsed.asDocument().getRootElement().getName());
+        assertEquals("maxSize", parsed.getSkipReason());
+    }
+
+    @Test
+    public void contentDeeperThanMaxDepthIsSkipped() {
+        TestObject object = new TestObject(1, CONTENT);
+        ContentContainer content = new ContentContainer(object, TestIndex.REPOSITORY, 0L, 3);
+        content.streamSelect(Arrays.asList("//name"));
+        assertTrue(content.isSkipped());
+        assertEquals("maxDepth", content.getSkipReason());
+        assertTrue(content.fetchStreamedNodes("//name").isEmpty());
+
+        ContentContainer parsed = new ContentContainer(object, TestIndex.REPOSITORY, 0L, 3);
+        assertEquals("empty", parsed.asDocument().getRootElement().getName());
+        assertEquals("maxDepth", parsed.getSkipReason());
+    }
+}
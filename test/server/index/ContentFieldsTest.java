@@ -0,0 +1,108 @@
+package server.index;
+
+import org.apache.lucene.document.CompressionTools;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.document.NumericField;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ContentFieldsTest {
+
+    static void assertSameField(Fieldable expected, Fieldable actual) {
+        assertEquals(expected.name(), actual.name());
+        assertEquals(expected.stringValue(), actual.stringValue());
+        assertEquals(expected.isStored(), actual.isStored());
+        assertEquals(expected.isIndexed(), actual.isIndexed());
+        assertEquals(expected.isTokenized(), actual.isTokenized());
+        assertEquals(expected.getOmitNorms(), actual.getOmitNorms());
+    }
+
+    static void assertSameFields(List<Fieldable> expected, List<Fieldable> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameField(expected.get(i), actual.get(i));
+        }
+    }
+
+    @Test
+    public void stringFieldsRoundTrip() {
+        List<Fieldable> fields = Arrays.<Fieldable>asList(
+                new Field("title", "An analyzed title", Field.Store.NO, Field.Index.ANALYZED),
+                new Field("title", "Second élément", Field.Store.YES, Field.Index.ANALYZED_NO_NORMS),
+                new Field("code", "A-17", Field.Store.YES, Field.Index.NOT_ANALYZED),
+                new Field("note", "stored only", Field.Store.YES, Field.Index.NO));
+        assertSameFields(fields, ContentFields.decode(ContentFields.encode(fields)));
+    }
+
+    @Test
+    public void noFieldsRoundTrip() {
+        assertTrue(ContentFields.decode(ContentFields.encode(Arrays.<Fieldable>asList())).isEmpty());
+    }
+
+    @Test
+    public void fieldsWhichCannotBeRestoredAreNotEncoded() {
+        Field text = new Field("title", "text", Field.Store.NO, Field.Index.ANALYZED);
+        assertNull(ContentFields.encode(Arrays.<Fieldable>asList(text, new Field("binary", new byte[]{1, 2}))));
+        assertNull(ContentFields.encode(Arrays.<Fieldable>asList(text,
+                new Field("vector", "text", Field.Store.NO, Field.Index.ANALYZED, Field.TermVector.YES))));
+    }
+
+    @Test
+    public void numericFieldsRoundTrip() {
+        List<Fieldable> fields = Arrays.<Fieldable>asList(
+                new Field("contentsize", NumericFields.pad(1234L), Field.Store.NO, Field.Index.NOT_ANALYZED),
+                NumericFields.createField("contentsize", 1234L),
+                NumericFields.createField("price", 19.95),
+                new NumericField("stored", 4, Field.Store.YES, false).setLongValue(-7L));
+        List<Fieldable> decoded = ContentFields.decode(ContentFields.encode(fields));
+        assertSameFields(fields, decoded);
+        for (int i = 1; i < fields.size(); i++) {
+            NumericField expected = (NumericField) fields.get(i);
+            NumericField actual = (NumericField) decoded.get(i);
+            assertEquals(expected.getNumericValue(), actual.getNumericValue());
+            assertEquals(expected.getPrecisionStep(), actual.getPrecisionStep());
+        }
+    }
+
+    @Test
+    public void format1IsStillReadable() throws Exception {
+        // version 1 wrote String fields only, without a kind byte.
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(1);
+        out.writeInt(1);
+        out.writeUTF("title");
+        out.writeBoolean(true);
+        out.writeBoolean(true);
+        out.writeBoolean(true);
+        out.writeBoolean(false);
+        byte[] value = "Old title".getBytes("UTF-8");
+        out.writeInt(value.length);
+        out.write(value);
+        out.close();
+        List<Fieldable> decoded = ContentFields.decode(CompressionTools.compress(buffer.toByteArray()));
+        assertSameFields(Arrays.<Fieldable>asList(new Field("title", "Old title", Field.Store.YES, Field.Index.ANALYZED)),
+                decoded);
+    }
+
+    @Test
+    public void unreadableDataIsNotDecoded() throws Exception {
+        assertNull(ContentFields.decode(null));
+        assertNull(ContentFields.decode(new byte[]{1, 2, 3}));
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(ContentFields.FORMAT + 1);
+        out.writeInt(0);
+        out.close();
+        assertNull(ContentFields.decode(CompressionTools.compress(buffer.toByteArray())));
+    }
+}
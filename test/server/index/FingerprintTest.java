@@ -0,0 +1,169 @@
+package server.index;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Fieldable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import server.index.indexer.DefaultIndexer;
+import server.index.valueAssistance.DefaultProvider;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FingerprintTest {
+
+    static final IndexType STRING_TYPE = new IndexType("xpath.string_indexer", DefaultIndexer.class,
+            DefaultProvider.class, IndexType.DataType.STRING);
+
+    LuceneBridge lucene;
+    TestObject object;
+
+    @Before
+    public void setUp() throws Exception {
+        lucene = TestIndex.open();
+        lucene.updateIndexItems(createIndexItems("//title"));
+        object = new TestObject(1, "<doc><title>first</title></doc>");
+        object.metadata = "<meta><keyword>old</keyword></meta>";
+    }
+
+    @After
+    public void tearDown() {
+        lucene.close();
+    }
+
+    static List<IndexItem> createIndexItems(String titlePath) {
+        List<IndexItem> items = new ArrayList<IndexItem>();
+        items.add(new IndexItem("title", titlePath, "true()", "title", STRING_TYPE, true, "<vaParams/>",
+                false, null, true, false, false));
+        items.add(new IndexItem("keyword", "//keyword", "true()", "keyword", STRING_TYPE, true, "<vaParams/>",
+                false, null, false, true, false));
+        return items;
+    }
+
+    Document createDocument(ChangeScope scope, Document previous) {
+        object.contentReads = 0;
+        return lucene.createDocument(lucene.loadIndexData(object, false, scope), previous);
+    }
+
+    static String value(Document doc, String field) {
+        Fieldable fieldable = doc.getFieldable(field);
+        return fieldable == null ? null : fieldable.stringValue();
+    }
+
+    @Test
+    public void parseReadsToString() {
+        Fingerprint fingerprint = new Fingerprint("items", "content", "fields");
+        assertEquals(fingerprint, Fingerprint.parse(fingerprint.toString()));
+        assertEquals(fingerprint.hashCode(), Fingerprint.parse(fingerprint.toString()).hashCode());
+        assertEquals(new Fingerprint("items", "", "fields"), Fingerprint.parse("items::fields"));
+        assertNull(Fingerprint.parse(null));
+        assertNull(Fingerprint.parse("items:content"));
+    }
+
+    @Test
+    public void sameContentIgnoresTheFieldsDigest() {
+        Fingerprint fingerprint = new Fingerprint("items", "content", "fields");
+        assertTrue(fingerprint.hasSameContent(new Fingerprint("items", "content", "other")));
+        assertFalse(fingerprint.equals(new Fingerprint("items", "content", "other")));
+        assertFalse(fingerprint.hasSameContent(new Fingerprint("items", "other", "fields")));
+        assertFalse(fingerprint.hasSameContent(new Fingerprint("other", "content", "fields")));
+        assertFalse(fingerprint.hasSameContent(null));
+    }
+
+    @Test
+    public void digestsDoNotDependOnTheOrder() {
+        Field a = new Field("a", "1", Field.Store.YES, Field.Index.NOT_ANALYZED);
+        Field b = new Field("b", "2", Field.Store.YES, Field.Index.NOT_ANALYZED);
+        assertEquals(Fingerprint.digestFields(Arrays.<Fieldable>asList(a, b)),
+                Fingerprint.digestFields(Arrays.<Fieldable>asList(b, a)));
+        assertEquals(Fingerprint.digestItems(Arrays.asList("x", "y")), Fingerprint.digestItems(Arrays.asList("y", "x")));
+        assertFalse(Fingerprint.digestItems(Arrays.asList("ab", "c")).equals(Fingerprint.digestItems(Arrays.asList("a", "bc"))));
+        assertFalse(Fingerprint.digestItems(Collections.<String>emptyList()).equals(Fingerprint.digestItems(Arrays.asList(""))));
+    }
+
+    @Test
+    public void unchangedObjectIsSkipped() {
+        Document indexed = createDocument(ChangeScope.ALL, null);
+        assertNotNull(indexed.get(Fingerprint.FIELD));
+        assertNotNull(indexed.getBinaryValue(ContentFields.FIELD));
+        assertEquals("first", value(indexed, "title"));
+
+        assertNull(createDocument(ChangeScope.ALL, indexed));
+        assertNull(createDocument(ChangeScope.METADATA, indexed));
+    }
+
+    @Test
+    public void metadataChangeReusesTheContentFields() {
+        Document indexed = createDocument(ChangeScope.ALL, null);
+        object.metadata = "<meta><keyword>new</keyword></meta>";
+
+        Document doc = createDocument(ChangeScope.METADATA, indexed);
+        assertNotNull(doc);
+        assertEquals("new", value(doc, "keyword"));
+        assertEquals("first", value(doc, "title"));
+        assertEquals(0, object.contentReads);
+        Fingerprint before = Fingerprint.parse(indexed.get(Fingerprint.FIELD));
+        Fingerprint after = Fingerprint.parse(doc.get(Fingerprint.FIELD));
+        assertTrue(after.hasSameContent(before));
+        assertFalse(after.equals(before));
+    }
+
+    @Test
+    public void unchangedContentIsReadOnlyForItsDigest() {
+        Document indexed = createDocument(ChangeScope.ALL, null);
+        object.metadata = "<meta><keyword>new</keyword></meta>";
+
+        // the scope does not tell whether the content changed: it is digested, but not parsed.
+        Document doc = createDocument(ChangeScope.ALL, indexed);
+        assertEquals("first", value(doc, "title"));
+        assertEquals(1, object.contentReads);
+    }
+
+    @Test
+    public void contentChangeRunsTheContentItems() {
+        Document indexed = createDocument(ChangeScope.ALL, null);
+        object.content = "<doc><title>second</title></doc>";
+
+        assertEquals("second", value(createDocument(ChangeScope.CONTENT, indexed), "title"));
+        assertEquals("second", value(createDocument(ChangeScope.ALL, indexed), "title"));
+    }
+
+    @Test
+    public void changedIndexItemsRunTheContentItems() {
+        Document indexed = createDocument(ChangeScope.ALL, null);
+        assertTrue(lucene.hasReusableContent(indexed));
+        lucene.updateIndexItems(createIndexItems("/doc/title"));
+        assertFalse(lucene.hasReusableContent(indexed));
+
+        Document doc = createDocument(ChangeScope.METADATA, indexed);
+        assertNotNull(doc);
+        assertEquals("first", value(doc, "title"));
+        assertEquals(1, object.contentReads);
+        Fingerprint before = Fingerprint.parse(indexed.get(Fingerprint.FIELD));
+        Fingerprint after = Fingerprint.parse(doc.get(Fingerprint.FIELD));
+        assertFalse(after.hasSameContent(before));
+    }
+
+    @Test
+    public void digestCoversSkippedContent() throws Exception {
+        String expected = Fingerprint.digestStream(new ByteArrayInputStream(object.getContentAsBytes(null)));
+        object.contentReads = 0;
+        ContentContainer content = new ContentContainer(object, TestIndex.REPOSITORY, 10L, 0);
+        content.streamSelect(Arrays.asList("//title"));
+        assertTrue(content.isSkipped());
+        // computed while the content was parsed, although the parser stopped at maxSize.
+        assertEquals(expected, content.digest());
+        assertEquals(1, object.contentReads);
+    }
+}
@@ -0,0 +1,115 @@
+package server.index;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import server.dao.IndexJobDAO;
+import server.exceptions.CinnamonException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IndexBatchTest {
+
+    LuceneBridge lucene;
+    final List<IndexJob> deleted = new ArrayList<IndexJob>();
+    IndexJobDAO jobDao;
+
+    @Before
+    public void setUp() throws Exception {
+        lucene = TestIndex.open();
+        jobDao = (IndexJobDAO) Proxy.newProxyInstance(IndexJobDAO.class.getClassLoader(),
+                new Class<?>[]{IndexJobDAO.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("delete")) {
+                            deleted.add((IndexJob) args[0]);
+                            return null;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        lucene.close();
+    }
+
+    @Test
+    public void jobsAreDeletedOnlyAfterTheCommit() throws Exception {
+        IndexBatch batch = new IndexBatch(lucene, jobDao, 10, 60000L);
+        TestObject object = new TestObject(1, "<content/>");
+        IndexJob job = new IndexJob(object);
+        batch.update(object, job);
+        batch.maybeCommit();
+        assertTrue(deleted.isEmpty());
+        assertEquals(0, TestIndex.committedDocs(lucene));
+
+        batch.commit();
+        assertEquals(Arrays.asList(job), deleted);
+        assertEquals(1, TestIndex.committedDocs(lucene));
+        assertEquals(Long.valueOf(1), batch.getCommittedChanges());
+    }
+
+    @Test
+    public void maybeCommitCommitsAFullBatch() throws Exception {
+        IndexBatch batch = new IndexBatch(lucene, jobDao, 2, 60000L);
+        for (long id = 1; id <= 2; id++) {
+            TestObject object = new TestObject(id, "<content/>");
+            batch.update(object, new IndexJob(object));
+            batch.maybeCommit();
+        }
+        assertEquals(2, deleted.size());
+        assertEquals(2, TestIndex.committedDocs(lucene));
+    }
+
+    @Test
+    public void lostChangesKeepTheirJobs() throws Exception {
+        IndexBatch batch = new IndexBatch(lucene, jobDao, 10, 60000L);
+        TestObject object = new TestObject(1, "<content/>");
+        IndexJob job = new IndexJob(object);
+        IndexJob duplicate = new IndexJob(object);
+        batch.update(object, job);
+        batch.done(duplicate);
+        // as after an OutOfMemoryError in another thread: the writer is re-created before the batch is committed.
+        lucene.recreateWriter(lucene.getIndexWriter());
+        batch.commit();
+        assertEquals(Arrays.asList(duplicate), deleted);
+        assertEquals(Long.valueOf(0), batch.getCommittedChanges());
+
+        // the next run indexes the object again.
+        batch.update(object, job);
+        batch.commit();
+        assertEquals(Arrays.asList(duplicate, job), deleted);
+        assertEquals(1, TestIndex.committedDocs(lucene));
+    }
+
+    @Test
+    public void failedCommitKeepsTheJobs() throws Exception {
+        lucene.close();
+        lucene = TestIndex.open(new LuceneBridge() {
+            @Override
+            Long commitWriter() {
+                throw new CinnamonException("error.lucene.IO");
+            }
+        });
+        IndexBatch batch = new IndexBatch(lucene, jobDao, 10, 60000L);
+        TestObject object = new TestObject(1, "<content/>");
+        batch.update(object, new IndexJob(object));
+        try {
+            batch.commit();
+            fail("the commit should have failed");
+        } catch (CinnamonException e) {
+            assertTrue(deleted.isEmpty());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package server.index;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import server.exceptions.CinnamonException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SearcherProviderTest {
+
+    LuceneBridge lucene;
+    SearcherProvider provider;
+
+    @Before
+    public void setUp() throws Exception {
+        lucene = TestIndex.open();
+        provider = lucene.getSearcherProvider();
+    }
+
+    @After
+    public void tearDown() {
+        lucene.close();
+    }
+
+    @Test
+    public void acquireAndReleaseCountReferences() {
+        IndexSearcher searcher = provider.acquire();
+        IndexReader reader = searcher.getIndexReader();
+        // one reference is held by the provider itself.
+        assertEquals(2, reader.getRefCount());
+        IndexSearcher second = provider.acquire();
+        assertSame(searcher, second);
+        assertEquals(3, reader.getRefCount());
+        provider.release(second);
+        provider.release(searcher);
+        assertEquals(1, reader.getRefCount());
+    }
+
+    @Test
+    public void refreshKeepsTheOldSearcherUntilItIsReleased() throws Exception {
+        IndexSearcher old = provider.acquire();
+        lucene.stageUpdate(new TestObject(1, "<content/>"));
+        assertTrue(provider.maybeRefresh());
+
+        IndexSearcher current = provider.acquire();
+        assertNotSame(old, current);
+        // the uncommitted change is visible to the near-real-time reader.
+        assertEquals(1, current.getIndexReader().numDocs());
+        assertEquals(0, old.getIndexReader().numDocs());
+        assertEquals(1, old.getIndexReader().getRefCount());
+        provider.release(old);
+        assertEquals(0, old.getIndexReader().getRefCount());
+        provider.release(current);
+        assertEquals(1, current.getIndexReader().getRefCount());
+    }
+
+    @Test
+    public void refreshWithoutChangesKeepsTheSearcher() throws Exception {
+        IndexSearcher searcher = provider.acquire();
+        provider.release(searcher);
+        assertFalse(provider.maybeRefresh());
+        IndexSearcher same = provider.acquire();
+        assertSame(searcher, same);
+        provider.release(same);
+    }
+
+    @Test
+    public void refreshFollowsARecreatedWriter() throws Exception {
+        lucene.stageUpdate(new TestObject(1, "<content/>"));
+        lucene.commit();
+        provider.maybeRefresh();
+        IndexSearcher old = provider.acquire();
+
+        IndexWriter failed = lucene.getIndexWriter();
+        lucene.recreateWriter(failed);
+        assertNotSame(failed, lucene.getIndexWriter());
+        lucene.stageUpdate(new TestObject(2, "<content/>"));
+        assertTrue(provider.maybeRefresh());
+
+        IndexSearcher current = provider.acquire();
+        assertEquals(2, current.getIndexReader().numDocs());
+        // a searcher of the old writer stays usable until it is released.
+        assertEquals(1, old.getIndexReader().numDocs());
+        provider.release(old);
+        assertEquals(0, old.getIndexReader().getRefCount());
+        provider.release(current);
+    }
+
+    @Test
+    public void closeKeepsAcquiredSearchers() {
+        IndexSearcher searcher = provider.acquire();
+        provider.close();
+        assertEquals(1, searcher.getIndexReader().getRefCount());
+        assertEquals(0, searcher.getIndexReader().numDocs());
+        provider.release(searcher);
+        assertEquals(0, searcher.getIndexReader().getRefCount());
+        try {
+            provider.acquire();
+            fail("a closed provider should not hand out searchers");
+        } catch (CinnamonException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package server.index;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+import java.io.IOException;
+
+/**
+ * Sets up a LuceneBridge on an empty RAMDirectory, the way the LuceneBridge constructor does for an
+ * index folder. The SearcherProvider does not refresh in the background, so the tests call maybeRefresh().
+ */
+public class TestIndex {
+
+    static final String REPOSITORY = "test";
+    static final Long NEVER = 3600000L;
+
+    private TestIndex() {
+    }
+
+    static LuceneBridge open() throws IOException {
+        return open(new LuceneBridge());
+    }
+
+    static <T extends LuceneBridge> T open(T lucene) throws IOException {
+        lucene.repository = REPOSITORY;
+        lucene.analyzer = new StandardAnalyzer(Version.LUCENE_34);
+        lucene.indexDir = new RAMDirectory();
+        lucene.indexWriter = lucene.createWriter(lucene.indexDir);
+        // an empty first commit, so the index can be opened by a reader.
+        lucene.indexWriter.commit();
+        lucene.searcherProvider = new SearcherProvider(lucene, NEVER, NEVER);
+        return lucene;
+    }
+
+    /**
+     * @return the number of documents in the last commit of the bridge's index.
+     */
+    static int committedDocs(LuceneBridge lucene) throws IOException {
+        IndexReader reader = IndexReader.open(lucene.indexDir);
+        try {
+            return reader.numDocs();
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package server.index;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * An Indexable which keeps its content and metadata in memory, so the tests need neither a database
+ * nor a content store. contentReads counts how often the content was fetched.
+ */
+public class TestObject implements Indexable {
+
+    final Long id;
+    String content;
+    String metadata = "<meta/>";
+    int contentReads = 0;
+
+    public TestObject(long id, String content) {
+        this.id = id;
+        this.content = content;
+    }
+
+    @Override
+    public String getMetadata() {
+        return metadata;
+    }
+
+    @Override
+    public String getContent(String repository) {
+        contentReads++;
+        return content;
+    }
+
+    @Override
+    public byte[] getContentAsBytes(String repository) {
+        contentReads++;
+        try {
+            return content.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String getSystemMetadata() {
+        return "<sysMeta javaClass=\"" + getClass().getName() + "\" hibernateId=\"" + id + "\" id=\"" + uniqueId()
+                + "\"><object><id>" + id + "</id></object></sysMeta>";
+    }
+
+    @Override
+    public Boolean hasXmlContent() {
+        return true;
+    }
+
+    @Override
+    public void updateIndex() {
+    }
+
+    @Override
+    public Long myId() {
+        return id;
+    }
+
+    @Override
+    public Indexable reload() {
+        return this;
+    }
+
+    @Override
+    public String uniqueId() {
+        return getClass().getName() + "@" + id;
+    }
+}